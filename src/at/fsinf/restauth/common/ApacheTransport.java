@@ -0,0 +1,210 @@
+package at.fsinf.restauth.common;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import org.apache.http.Header;
+import org.apache.http.client.HttpClient;
+import org.apache.http.client.methods.HttpDelete;
+import org.apache.http.client.methods.HttpEntityEnclosingRequestBase;
+import org.apache.http.client.methods.HttpGet;
+import org.apache.http.client.methods.HttpPost;
+import org.apache.http.client.methods.HttpPut;
+import org.apache.http.client.methods.HttpRequestBase;
+import org.apache.http.conn.ClientConnectionManager;
+import org.apache.http.conn.params.ConnManagerParams;
+import org.apache.http.conn.params.ConnPerRouteBean;
+import org.apache.http.conn.scheme.PlainSocketFactory;
+import org.apache.http.conn.scheme.Scheme;
+import org.apache.http.conn.scheme.SchemeRegistry;
+import org.apache.http.conn.ssl.SSLSocketFactory;
+import org.apache.http.entity.AbstractHttpEntity;
+import org.apache.http.impl.client.DefaultHttpClient;
+import org.apache.http.impl.conn.tsccm.ThreadSafeClientConnManager;
+import org.apache.http.params.BasicHttpParams;
+import org.apache.http.params.HttpParams;
+
+/**
+ * A {@link Transport} that uses the Apache HttpComponents client. Response
+ * bodies can be streamed and compressed responses are decompressed while they
+ * are read.
+ *
+ * @author Mathias Ertl
+ */
+public class ApacheTransport implements StreamingTransport {
+    private final HttpClient client;
+
+    /**
+     * An entity for the first bytes of an array. HttpCore 4.0 has no entity
+     * that takes an offset and a length.
+     */
+    private static class BodyEntity extends AbstractHttpEntity {
+        private final byte[] body;
+        private final int length;
+
+        BodyEntity( byte[] body, int length ) {
+            this.body = body;
+            this.length = length;
+        }
+
+        @Override
+        public boolean isRepeatable() {
+            return true;
+        }
+
+        @Override
+        public long getContentLength() {
+            return this.length;
+        }
+
+        @Override
+        public InputStream getContent() {
+            return new ByteArrayInputStream( this.body, 0, this.length );
+        }
+
+        @Override
+        public void writeTo( OutputStream out ) throws IOException {
+            out.write( this.body, 0, this.length );
+            out.flush();
+        }
+
+        @Override
+        public boolean isStreaming() {
+            return false;
+        }
+    }
+
+    /**
+     * Creates a transport that uses a single HTTP connection. Instances
+     * created by this constructor must not be shared between threads.
+     */
+    public ApacheTransport() {
+        this( new DefaultHttpClient() );
+    }
+
+    /**
+     * Creates a thread-safe transport. The underlying HTTP connections are
+     * kept in a pool and reused, so a single instance can be shared by any
+     * number of threads.
+     *
+     * @param maxTotal The maximum number of open connections.
+     * @param maxPerRoute The maximum number of open connections to the same
+     *      host.
+     */
+    public ApacheTransport( int maxTotal, int maxPerRoute ) {
+        this( new DefaultHttpClient(
+                ApacheTransport.createPooledConnectionManager( maxTotal, maxPerRoute ),
+                null ) );
+    }
+
+    /**
+     * Creates a transport that uses the given, already configured client.
+     *
+     * @param client The client to use.
+     */
+    public ApacheTransport( HttpClient client ) {
+        this.client = client;
+    }
+
+    /**
+     * Get the client used by this transport.
+     *
+     * @return The HTTP client.
+     */
+    public HttpClient getClient() {
+        return this.client;
+    }
+
+    /**
+     * Convert the request into its HttpComponents equivalent and execute it.
+     *
+     * @param request The request to send.
+     * @return The response returned by the RestAuth server.
+     * @throws IOException When the connection to the RestAuth server fails.
+     */
+    @Override
+    public RestAuthResponse execute( RestAuthRequest request ) throws IOException {
+        return this.execute( request, null );
+    }
+
+    /**
+     * Convert the request into its HttpComponents equivalent and execute it,
+     * passing the response body to the given handler.
+     *
+     * @param request The request to send.
+     * @param handler The handler that reads the body, may be null.
+     * @return The response returned by the RestAuth server.
+     * @throws IOException When the connection to the RestAuth server fails.
+     */
+    @Override
+    public RestAuthResponse execute( RestAuthRequest request, StreamHandler handler )
+            throws IOException {
+        HttpRequestBase method = this.createMethod( request.getMethod() );
+        method.setURI( request.getURI() );
+        for ( Header header : request.getHeaders() ) {
+            method.addHeader( header );
+        }
+        if ( request.getBody() != null ) {
+            ((HttpEntityEnclosingRequestBase) method).setEntity(
+                    new BodyEntity( request.getBody(), request.getBodyLength() ) );
+        }
+        return this.client.execute( method, new RestAuthResponseHandler( handler,
+                request.getCompression() ) );
+    }
+
+    /**
+     * Shut down the connection manager of the client.
+     */
+    @Override
+    public void shutdown() {
+        this.client.getConnectionManager().shutdown();
+    }
+
+    /**
+     * Create an empty request object for the given HTTP method.
+     *
+     * @param method The HTTP method.
+     * @return The request object.
+     */
+    private HttpRequestBase createMethod( String method ) {
+        if ( method.equals( HttpGet.METHOD_NAME ) ) {
+            return new HttpGet();
+        } else if ( method.equals( HttpPost.METHOD_NAME ) ) {
+            return new HttpPost();
+        } else if ( method.equals( HttpPut.METHOD_NAME ) ) {
+            return new HttpPut();
+        } else if ( method.equals( HttpDelete.METHOD_NAME ) ) {
+            return new HttpDelete();
+        } else {
+            throw new IllegalArgumentException( "Unsupported method: " + method );
+        }
+    }
+
+    /**
+     * Create a thread-safe connection manager that keeps at most maxTotal
+     * connections open, but no more than maxPerRoute to the same host.
+     *
+     * @param maxTotal The maximum number of open connections.
+     * @param maxPerRoute The maximum number of open connections per host.
+     * @return The new connection manager.
+     */
+    private static ClientConnectionManager createPooledConnectionManager(
+            int maxTotal, int maxPerRoute ) {
+        if ( maxTotal < 1 || maxPerRoute < 1 ) {
+            throw new IllegalArgumentException(
+                    "Connection limits must be greater than zero." );
+        }
+        HttpParams params = new BasicHttpParams();
+        ConnManagerParams.setMaxTotalConnections( params, maxTotal );
+        ConnManagerParams.setMaxConnectionsPerRoute( params,
+                new ConnPerRouteBean( maxPerRoute ) );
+
+        SchemeRegistry registry = new SchemeRegistry();
+        registry.register( new Scheme( "http",
+                PlainSocketFactory.getSocketFactory(), 80 ) );
+        registry.register( new Scheme( "https",
+                SSLSocketFactory.getSocketFactory(), 443 ) );
+        return new ThreadSafeClientConnManager( params, registry );
+    }
+}
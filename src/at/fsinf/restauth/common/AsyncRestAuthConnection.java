@@ -0,0 +1,86 @@
+package at.fsinf.restauth.common;
+
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * An asynchronous front-end to a {@link RestAuthConnection}. Requests are
+ * submitted to an executor and the caller immediately receives a {@link
+ * Future} for the result.
+ *
+ * The wrapped connection is used by several threads at once, so it should be
+ * created with one of the pooled {@link RestAuthConnection} constructors.
+ *
+ * @author Mathias Ertl
+ * @see at.fsinf.restauth.resources.AsyncUser
+ * @see at.fsinf.restauth.resources.AsyncGroup
+ */
+public class AsyncRestAuthConnection {
+    private final RestAuthConnection connection;
+    private final ExecutorService executor;
+
+    /**
+     * Creates a new asynchronous connection that uses the given executor to
+     * run requests.
+     *
+     * @param connection The (thread-safe) connection to use.
+     * @param executor The executor that runs the requests.
+     */
+    public AsyncRestAuthConnection( RestAuthConnection connection, ExecutorService executor ) {
+        this.connection = connection;
+        this.executor = executor;
+    }
+
+    /**
+     * Creates a new asynchronous connection that runs at most the given number
+     * of requests at the same time. The requests run on daemon threads, so
+     * an application can exit even if {@link #shutdown()} is never called.
+     *
+     * @param connection The (thread-safe) connection to use.
+     * @param threads The number of requests that may run at the same time.
+     */
+    public AsyncRestAuthConnection( RestAuthConnection connection, int threads ) {
+        this( connection, Executors.newFixedThreadPool( threads,
+                new DaemonThreadFactory( "RestAuth async" ) ) );
+    }
+
+    /**
+     * Get the connection used for making requests.
+     *
+     * @return The wrapped connection.
+     */
+    public RestAuthConnection getConnection() {
+        return this.connection;
+    }
+
+    /**
+     * Get the executor that runs the requests.
+     *
+     * @return The executor used by this connection.
+     */
+    public ExecutorService getExecutor() {
+        return this.executor;
+    }
+
+    /**
+     * Run the given task asynchronously. Any exception thrown by the task is
+     * available via {@link java.util.concurrent.ExecutionException#getCause()}
+     * when calling {@link Future#get()}.
+     *
+     * @param task The task to run.
+     * @return The pending result of the task.
+     */
+    public <T> Future<T> submit( Callable<T> task ) {
+        return this.executor.submit( task );
+    }
+
+    /**
+     * Stop accepting new requests. Requests that were already submitted are
+     * still executed.
+     */
+    public void shutdown() {
+        this.executor.shutdown();
+    }
+}
@@ -0,0 +1,53 @@
+package at.fsinf.restauth.common;
+
+import java.io.ByteArrayOutputStream;
+
+/**
+ * A {@link ByteArrayOutputStream} that gives access to its internal array, so
+ * request bodies can be sent without copying them. Every thread reuses a
+ * single instance, see {@link #get()}.
+ *
+ * @author Mathias Ertl
+ */
+class BodyBuffer extends ByteArrayOutputStream {
+    /**
+     * Buffers that grew beyond this size are not reused.
+     */
+    private static final int MAX_REUSE_SIZE = 64 * 1024;
+
+    private static final ThreadLocal<BodyBuffer> buffers = new ThreadLocal<BodyBuffer>() {
+        @Override
+        protected BodyBuffer initialValue() {
+            return new BodyBuffer();
+        }
+    };
+
+    private BodyBuffer() {
+        super( 256 );
+    }
+
+    /**
+     * Get the empty buffer of the current thread.
+     *
+     * @return The buffer.
+     */
+    static BodyBuffer get() {
+        BodyBuffer buffer = buffers.get();
+        if ( buffer.buf.length > MAX_REUSE_SIZE ) {
+            buffer = new BodyBuffer();
+            buffers.set( buffer );
+        }
+        buffer.reset();
+        return buffer;
+    }
+
+    /**
+     * Get the internal array of this buffer. Only the first {@link #size()}
+     * bytes are valid.
+     *
+     * @return The internal array.
+     */
+    byte[] getArray() {
+        return this.buf;
+    }
+}
@@ -0,0 +1,114 @@
+package at.fsinf.restauth.common;
+
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.InflaterInputStream;
+
+/**
+ * Asks the RestAuth server for compressed responses and decompresses them
+ * while they are read. Large responses (i.e. the lists returned by {@link
+ * at.fsinf.restauth.resources.User#getAll}) are much smaller when compressed.
+ *
+ * Set an instance via {@link RestAuthConnection#setCompression} to enable it.
+ * The instance counts the number of bytes received and the number of bytes
+ * they were decompressed to.
+ *
+ * @author Mathias Ertl
+ */
+public class Compression {
+    /**
+     * The value of the Accept-Encoding header sent with every request.
+     */
+    public static final String ACCEPT_ENCODING = "gzip, deflate";
+
+    private final AtomicLong compressedBytes = new AtomicLong();
+    private final AtomicLong uncompressedBytes = new AtomicLong();
+
+    /**
+     * A stream that adds the number of bytes read to a counter.
+     */
+    private static class CountingInputStream extends FilterInputStream {
+        private final AtomicLong counter;
+
+        CountingInputStream( InputStream in, AtomicLong counter ) {
+            super( in );
+            this.counter = counter;
+        }
+
+        @Override
+        public int read() throws IOException {
+            int b = super.read();
+            if ( b != -1 ) this.counter.incrementAndGet();
+            return b;
+        }
+
+        @Override
+        public int read( byte[] b, int off, int len ) throws IOException {
+            int read = super.read( b, off, len );
+            if ( read > 0 ) this.counter.addAndGet( read );
+            return read;
+        }
+
+        @Override
+        public long skip( long n ) throws IOException {
+            long skipped = super.skip( n );
+            if ( skipped > 0 ) this.counter.addAndGet( skipped );
+            return skipped;
+        }
+
+        @Override
+        public boolean markSupported() {
+            return false;
+        }
+    }
+
+    /**
+     * Decompress a response body.
+     *
+     * @param in The raw response body.
+     * @param contentEncoding The value of the Content-Encoding header of the
+     *      response, may be null.
+     * @return A stream returning the decompressed body, or the given stream
+     *      if the body is not compressed.
+     * @throws IOException If the body uses an unsupported encoding or the
+     *      compressed data is corrupt.
+     */
+    public InputStream decode( InputStream in, String contentEncoding )
+            throws IOException {
+        if ( in == null || contentEncoding == null ) return in;
+        String encoding = contentEncoding.trim().toLowerCase();
+        if ( encoding.length() == 0 || encoding.equals( "identity" ) ) return in;
+
+        InputStream raw = new CountingInputStream( in, this.compressedBytes );
+        InputStream decoded;
+        if ( encoding.equals( "gzip" ) || encoding.equals( "x-gzip" ) ) {
+            decoded = new GZIPInputStream( raw );
+        } else if ( encoding.equals( "deflate" ) ) {
+            decoded = new InflaterInputStream( raw );
+        } else {
+            throw new IOException( "Unsupported Content-Encoding: " + contentEncoding );
+        }
+        return new CountingInputStream( decoded, this.uncompressedBytes );
+    }
+
+    /**
+     * Get the number of compressed bytes received from the server.
+     *
+     * @return The number of compressed bytes.
+     */
+    public long getCompressedBytes() {
+        return this.compressedBytes.get();
+    }
+
+    /**
+     * Get the number of bytes the compressed responses were decompressed to.
+     *
+     * @return The number of uncompressed bytes.
+     */
+    public long getUncompressedBytes() {
+        return this.uncompressedBytes.get();
+    }
+}
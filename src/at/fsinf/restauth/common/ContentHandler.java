@@ -1,5 +1,14 @@
 package at.fsinf.restauth.common;
 
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.io.Reader;
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 
@@ -60,4 +69,146 @@ public abstract class ContentHandler {
      * @return The parsed string.
      */
     public abstract String unmarshal_string( String raw );
+
+    /**
+     * Unmarshal a list received by the RestAuth server while it is still
+     * being read, passing each element to the callback.
+     *
+     * The default implementation reads the whole stream and uses {@link
+     * #unmarshal_list(java.lang.String)}, subclasses should override it if
+     * their format allows reading the list incrementally.
+     *
+     * @param in The raw representation of the list.
+     * @param charset The charset used by the raw representation.
+     * @param callback The callback receiving the elements of the list.
+     * @throws IOException If reading from the stream fails.
+     */
+    public void unmarshal_list( InputStream in, String charset, ListCallback callback )
+            throws IOException {
+        Reader reader = new InputStreamReader( in, charset );
+        StringBuilder raw = new StringBuilder();
+        char[] buffer = new char[4096];
+        int read;
+        while ( ( read = reader.read( buffer ) ) != -1 ) {
+            raw.append( buffer, 0, read );
+        }
+        for ( String value : this.unmarshal_list( raw.toString() ) ) {
+            callback.item( value );
+        }
+    }
+
+    /**
+     * Marshal a map directly into a stream, using UTF-8 as charset. This is
+     * used by {@link RestAuthConnection} to write request bodies into a
+     * reusable buffer.
+     *
+     * The default implementation encodes the result of {@link
+     * #marshal_dictionary(java.util.Map)}, subclasses should override it if
+     * they can write bytes directly.
+     *
+     * @param map The map to marshal.
+     * @param out The stream to write to.
+     * @throws IOException If writing to the stream fails.
+     */
+    public void marshal_dictionary( Map<String, Object> map, OutputStream out )
+            throws IOException {
+        out.write( this.marshal_dictionary( map ).getBytes( "UTF-8" ) );
+    }
+
+    /**
+     * Marshal a dictionary that only contains strings directly into a stream,
+     * using UTF-8 as charset. Most request bodies sent to a RestAuth server
+     * have this shape, so this method allows sending them without creating a
+     * map first.
+     *
+     * The default implementation creates a map and uses {@link
+     * #marshal_dictionary(java.util.Map, java.io.OutputStream)}.
+     *
+     * @param out The stream to write to.
+     * @param fields Alternating keys and values of the dictionary. Keys whose
+     *      value is null are omitted.
+     * @throws IOException If writing to the stream fails.
+     */
+    public void marshal_fields( OutputStream out, String... fields )
+            throws IOException {
+        Map<String, Object> map = new LinkedHashMap<String, Object>();
+        for ( int i = 0; i < fields.length; i += 2 ) {
+            if ( fields[i + 1] != null ) map.put( fields[i], fields[i + 1] );
+        }
+        this.marshal_dictionary( map, out );
+    }
+
+    /**
+     * Unmarshal a dictionary from the raw body of a response.
+     *
+     * The default implementation decodes the body and uses {@link
+     * #unmarshal_dictionary(java.lang.String)}.
+     *
+     * @param raw The raw representation of the dictionary.
+     * @param charset The charset used by the raw representation.
+     * @return The parsed map.
+     */
+    public Map<String, String> unmarshal_dictionary( ByteBuffer raw, String charset ) {
+        return this.unmarshal_dictionary( ContentHandler.decode( raw, charset ) );
+    }
+
+    /**
+     * Unmarshal a list from the raw body of a response.
+     *
+     * The default implementation decodes the body and uses {@link
+     * #unmarshal_list(java.lang.String)}.
+     *
+     * @param raw The raw representation of the list.
+     * @param charset The charset used by the raw representation.
+     * @return The parsed list.
+     */
+    public List<String> unmarshal_list( ByteBuffer raw, String charset ) {
+        return this.unmarshal_list( ContentHandler.decode( raw, charset ) );
+    }
+
+    /**
+     * Unmarshal a string from the raw body of a response.
+     *
+     * The default implementation decodes the body and uses {@link
+     * #unmarshal_string(java.lang.String)}.
+     *
+     * @param raw The raw representation of the string.
+     * @param charset The charset used by the raw representation.
+     * @return The parsed string.
+     */
+    public String unmarshal_string( ByteBuffer raw, String charset ) {
+        return this.unmarshal_string( ContentHandler.decode( raw, charset ) );
+    }
+
+    /**
+     * Decode a raw body into a string.
+     *
+     * @param raw The raw body.
+     * @param charset The charset of the body.
+     * @return The decoded body.
+     */
+    protected static String decode( ByteBuffer raw, String charset ) {
+        return Charset.forName( charset ).decode( raw.duplicate() ).toString();
+    }
+
+    /**
+     * Get a reader for a raw body that decodes the body while it is being
+     * read, without creating an intermediate string.
+     *
+     * @param raw The raw body.
+     * @param charset The charset of the body.
+     * @return The reader.
+     */
+    protected static Reader reader( ByteBuffer raw, String charset ) {
+        InputStream in;
+        if ( raw.hasArray() ) {
+            in = new ByteArrayInputStream( raw.array(),
+                    raw.arrayOffset() + raw.position(), raw.remaining() );
+        } else {
+            byte[] copy = new byte[raw.remaining()];
+            raw.duplicate().get( copy );
+            in = new ByteArrayInputStream( copy );
+        }
+        return new InputStreamReader( in, Charset.forName( charset ) );
+    }
 }
@@ -0,0 +1,37 @@
+package at.fsinf.restauth.common;
+
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Creates numbered daemon threads. Thread pools created by the library use
+ * this factory, so a pool that is never shut down does not keep the JVM
+ * from exiting.
+ *
+ * @author Mathias Ertl
+ */
+public class DaemonThreadFactory implements ThreadFactory {
+    private final String prefix;
+    private final AtomicInteger count = new AtomicInteger();
+
+    /**
+     * Creates a new factory.
+     *
+     * @param prefix The name of the threads, a number is appended to it.
+     */
+    public DaemonThreadFactory( String prefix ) {
+        this.prefix = prefix;
+    }
+
+    /**
+     * Create a new daemon thread.
+     *
+     * @param task The task run by the thread.
+     * @return The new thread, which is not started yet.
+     */
+    public Thread newThread( Runnable task ) {
+        Thread thread = new Thread( task, this.prefix + " " + this.count.incrementAndGet() );
+        thread.setDaemon( true );
+        return thread;
+    }
+}
@@ -0,0 +1,53 @@
+package at.fsinf.restauth.common;
+
+import java.io.UnsupportedEncodingException;
+import org.apache.commons.codec.digest.DigestUtils;
+
+/**
+ * Helper methods for the entity tags used with property values. The entity
+ * tag of a property is derived from its value alone, so a client that expects
+ * a certain value can send an If-Match header without fetching the property
+ * first.
+ *
+ * @author Mathias Ertl
+ */
+public final class EntityTags {
+    /**
+     * This class only has static methods.
+     */
+    private EntityTags() {
+    }
+
+    /**
+     * Get the entity tag of a property value.
+     *
+     * @param value The value of the property.
+     * @return The quoted entity tag (i.e. <code>"d3b07384d113edec49eaa6238ad5ff00"</code>).
+     */
+    public static String of( String value ) {
+        try {
+            return "\"" + DigestUtils.md5Hex( value.getBytes( "UTF-8" ) ) + "\"";
+        } catch ( UnsupportedEncodingException ex ) {
+            throw new IllegalStateException( ex );
+        }
+    }
+
+    /**
+     * Check if an If-Match or If-None-Match header matches an entity tag.
+     *
+     * @param header The value of the header, a list of entity tags or "*".
+     * @param tag The entity tag of the current value, or null if there is no
+     *      current value.
+     * @return True if the header matches.
+     */
+    public static boolean matches( String header, String tag ) {
+        if ( tag == null ) return false;
+        for ( String candidate : header.split( "," ) ) {
+            candidate = candidate.trim();
+            if ( candidate.equals( "*" ) || candidate.equals( tag ) ) {
+                return true;
+            }
+        }
+        return false;
+    }
+}
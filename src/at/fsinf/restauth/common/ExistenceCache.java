@@ -0,0 +1,231 @@
+package at.fsinf.restauth.common;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import org.apache.http.Header;
+import org.apache.http.HttpStatus;
+import org.apache.http.message.BasicHeader;
+
+/**
+ * A cache for the existence of users and groups as checked by {@link
+ * at.fsinf.restauth.resources.User#get} and {@link
+ * at.fsinf.restauth.resources.Group#get}. Both existing and missing names
+ * are cached.
+ *
+ * Set an instance via {@link RestAuthConnection#setExistenceCache} to enable
+ * it. Creating and removing users or groups through the same connection
+ * updates the cache.
+ *
+ * Every such update changes the {@link #getGeneration generation} of the
+ * name. A response fetched from the server is only stored if the generation
+ * did not change since the request was sent, so a check that overlaps with
+ * creating or removing the resource cannot replace the new state with the
+ * old one.
+ *
+ * @author Mathias Ertl
+ */
+public class ExistenceCache {
+    /**
+     * Resource type used for users.
+     */
+    public static final String USER = "user";
+    /**
+     * Resource type used for groups.
+     */
+    public static final String GROUP = "group";
+
+    private static final int GENERATIONS = 64;
+
+    private final ExpiringCache<String, RestAuthResponse> cache;
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+    private final AtomicLongArray generations = new AtomicLongArray( GENERATIONS );
+
+    /**
+     * Creates a new cache.
+     *
+     * @param maxSize The maximum number of names kept in the cache.
+     * @param ttlMillis The time in milliseconds after which the existence of
+     *      a name has to be checked again.
+     */
+    public ExistenceCache( int maxSize, long ttlMillis ) {
+        this.cache = new ExpiringCache<String, RestAuthResponse>( maxSize, ttlMillis );
+    }
+
+    /**
+     * Get the cached response of an existence check.
+     *
+     * @param type The type of the resource, either {@link #USER} or
+     *      {@link #GROUP}.
+     * @param name The name of the resource.
+     * @return A response with status 204 if the resource exists, with status
+     *      404 if it does not exist or null if nothing is cached.
+     */
+    public RestAuthResponse get( String type, String name ) {
+        RestAuthResponse response = this.cache.get( this.key( type, name ) );
+        if ( response == null ) {
+            this.misses.incrementAndGet();
+        } else {
+            this.hits.incrementAndGet();
+        }
+        return response;
+    }
+
+    /**
+     * Get the current generation of a resource. The generation changes every
+     * time the resource is created, removed or invalidated through this cache
+     * or the cache is cleared. Names share generations, so it may also change
+     * if another resource changes.
+     *
+     * @param type The type of the resource.
+     * @param name The name of the resource.
+     * @return The current generation.
+     */
+    public long getGeneration( String type, String name ) {
+        return this.generations.get( this.stripe( this.key( type, name ) ) );
+    }
+
+    /**
+     * Remember the response of an existence check. Only responses with status
+     * 204 or 404 are cached.
+     *
+     * @param type The type of the resource.
+     * @param name The name of the resource.
+     * @param response The response of the server.
+     */
+    public void put( String type, String name, RestAuthResponse response ) {
+        this.put( type, name, response, this.getGeneration( type, name ) );
+    }
+
+    /**
+     * Remember the response of an existence check, unless the resource
+     * changed since the given generation was read. Only responses with status
+     * 204 or 404 are cached.
+     *
+     * @param type The type of the resource.
+     * @param name The name of the resource.
+     * @param response The response of the server.
+     * @param generation The {@link #getGeneration generation} of the resource
+     *      before the request was sent.
+     * @return True if the response was stored.
+     */
+    public boolean put( String type, String name, RestAuthResponse response,
+            long generation ) {
+        int respCode = response.getStatusCode();
+        if ( respCode != HttpStatus.SC_NO_CONTENT && respCode != HttpStatus.SC_NOT_FOUND ) {
+            return false;
+        }
+        String key = this.key( type, name );
+        synchronized ( this.cache ) {
+            if ( this.generations.get( this.stripe( key ) ) != generation ) {
+                return false;
+            }
+            this.cache.put( key, response );
+            return true;
+        }
+    }
+
+    /**
+     * Remember that a resource exists.
+     *
+     * @param type The type of the resource.
+     * @param name The name of the resource.
+     */
+    public void putExisting( String type, String name ) {
+        this.update( this.key( type, name ),
+                new RestAuthResponse( HttpStatus.SC_NO_CONTENT, new ArrayList<Header>() ) );
+    }
+
+    /**
+     * Remember that a resource does not exist.
+     *
+     * @param type The type of the resource.
+     * @param name The name of the resource.
+     */
+    public void putMissing( String type, String name ) {
+        List<Header> headers = new ArrayList<Header>();
+        headers.add( new BasicHeader( "Resource-Type", type ) );
+        this.update( this.key( type, name ),
+                new RestAuthResponse( HttpStatus.SC_NOT_FOUND, headers ) );
+    }
+
+    /**
+     * Forget whether a resource exists.
+     *
+     * @param type The type of the resource.
+     * @param name The name of the resource.
+     */
+    public void invalidate( String type, String name ) {
+        this.update( this.key( type, name ), null );
+    }
+
+    /**
+     * Forget everything.
+     */
+    public void clear() {
+        synchronized ( this.cache ) {
+            for ( int i = 0; i < GENERATIONS; i++ ) {
+                this.generations.incrementAndGet( i );
+            }
+            this.cache.clear();
+        }
+    }
+
+    /**
+     * Get the number of lookups answered from this cache.
+     *
+     * @return The number of cache hits.
+     */
+    public long getHits() {
+        return this.hits.get();
+    }
+
+    /**
+     * Get the number of lookups that were not found in this cache.
+     *
+     * @return The number of cache misses.
+     */
+    public long getMisses() {
+        return this.misses.get();
+    }
+
+    /**
+     * Get the key used for a resource. Names are case-insensitive.
+     *
+     * @param type The type of the resource.
+     * @param name The name of the resource.
+     * @return The key.
+     */
+    private String key( String type, String name ) {
+        return type + "/" + name.toLowerCase();
+    }
+
+    /**
+     * Change the cached state of a resource and its generation.
+     *
+     * @param key The key of the resource.
+     * @param response The new response, or null to forget the resource.
+     */
+    private void update( String key, RestAuthResponse response ) {
+        synchronized ( this.cache ) {
+            this.generations.incrementAndGet( this.stripe( key ) );
+            if ( response == null ) {
+                this.cache.remove( key );
+            } else {
+                this.cache.put( key, response );
+            }
+        }
+    }
+
+    /**
+     * Get the index of the generation used for a key.
+     *
+     * @param key The key of the resource.
+     * @return The index into the generations.
+     */
+    private int stripe( String key ) {
+        return ( key.hashCode() & 0x7fffffff ) % GENERATIONS;
+    }
+}
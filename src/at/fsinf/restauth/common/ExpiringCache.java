@@ -0,0 +1,124 @@
+package at.fsinf.restauth.common;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * A bounded, thread-safe cache whose entries expire after a fixed time. If
+ * the cache is full, the least recently used entry is evicted.
+ *
+ * @author Mathias Ertl
+ */
+public class ExpiringCache<K, V> {
+    private final LinkedHashMap<K, CacheEntry<V>> map;
+    private final long ttl;
+    private long hits;
+    private long misses;
+
+    /**
+     * A cached value together with the time it expires.
+     */
+    private static class CacheEntry<V> {
+        final V value;
+        final long expires;
+
+        CacheEntry( V value, long expires ) {
+            this.value = value;
+            this.expires = expires;
+        }
+    }
+
+    /**
+     * Creates a new cache.
+     *
+     * @param maxSize The maximum number of entries.
+     * @param ttlMillis The time in milliseconds after which an entry expires.
+     */
+    public ExpiringCache( final int maxSize, long ttlMillis ) {
+        if ( maxSize < 1 || ttlMillis < 1 ) {
+            throw new IllegalArgumentException(
+                    "Size and TTL must be greater than zero." );
+        }
+        this.ttl = ttlMillis * 1000000L;
+        this.map = new LinkedHashMap<K, CacheEntry<V>>( 16, 0.75f, true ) {
+            @Override
+            protected boolean removeEldestEntry( Map.Entry<K, CacheEntry<V>> eldest ) {
+                return this.size() > maxSize;
+            }
+        };
+    }
+
+    /**
+     * Get a cached value.
+     *
+     * @param key The key of the value.
+     * @return The value or null if it is not cached or has expired.
+     */
+    public synchronized V get( K key ) {
+        CacheEntry<V> entry = this.map.get( key );
+        if ( entry != null && entry.expires - System.nanoTime() <= 0 ) {
+            this.map.remove( key );
+            entry = null;
+        }
+        if ( entry == null ) {
+            this.misses++;
+            return null;
+        }
+        this.hits++;
+        return entry.value;
+    }
+
+    /**
+     * Add or replace a value.
+     *
+     * @param key The key of the value.
+     * @param value The value to cache, must not be null.
+     */
+    public synchronized void put( K key, V value ) {
+        this.map.put( key, new CacheEntry<V>( value, System.nanoTime() + this.ttl ) );
+    }
+
+    /**
+     * Remove a value.
+     *
+     * @param key The key of the value to remove.
+     */
+    public synchronized void remove( K key ) {
+        this.map.remove( key );
+    }
+
+    /**
+     * Remove all values.
+     */
+    public synchronized void clear() {
+        this.map.clear();
+    }
+
+    /**
+     * Get the number of entries currently in the cache. This may include
+     * expired entries that have not yet been evicted.
+     *
+     * @return The number of entries.
+     */
+    public synchronized int size() {
+        return this.map.size();
+    }
+
+    /**
+     * Get the number of lookups that were answered from the cache.
+     *
+     * @return The number of cache hits.
+     */
+    public synchronized long getHits() {
+        return this.hits;
+    }
+
+    /**
+     * Get the number of lookups that could not be answered from the cache.
+     *
+     * @return The number of cache misses.
+     */
+    public synchronized long getMisses() {
+        return this.misses;
+    }
+}
@@ -0,0 +1,170 @@
+package at.fsinf.restauth.common;
+
+import at.fsinf.restauth.errors.RequestFailed;
+import at.fsinf.restauth.errors.RestAuthException;
+import java.util.concurrent.CompletionService;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+
+/**
+ * Helper methods for waiting for requests that run on other threads. The
+ * exception a request threw is thrown again in the waiting thread: checked
+ * exceptions of the given types as they are, runtime exceptions and errors
+ * unchanged and any other exception wrapped in a {@link RequestFailed}. If
+ * the waiting thread is interrupted, its interrupt flag is restored and a
+ * {@link RequestFailed} is thrown.
+ *
+ * @author Mathias Ertl
+ */
+public final class Futures {
+    /**
+     * This class only has static methods.
+     */
+    private Futures() {
+    }
+
+    /**
+     * Wait for a request that can only fail with a {@link RequestFailed}.
+     *
+     * @param future The pending result of the request.
+     * @return The result of the request.
+     * @throws RequestFailed If the request failed or the thread was
+     *      interrupted.
+     */
+    public static <T> T get( Future<T> future ) throws RequestFailed {
+        try {
+            return Futures.await( future );
+        } catch ( ExecutionException ex ) {
+            throw Futures.unchecked( ex.getCause() );
+        }
+    }
+
+    /**
+     * Wait for a request that may fail with an exception of the given type.
+     *
+     * @param future The pending result of the request.
+     * @param type1 The type of exception thrown again as it is.
+     * @return The result of the request.
+     * @throws X1 If the request threw this exception.
+     * @throws RequestFailed If the request failed otherwise or the thread was
+     *      interrupted.
+     */
+    public static <T, X1 extends RestAuthException> T get( Future<T> future,
+            Class<X1> type1 ) throws X1, RequestFailed {
+        try {
+            return Futures.await( future );
+        } catch ( ExecutionException ex ) {
+            Throwable cause = ex.getCause();
+            if ( type1.isInstance( cause ) ) throw type1.cast( cause );
+            throw Futures.unchecked( cause );
+        }
+    }
+
+    /**
+     * Wait for a request that may fail with exceptions of the given types.
+     *
+     * @param future The pending result of the request.
+     * @param type1 A type of exception thrown again as it is.
+     * @param type2 Another type of exception thrown again as it is.
+     * @return The result of the request.
+     * @throws X1 If the request threw this exception.
+     * @throws X2 If the request threw this exception.
+     * @throws RequestFailed If the request failed otherwise or the thread was
+     *      interrupted.
+     */
+    public static <T, X1 extends RestAuthException, X2 extends RestAuthException> T get(
+            Future<T> future, Class<X1> type1, Class<X2> type2 )
+            throws X1, X2, RequestFailed {
+        try {
+            return Futures.await( future );
+        } catch ( ExecutionException ex ) {
+            Throwable cause = ex.getCause();
+            if ( type1.isInstance( cause ) ) throw type1.cast( cause );
+            if ( type2.isInstance( cause ) ) throw type2.cast( cause );
+            throw Futures.unchecked( cause );
+        }
+    }
+
+    /**
+     * Wait for a request that may fail with exceptions of the given types.
+     *
+     * @param future The pending result of the request.
+     * @param type1 A type of exception thrown again as it is.
+     * @param type2 Another type of exception thrown again as it is.
+     * @param type3 Another type of exception thrown again as it is.
+     * @return The result of the request.
+     * @throws X1 If the request threw this exception.
+     * @throws X2 If the request threw this exception.
+     * @throws X3 If the request threw this exception.
+     * @throws RequestFailed If the request failed otherwise or the thread was
+     *      interrupted.
+     */
+    public static <T, X1 extends RestAuthException, X2 extends RestAuthException,
+            X3 extends RestAuthException> T get( Future<T> future,
+            Class<X1> type1, Class<X2> type2, Class<X3> type3 )
+            throws X1, X2, X3, RequestFailed {
+        try {
+            return Futures.await( future );
+        } catch ( ExecutionException ex ) {
+            Throwable cause = ex.getCause();
+            if ( type1.isInstance( cause ) ) throw type1.cast( cause );
+            if ( type2.isInstance( cause ) ) throw type2.cast( cause );
+            if ( type3.isInstance( cause ) ) throw type3.cast( cause );
+            throw Futures.unchecked( cause );
+        }
+    }
+
+    /**
+     * Wait for the next request of a completion service to finish.
+     *
+     * @param completion The completion service running the requests.
+     * @return The finished request, {@link Future#get()} does not block.
+     * @throws RequestFailed If the thread was interrupted.
+     */
+    public static <T> Future<T> take( CompletionService<T> completion )
+            throws RequestFailed {
+        try {
+            return completion.take();
+        } catch ( InterruptedException ex ) {
+            Thread.currentThread().interrupt();
+            throw new RequestFailed( ex );
+        }
+    }
+
+    /**
+     * Wait for a request.
+     *
+     * @param future The pending result of the request.
+     * @return The result of the request.
+     * @throws ExecutionException If the request threw an exception.
+     * @throws RequestFailed If the thread was interrupted.
+     */
+    private static <T> T await( Future<T> future )
+            throws ExecutionException, RequestFailed {
+        try {
+            return future.get();
+        } catch ( InterruptedException ex ) {
+            Thread.currentThread().interrupt();
+            throw new RequestFailed( ex );
+        }
+    }
+
+    /**
+     * Throw a runtime exception or error again, or convert any other
+     * exception to a {@link RequestFailed}.
+     *
+     * @param cause The exception thrown by a request.
+     * @return The exception to throw.
+     */
+    private static RequestFailed unchecked( Throwable cause ) {
+        if ( cause instanceof RuntimeException ) {
+            throw (RuntimeException) cause;
+        } else if ( cause instanceof Error ) {
+            throw (Error) cause;
+        } else if ( cause instanceof RequestFailed ) {
+            return (RequestFailed) cause;
+        } else {
+            return new RequestFailed( (Exception) cause );
+        }
+    }
+}
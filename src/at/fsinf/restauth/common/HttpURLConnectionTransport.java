@@ -0,0 +1,178 @@
+package at.fsinf.restauth.common;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import org.apache.http.Header;
+import org.apache.http.HttpStatus;
+import org.apache.http.message.BasicHeader;
+
+/**
+ * A {@link Transport} that uses the {@link HttpURLConnection} shipped with
+ * the JDK. The JDK keeps idle connections alive and reuses them for later
+ * requests to the same host, so a single instance of this transport can be
+ * shared by any number of threads. Response bodies can be streamed and
+ * compressed responses are decompressed while they are read.
+ *
+ * @author Mathias Ertl
+ */
+public class HttpURLConnectionTransport implements StreamingTransport {
+    private int connectTimeout;
+    private int readTimeout;
+
+    /**
+     * Creates a transport with no timeouts.
+     */
+    public HttpURLConnectionTransport() {
+        this( 0, 0 );
+    }
+
+    /**
+     * Creates a transport with the given timeouts.
+     *
+     * @param connectTimeout The connect timeout in milliseconds, 0 means no
+     *      timeout.
+     * @param readTimeout The read timeout in milliseconds, 0 means no timeout.
+     */
+    public HttpURLConnectionTransport( int connectTimeout, int readTimeout ) {
+        this.connectTimeout = connectTimeout;
+        this.readTimeout = readTimeout;
+    }
+
+    /**
+     * Send the request using a HttpURLConnection.
+     *
+     * @param request The request to send.
+     * @return The response returned by the RestAuth server.
+     * @throws IOException When the connection to the RestAuth server fails.
+     */
+    @Override
+    public RestAuthResponse execute( RestAuthRequest request ) throws IOException {
+        return this.execute( request, null );
+    }
+
+    /**
+     * Send the request using a HttpURLConnection, passing the response body
+     * to the given handler.
+     *
+     * @param request The request to send.
+     * @param handler The handler that reads the body, may be null.
+     * @return The response returned by the RestAuth server.
+     * @throws IOException When the connection to the RestAuth server fails.
+     */
+    @Override
+    public RestAuthResponse execute( RestAuthRequest request, StreamHandler handler )
+            throws IOException {
+        // non-ASCII characters must be percent-encoded before opening the URL
+        URL url = new URL( request.getURI().toASCIIString() );
+        HttpURLConnection conn = (HttpURLConnection) url.openConnection();
+        conn.setRequestMethod( request.getMethod() );
+        conn.setConnectTimeout( this.connectTimeout );
+        conn.setReadTimeout( this.readTimeout );
+        conn.setInstanceFollowRedirects( false );
+        conn.setUseCaches( false );
+        for ( Header header : request.getHeaders() ) {
+            conn.addRequestProperty( header.getName(), header.getValue() );
+        }
+
+        byte[] body = request.getBody();
+        if ( body != null ) {
+            conn.setDoOutput( true );
+            conn.setFixedLengthStreamingMode( request.getBodyLength() );
+            OutputStream out = conn.getOutputStream();
+            try {
+                out.write( body, 0, request.getBodyLength() );
+            } finally {
+                out.close();
+            }
+        }
+
+        int statusCode = conn.getResponseCode();
+        List<Header> headers = new ArrayList<Header>();
+        for ( Map.Entry<String, List<String>> entry : conn.getHeaderFields().entrySet() ) {
+            if ( entry.getKey() == null ) continue; // the status line
+            for ( String value : entry.getValue() ) {
+                headers.add( new BasicHeader( entry.getKey(), value ) );
+            }
+        }
+
+        InputStream in = statusCode < HttpStatus.SC_BAD_REQUEST
+                ? conn.getInputStream() : conn.getErrorStream();
+        if ( request.getCompression() != null ) {
+            in = request.getCompression().decode( in, conn.getContentEncoding() );
+        }
+        String contentType = conn.getContentType();
+        String charset = HttpURLConnectionTransport.getCharset( contentType );
+        if ( handler != null && in != null && handler.accepts( statusCode ) ) {
+            try {
+                handler.handle( in, contentType, charset );
+                // drain what the handler left so the connection can be reused
+                HttpURLConnectionTransport.readFully( in );
+            } finally {
+                in.close();
+            }
+            return new RestAuthResponse( statusCode, headers );
+        }
+
+        byte[] raw = HttpURLConnectionTransport.readFully( in );
+        if ( statusCode == HttpStatus.SC_NO_CONTENT ) {
+            return new RestAuthResponse( statusCode, headers );
+        } else {
+            return new RestAuthResponse( statusCode, headers, raw, charset );
+        }
+    }
+
+    /**
+     * Idle connections are managed by the JDK, so this method does nothing.
+     */
+    @Override
+    public void shutdown() {
+    }
+
+    /**
+     * Read the stream until its end and close it. Reading the whole stream is
+     * required so that the JDK can reuse the connection.
+     *
+     * @param in The stream to read, may be null.
+     * @return The bytes read from the stream.
+     * @throws IOException If reading from the stream fails.
+     */
+    private static byte[] readFully( InputStream in ) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        if ( in == null ) return out.toByteArray();
+        try {
+            byte[] buffer = new byte[4096];
+            int read;
+            while ( ( read = in.read( buffer ) ) != -1 ) {
+                out.write( buffer, 0, read );
+            }
+        } finally {
+            in.close();
+        }
+        return out.toByteArray();
+    }
+
+    /**
+     * Get the charset named in a Content-Type header.
+     *
+     * @param contentType The value of the Content-Type header, may be null.
+     * @return The charset, or ISO-8859-1 (the HTTP default) if none is given.
+     */
+    private static String getCharset( String contentType ) {
+        if ( contentType != null ) {
+            for ( String param : contentType.split( ";" ) ) {
+                param = param.trim();
+                if ( param.toLowerCase().startsWith( "charset=" ) ) {
+                    return param.substring( "charset=".length() ).replace( "\"", "" );
+                }
+            }
+        }
+        return "ISO-8859-1";
+    }
+}
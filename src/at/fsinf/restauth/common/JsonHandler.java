@@ -3,7 +3,16 @@ package at.fsinf.restauth.common;
 import at.fsinf.restauth.errors.UnmarshalException;
 import com.google.gson.Gson;
 import com.google.gson.reflect.TypeToken;
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.MalformedJsonException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
 import java.lang.reflect.Type;
+import java.nio.ByteBuffer;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
@@ -18,6 +27,7 @@ public class JsonHandler extends ContentHandler{
     private final Gson handler;
     private Type dictType = new TypeToken<Map<String, String>>() {}.getType();
     private Type listType = new TypeToken<List<String>>() {}.getType();
+    private static final char[] HEX = "0123456789abcdef".toCharArray();
 
     /**
      * Default no-arg constructor.
@@ -74,4 +84,164 @@ public class JsonHandler extends ContentHandler{
     public List<String> unmarshal_list(String raw) {
         return this.handler.fromJson( raw, this.listType );
     }
+
+    /**
+     * Unmarshal a JSON list element by element while it is still being read.
+     *
+     * @param in The raw JSON representation of the list.
+     * @param charset The charset used by the raw representation.
+     * @param callback The callback receiving the elements of the list.
+     * @throws IOException If reading from the stream fails.
+     */
+    @Override
+    public void unmarshal_list( InputStream in, String charset, ListCallback callback )
+            throws IOException {
+        JsonReader reader = new JsonReader( new InputStreamReader( in, charset ) );
+        try {
+            reader.beginArray();
+            while ( reader.hasNext() ) {
+                callback.item( reader.nextString() );
+            }
+            reader.endArray();
+        } catch ( MalformedJsonException ex ) {
+            throw new UnmarshalException( "Unable to parse list", null );
+        } catch ( IllegalStateException ex ) {
+            throw new UnmarshalException( "Unable to parse list", null );
+        }
+    }
+
+    /**
+     * Marshal a Map into a JSON dictionary that is written directly into the
+     * stream.
+     *
+     * @param map The map to marshal.
+     * @param out The stream to write to.
+     * @throws IOException If writing to the stream fails.
+     */
+    @Override
+    public void marshal_dictionary( Map<String, Object> map, OutputStream out )
+            throws IOException {
+        Writer writer = new OutputStreamWriter( out, "UTF-8" );
+        this.handler.toJson( map, writer );
+        writer.flush();
+    }
+
+    /**
+     * Write a JSON dictionary of strings directly into the stream. Strings are
+     * escaped and encoded character by character, so no intermediate objects
+     * are created.
+     *
+     * @param out The stream to write to.
+     * @param fields Alternating keys and values of the dictionary. Keys whose
+     *      value is null are omitted.
+     * @throws IOException If writing to the stream fails.
+     */
+    @Override
+    public void marshal_fields( OutputStream out, String... fields )
+            throws IOException {
+        if ( fields.length % 2 != 0 ) {
+            throw new IllegalArgumentException( "Missing value for last key." );
+        }
+        out.write( '{' );
+        boolean first = true;
+        for ( int i = 0; i < fields.length; i += 2 ) {
+            if ( fields[i + 1] == null ) continue;
+            if ( ! first ) out.write( ',' );
+            first = false;
+            JsonHandler.writeString( out, fields[i] );
+            out.write( ':' );
+            JsonHandler.writeString( out, fields[i + 1] );
+        }
+        out.write( '}' );
+    }
+
+    /**
+     * Unmarshal a JSON dictionary into a map without decoding it into a
+     * string first.
+     *
+     * @param raw The raw JSON representation of the dictionary.
+     * @param charset The charset used by the raw representation.
+     * @return The unmarshalled map.
+     */
+    @Override
+    public HashMap<String, String> unmarshal_dictionary( ByteBuffer raw, String charset ) {
+        return this.handler.fromJson( ContentHandler.reader( raw, charset ), this.dictType );
+    }
+
+    /**
+     * Unmarshal a JSON list into a Java list without decoding it into a
+     * string first.
+     *
+     * @param raw The raw JSON representation of the list.
+     * @param charset The charset used by the raw representation.
+     * @return The unmarshalled list.
+     */
+    @Override
+    public List<String> unmarshal_list( ByteBuffer raw, String charset ) {
+        return this.handler.fromJson( ContentHandler.reader( raw, charset ), this.listType );
+    }
+
+    /**
+     * Unmarshal a JSON string into a Java string without decoding it into a
+     * string first.
+     *
+     * @param raw The raw JSON representation of the string.
+     * @param charset The charset used by the raw representation.
+     * @return The unmarshalled string.
+     */
+    @Override
+    public String unmarshal_string( ByteBuffer raw, String charset ) {
+        List<String> strList = this.handler.fromJson(
+                ContentHandler.reader( raw, charset ), this.listType );
+        if ( strList.isEmpty() ) {
+            throw new UnmarshalException( "Unable to parse string", null );
+        }
+        return strList.get(0);
+    }
+
+    /**
+     * Write a JSON string in UTF-8.
+     *
+     * @param out The stream to write to.
+     * @param value The string to write.
+     * @throws IOException If writing to the stream fails.
+     */
+    private static void writeString( OutputStream out, String value )
+            throws IOException {
+        out.write( '"' );
+        int length = value.length();
+        for ( int i = 0; i < length; i++ ) {
+            char c = value.charAt( i );
+            if ( c == '"' || c == '\\' ) {
+                out.write( '\\' );
+                out.write( c );
+            } else if ( c < 0x20 ) {
+                out.write( '\\' );
+                out.write( 'u' );
+                out.write( '0' );
+                out.write( '0' );
+                out.write( HEX[c >> 4] );
+                out.write( HEX[c & 0xf] );
+            } else if ( c < 0x80 ) {
+                out.write( c );
+            } else if ( c < 0x800 ) {
+                out.write( 0xc0 | ( c >> 6 ) );
+                out.write( 0x80 | ( c & 0x3f ) );
+            } else if ( Character.isHighSurrogate( c ) && i + 1 < length
+                    && Character.isLowSurrogate( value.charAt( i + 1 ) ) ) {
+                int codePoint = Character.toCodePoint( c, value.charAt( ++i ) );
+                out.write( 0xf0 | ( codePoint >> 18 ) );
+                out.write( 0x80 | ( ( codePoint >> 12 ) & 0x3f ) );
+                out.write( 0x80 | ( ( codePoint >> 6 ) & 0x3f ) );
+                out.write( 0x80 | ( codePoint & 0x3f ) );
+            } else if ( c >= Character.MIN_SURROGATE && c <= Character.MAX_SURROGATE ) {
+                out.write( '?' ); // unpaired surrogate, like String.getBytes()
+            } else {
+                out.write( 0xe0 | ( c >> 12 ) );
+                out.write( 0x80 | ( ( c >> 6 ) & 0x3f ) );
+                out.write( 0x80 | ( c & 0x3f ) );
+            }
+        }
+        out.write( '"' );
+    }
 }
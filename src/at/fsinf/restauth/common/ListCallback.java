@@ -0,0 +1,18 @@
+package at.fsinf.restauth.common;
+
+/**
+ * Receives the elements of a <a
+ * href="http://fs.fsinf.at/wiki/RestAuth/Specification#List">list</a> one at
+ * a time while the response of the RestAuth server is still being read. This
+ * avoids keeping the whole response and the whole list in memory at once.
+ *
+ * @author Mathias Ertl
+ */
+public interface ListCallback {
+    /**
+     * Called once for every element of the list, in order.
+     *
+     * @param value The element.
+     */
+    public void item( String value );
+}
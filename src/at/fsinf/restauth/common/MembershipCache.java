@@ -0,0 +1,193 @@
+package at.fsinf.restauth.common;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * A cache for group memberships as returned by {@link
+ * at.fsinf.restauth.resources.Group#isMember(java.lang.String)}. Both
+ * positive and negative answers are cached.
+ *
+ * Set an instance via {@link RestAuthConnection#setMembershipCache} to enable
+ * it. Adding or removing users through the same connection updates the
+ * cache; since memberships may be inherited from meta-groups, changing the
+ * sub-groups of a group clears it completely.
+ *
+ * Every such update changes the {@link #getGeneration generation} of the
+ * user. An answer fetched from the server is only stored if the generation
+ * did not change since the request was sent, so a lookup that overlaps with
+ * a change cannot replace the new membership with the old one.
+ *
+ * @author Mathias Ertl
+ */
+public class MembershipCache {
+    private static final int GENERATIONS = 64;
+
+    private final ExpiringCache<String, ConcurrentMap<String, Membership>> cache;
+    private final long ttl;
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+    private final AtomicLongArray generations = new AtomicLongArray( GENERATIONS );
+
+    /**
+     * The cached membership of a user in a single group.
+     */
+    private static class Membership {
+        final boolean member;
+        final long expires;
+
+        Membership( boolean member, long expires ) {
+            this.member = member;
+            this.expires = expires;
+        }
+    }
+
+    /**
+     * Creates a new cache.
+     *
+     * @param maxUsers The maximum number of users whose memberships are cached.
+     * @param ttlMillis The time in milliseconds after which a membership has
+     *      to be checked again.
+     */
+    public MembershipCache( int maxUsers, long ttlMillis ) {
+        this.cache = new ExpiringCache<String, ConcurrentMap<String, Membership>>(
+                maxUsers, ttlMillis );
+        this.ttl = ttlMillis * 1000000L;
+    }
+
+    /**
+     * Get a cached membership.
+     *
+     * @param group The name of the group.
+     * @param user The name of the user.
+     * @return Boolean.TRUE or Boolean.FALSE if the membership is cached, null
+     *      otherwise.
+     */
+    public Boolean get( String group, String user ) {
+        ConcurrentMap<String, Membership> groups = this.cache.get( this.key( user ) );
+        Membership membership = groups == null ? null : groups.get( this.key( group ) );
+        if ( membership == null || membership.expires - System.nanoTime() <= 0 ) {
+            this.misses.incrementAndGet();
+            return null;
+        }
+        this.hits.incrementAndGet();
+        return membership.member;
+    }
+
+    /**
+     * Get the current generation of the memberships of a user. The generation
+     * changes every time the user is invalidated or the cache is cleared.
+     * Users share generations, so it may also change if another user is
+     * invalidated.
+     *
+     * @param user The name of the user.
+     * @return The current generation.
+     */
+    public long getGeneration( String user ) {
+        return this.generations.get( this.stripe( user ) );
+    }
+
+    /**
+     * Remember a membership.
+     *
+     * @param group The name of the group.
+     * @param user The name of the user.
+     * @param member true if the user is a member of the group.
+     */
+    public void put( String group, String user, boolean member ) {
+        this.put( group, user, member, this.getGeneration( user ) );
+    }
+
+    /**
+     * Remember a membership, unless the user was invalidated since the given
+     * generation was read.
+     *
+     * @param group The name of the group.
+     * @param user The name of the user.
+     * @param member true if the user is a member of the group.
+     * @param generation The {@link #getGeneration generation} of the user
+     *      before the membership was requested.
+     * @return True if the membership was stored.
+     */
+    public boolean put( String group, String user, boolean member, long generation ) {
+        synchronized ( this.cache ) {
+            if ( this.generations.get( this.stripe( user ) ) != generation ) {
+                return false;
+            }
+            String key = this.key( user );
+            ConcurrentMap<String, Membership> groups = this.cache.get( key );
+            if ( groups == null ) {
+                groups = new ConcurrentHashMap<String, Membership>();
+            }
+            groups.put( this.key( group ),
+                    new Membership( member, System.nanoTime() + this.ttl ) );
+            // re-adding refreshes the expiry of all memberships of this user
+            this.cache.put( key, groups );
+            return true;
+        }
+    }
+
+    /**
+     * Forget all memberships of a user.
+     *
+     * @param user The name of the user.
+     */
+    public void invalidateUser( String user ) {
+        synchronized ( this.cache ) {
+            this.generations.incrementAndGet( this.stripe( user ) );
+            this.cache.remove( this.key( user ) );
+        }
+    }
+
+    /**
+     * Forget all memberships.
+     */
+    public void clear() {
+        synchronized ( this.cache ) {
+            for ( int i = 0; i < GENERATIONS; i++ ) {
+                this.generations.incrementAndGet( i );
+            }
+            this.cache.clear();
+        }
+    }
+
+    /**
+     * Get the number of lookups answered from this cache.
+     *
+     * @return The number of cache hits.
+     */
+    public long getHits() {
+        return this.hits.get();
+    }
+
+    /**
+     * Get the number of lookups that were not found in this cache.
+     *
+     * @return The number of cache misses.
+     */
+    public long getMisses() {
+        return this.misses.get();
+    }
+
+    /**
+     * Get the key used for a user or group. Names are case-insensitive.
+     *
+     * @param name The name of the user or group.
+     * @return The key.
+     */
+    private String key( String name ) {
+        return name.toLowerCase();
+    }
+
+    /**
+     * Get the index of the generation used for a user.
+     *
+     * @param user The name of the user.
+     * @return The index into the generations.
+     */
+    private int stripe( String user ) {
+        return ( this.key( user ).hashCode() & 0x7fffffff ) % GENERATIONS;
+    }
+}
@@ -0,0 +1,367 @@
+package at.fsinf.restauth.common;
+
+import at.fsinf.restauth.errors.UnmarshalException;
+import java.io.ByteArrayInputStream;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * A handler for the binary <a href="http://msgpack.org">MessagePack</a> data
+ * format. MessagePack bodies are smaller than their JSON equivalent and can be
+ * parsed without any character escaping.
+ *
+ * Since MessagePack is a binary format, the methods working on strings are
+ * not supported. Use this handler together with a {@link JsonHandler} via
+ * {@link RestAuthConnection#setContentHandlers} so that the connection can
+ * fall back to JSON if the server does not support MessagePack.
+ *
+ * @author Mathias Ertl
+ */
+public class MessagePackHandler extends ContentHandler {
+    /**
+     * Default no-arg constructor.
+     */
+    public MessagePackHandler() {
+        this.MimeType = "application/x-msgpack";
+    }
+
+    /**
+     * Not supported, MessagePack is a binary format.
+     *
+     * @param map The map to marshal.
+     * @return Never returns.
+     */
+    @Override
+    public String marshal_dictionary( Map<String, Object> map ) {
+        throw new UnsupportedOperationException( "MessagePack is a binary format." );
+    }
+
+    /**
+     * Not supported, MessagePack is a binary format.
+     *
+     * @param raw The raw representation of the dictionary.
+     * @return Never returns.
+     */
+    @Override
+    public Map<String, String> unmarshal_dictionary( String raw ) {
+        throw new UnsupportedOperationException( "MessagePack is a binary format." );
+    }
+
+    /**
+     * Not supported, MessagePack is a binary format.
+     *
+     * @param raw The raw representation of the list.
+     * @return Never returns.
+     */
+    @Override
+    public List<String> unmarshal_list( String raw ) {
+        throw new UnsupportedOperationException( "MessagePack is a binary format." );
+    }
+
+    /**
+     * Not supported, MessagePack is a binary format.
+     *
+     * @param raw The raw representation of the string.
+     * @return Never returns.
+     */
+    @Override
+    public String unmarshal_string( String raw ) {
+        throw new UnsupportedOperationException( "MessagePack is a binary format." );
+    }
+
+    /**
+     * Marshal a map into a MessagePack map. Values may be strings or nested
+     * maps, null values are omitted.
+     *
+     * @param map The map to marshal.
+     * @param out The stream to write to.
+     * @throws IOException If writing to the stream fails.
+     */
+    @Override
+    public void marshal_dictionary( Map<String, Object> map, OutputStream out )
+            throws IOException {
+        int size = 0;
+        for ( Object value : map.values() ) {
+            if ( value != null ) size++;
+        }
+        MessagePackHandler.writeHeader( out, size, 0x80, 0xde );
+        for ( Map.Entry<String, Object> entry : map.entrySet() ) {
+            Object value = entry.getValue();
+            if ( value == null ) continue;
+            MessagePackHandler.writeString( out, entry.getKey() );
+            if ( value instanceof Map ) {
+                @SuppressWarnings( "unchecked" )
+                Map<String, Object> nested = (Map<String, Object>) value;
+                this.marshal_dictionary( nested, out );
+            } else {
+                MessagePackHandler.writeString( out, value.toString() );
+            }
+        }
+    }
+
+    /**
+     * Marshal a dictionary of strings into a MessagePack map.
+     *
+     * @param out The stream to write to.
+     * @param fields Alternating keys and values of the dictionary. Keys whose
+     *      value is null are omitted.
+     * @throws IOException If writing to the stream fails.
+     */
+    @Override
+    public void marshal_fields( OutputStream out, String... fields )
+            throws IOException {
+        if ( fields.length % 2 != 0 ) {
+            throw new IllegalArgumentException( "Missing value for last key." );
+        }
+        int size = 0;
+        for ( int i = 1; i < fields.length; i += 2 ) {
+            if ( fields[i] != null ) size++;
+        }
+        MessagePackHandler.writeHeader( out, size, 0x80, 0xde );
+        for ( int i = 0; i < fields.length; i += 2 ) {
+            if ( fields[i + 1] == null ) continue;
+            MessagePackHandler.writeString( out, fields[i] );
+            MessagePackHandler.writeString( out, fields[i + 1] );
+        }
+    }
+
+    /**
+     * Unmarshal a MessagePack map of strings.
+     *
+     * @param raw The raw MessagePack representation of the map.
+     * @param charset Ignored, MessagePack strings are always UTF-8.
+     * @return The unmarshalled map.
+     */
+    @Override
+    public Map<String, String> unmarshal_dictionary( ByteBuffer raw, String charset ) {
+        DataInputStream in = MessagePackHandler.open( raw );
+        try {
+            int size = MessagePackHandler.readHeader( in, 0x80, 0xde );
+            Map<String, String> map = new HashMap<String, String>( size * 2 );
+            for ( int i = 0; i < size; i++ ) {
+                map.put( MessagePackHandler.readString( in ),
+                        MessagePackHandler.readString( in ) );
+            }
+            return map;
+        } catch ( IOException ex ) {
+            throw new UnmarshalException( "Unable to parse dictionary", null );
+        }
+    }
+
+    /**
+     * Unmarshal a MessagePack array of strings.
+     *
+     * @param raw The raw MessagePack representation of the array.
+     * @param charset Ignored, MessagePack strings are always UTF-8.
+     * @return The unmarshalled list.
+     */
+    @Override
+    public List<String> unmarshal_list( ByteBuffer raw, String charset ) {
+        final List<String> list = new ArrayList<String>();
+        try {
+            this.unmarshal_list( MessagePackHandler.open( raw ), charset, new ListCallback() {
+                public void item( String value ) {
+                    list.add( value );
+                }
+            });
+        } catch ( IOException ex ) {
+            throw new UnmarshalException( "Unable to parse list", null );
+        }
+        return list;
+    }
+
+    /**
+     * Unmarshal a MessagePack array of strings element by element while it is
+     * still being read.
+     *
+     * @param in The raw MessagePack representation of the array.
+     * @param charset Ignored, MessagePack strings are always UTF-8.
+     * @param callback The callback receiving the elements of the list.
+     * @throws IOException If reading from the stream fails.
+     */
+    @Override
+    public void unmarshal_list( InputStream in, String charset, ListCallback callback )
+            throws IOException {
+        DataInputStream data = in instanceof DataInputStream
+                ? (DataInputStream) in : new DataInputStream( in );
+        int size = MessagePackHandler.readHeader( data, 0x90, 0xdc );
+        for ( int i = 0; i < size; i++ ) {
+            callback.item( MessagePackHandler.readString( data ) );
+        }
+    }
+
+    /**
+     * Unmarshal a MessagePack string. Like with JSON, the string may also be
+     * wrapped in an array with a single element.
+     *
+     * @param raw The raw MessagePack representation of the string.
+     * @param charset Ignored, MessagePack strings are always UTF-8.
+     * @return The unmarshalled string.
+     */
+    @Override
+    public String unmarshal_string( ByteBuffer raw, String charset ) {
+        DataInputStream in = MessagePackHandler.open( raw );
+        try {
+            int type = raw.get( raw.position() ) & 0xff;
+            if ( ( type & 0xf0 ) == 0x90 || type == 0xdc || type == 0xdd ) {
+                if ( MessagePackHandler.readHeader( in, 0x90, 0xdc ) < 1 ) {
+                    throw new UnmarshalException( "Unable to parse string", null );
+                }
+            }
+            return MessagePackHandler.readString( in );
+        } catch ( IOException ex ) {
+            throw new UnmarshalException( "Unable to parse string", null );
+        }
+    }
+
+    /**
+     * Get a stream for reading a raw body.
+     *
+     * @param raw The raw body.
+     * @return The stream.
+     */
+    private static DataInputStream open( ByteBuffer raw ) {
+        if ( raw.hasArray() ) {
+            return new DataInputStream( new ByteArrayInputStream( raw.array(),
+                    raw.arrayOffset() + raw.position(), raw.remaining() ) );
+        }
+        byte[] copy = new byte[raw.remaining()];
+        raw.duplicate().get( copy );
+        return new DataInputStream( new ByteArrayInputStream( copy ) );
+    }
+
+    /**
+     * Write the header of a map or an array.
+     *
+     * @param out The stream to write to.
+     * @param size The number of elements.
+     * @param fixType The type byte of the short form (0x80 for maps, 0x90 for
+     *      arrays).
+     * @param type16 The type byte of the 16 bit form, the 32 bit form follows
+     *      it.
+     * @throws IOException If writing to the stream fails.
+     */
+    private static void writeHeader( OutputStream out, int size, int fixType, int type16 )
+            throws IOException {
+        if ( size < 16 ) {
+            out.write( fixType | size );
+        } else if ( size < 0x10000 ) {
+            out.write( type16 );
+            MessagePackHandler.writeInt( out, size, 2 );
+        } else {
+            out.write( type16 + 1 );
+            MessagePackHandler.writeInt( out, size, 4 );
+        }
+    }
+
+    /**
+     * Write a UTF-8 string.
+     *
+     * @param out The stream to write to.
+     * @param value The string to write.
+     * @throws IOException If writing to the stream fails.
+     */
+    private static void writeString( OutputStream out, String value )
+            throws IOException {
+        byte[] bytes = value.getBytes( "UTF-8" );
+        if ( bytes.length < 32 ) {
+            out.write( 0xa0 | bytes.length );
+        } else if ( bytes.length < 0x100 ) {
+            out.write( 0xd9 );
+            out.write( bytes.length );
+        } else if ( bytes.length < 0x10000 ) {
+            out.write( 0xda );
+            MessagePackHandler.writeInt( out, bytes.length, 2 );
+        } else {
+            out.write( 0xdb );
+            MessagePackHandler.writeInt( out, bytes.length, 4 );
+        }
+        out.write( bytes );
+    }
+
+    /**
+     * Write a big-endian integer.
+     *
+     * @param out The stream to write to.
+     * @param value The integer to write.
+     * @param length The number of bytes to write.
+     * @throws IOException If writing to the stream fails.
+     */
+    private static void writeInt( OutputStream out, int value, int length )
+            throws IOException {
+        for ( int shift = ( length - 1 ) * 8; shift >= 0; shift -= 8 ) {
+            out.write( ( value >>> shift ) & 0xff );
+        }
+    }
+
+    /**
+     * Read the header of a map or an array.
+     *
+     * @param in The stream to read from.
+     * @param fixType The type byte of the short form.
+     * @param type16 The type byte of the 16 bit form.
+     * @return The number of elements.
+     * @throws IOException If reading fails or the next value is of a
+     *      different type.
+     */
+    private static int readHeader( DataInputStream in, int fixType, int type16 )
+            throws IOException {
+        int type = in.readUnsignedByte();
+        if ( ( type & 0xf0 ) == fixType ) {
+            return type & 0x0f;
+        } else if ( type == type16 ) {
+            return in.readUnsignedShort();
+        } else if ( type == type16 + 1 ) {
+            return MessagePackHandler.checkLength( in.readInt() );
+        }
+        throw new UnmarshalException( "Unexpected MessagePack type " + type, null );
+    }
+
+    /**
+     * Read a UTF-8 string.
+     *
+     * @param in The stream to read from.
+     * @return The string.
+     * @throws IOException If reading fails or the next value is not a string.
+     */
+    private static String readString( DataInputStream in ) throws IOException {
+        int type = in.readUnsignedByte();
+        int length;
+        if ( ( type & 0xe0 ) == 0xa0 ) {
+            length = type & 0x1f;
+        } else if ( type == 0xd9 ) {
+            length = in.readUnsignedByte();
+        } else if ( type == 0xda ) {
+            length = in.readUnsignedShort();
+        } else if ( type == 0xdb ) {
+            length = MessagePackHandler.checkLength( in.readInt() );
+        } else {
+            throw new UnmarshalException( "Unexpected MessagePack type " + type, null );
+        }
+        byte[] bytes = new byte[length];
+        in.readFully( bytes );
+        return new String( bytes, "UTF-8" );
+    }
+
+    /**
+     * Reject 32 bit lengths that do not fit into an int.
+     *
+     * @param length The length read from the stream.
+     * @return The length.
+     * @throws IOException If the length is negative.
+     */
+    private static int checkLength( int length ) throws IOException {
+        if ( length < 0 ) {
+            throw new EOFException( "Length too large: " + ( length & 0xffffffffL ) );
+        }
+        return length;
+    }
+}
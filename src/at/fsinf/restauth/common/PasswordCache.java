@@ -0,0 +1,194 @@
+package at.fsinf.restauth.common;
+
+import java.security.GeneralSecurityException;
+import java.security.MessageDigest;
+import java.security.SecureRandom;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import javax.crypto.SecretKeyFactory;
+import javax.crypto.spec.PBEKeySpec;
+
+/**
+ * A cache for successful password verifications. Passwords are never stored
+ * in plain text: for every user only a random salt and a PBKDF2 digest of the
+ * password are kept.
+ *
+ * Set an instance via {@link RestAuthConnection#setPasswordCache} to enable
+ * it. Entries are invalidated when a password is changed, a user is disabled
+ * or removed through the same connection.
+ *
+ * A verification that was sent before such a change may complete after it.
+ * To keep it from storing the old password, callers read the {@link
+ * #getGeneration generation} of the user before sending the request and pass
+ * it to {@link #put(String, String, long)}, which only stores the password if
+ * the user was not invalidated in the meantime.
+ *
+ * @author Mathias Ertl
+ */
+public class PasswordCache {
+    private static final String ALGORITHM = "PBKDF2WithHmacSHA1";
+    private static final int SALT_LENGTH = 16;
+    private static final int KEY_LENGTH = 160;
+    private static final int GENERATIONS = 64;
+
+    private final ExpiringCache<String, byte[][]> cache;
+    private final int iterations;
+    private final SecureRandom random;
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+    private final AtomicLongArray generations = new AtomicLongArray( GENERATIONS );
+
+    /**
+     * Creates a new cache.
+     *
+     * @param maxSize The maximum number of users kept in the cache.
+     * @param ttlMillis The time in milliseconds after which a verification
+     *      has to be repeated.
+     * @param iterations The number of PBKDF2 iterations used for hashing.
+     */
+    public PasswordCache( int maxSize, long ttlMillis, int iterations ) {
+        this.cache = new ExpiringCache<String, byte[][]>( maxSize, ttlMillis );
+        this.iterations = iterations;
+        this.random = new SecureRandom();
+    }
+
+    /**
+     * Creates a new cache that uses 1000 PBKDF2 iterations.
+     *
+     * @param maxSize The maximum number of users kept in the cache.
+     * @param ttlMillis The time in milliseconds after which a verification
+     *      has to be repeated.
+     */
+    public PasswordCache( int maxSize, long ttlMillis ) {
+        this( maxSize, ttlMillis, 1000 );
+    }
+
+    /**
+     * Check if the password was recently verified successfully.
+     *
+     * @param name The name of the user.
+     * @param password The password to check.
+     * @return true if the password is known to be correct, false if it is
+     *      unknown.
+     */
+    public boolean verify( String name, String password ) {
+        byte[][] entry = this.cache.get( name );
+        if ( entry != null && MessageDigest.isEqual( entry[1], this.hash( password, entry[0] ) ) ) {
+            this.hits.incrementAndGet();
+            return true;
+        }
+        this.misses.incrementAndGet();
+        return false;
+    }
+
+    /**
+     * Get the current generation of a user. The generation changes every
+     * time the user is {@link #invalidate invalidated}. Users share
+     * generations, so it may also change if another user is invalidated.
+     *
+     * @param name The name of the user.
+     * @return The current generation.
+     */
+    public long getGeneration( String name ) {
+        return this.generations.get( this.stripe( name ) );
+    }
+
+    /**
+     * Remember a successfully verified password.
+     *
+     * @param name The name of the user.
+     * @param password The password that was verified.
+     */
+    public void put( String name, String password ) {
+        this.put( name, password, this.getGeneration( name ) );
+    }
+
+    /**
+     * Remember a successfully verified password, unless the user was
+     * invalidated since the given generation was read.
+     *
+     * @param name The name of the user.
+     * @param password The password that was verified.
+     * @param generation The {@link #getGeneration generation} of the user
+     *      before the password was sent to the RestAuth server.
+     * @return True if the password was stored.
+     */
+    public boolean put( String name, String password, long generation ) {
+        byte[] salt = new byte[SALT_LENGTH];
+        this.random.nextBytes( salt );
+        byte[][] entry = new byte[][] { salt, this.hash( password, salt ) };
+        synchronized ( this.generations ) {
+            if ( this.generations.get( this.stripe( name ) ) != generation ) {
+                return false;
+            }
+            this.cache.put( name, entry );
+            return true;
+        }
+    }
+
+    /**
+     * Forget the password of a user.
+     *
+     * @param name The name of the user.
+     */
+    public void invalidate( String name ) {
+        synchronized ( this.generations ) {
+            this.generations.incrementAndGet( this.stripe( name ) );
+            this.cache.remove( name );
+        }
+    }
+
+    /**
+     * Forget all passwords.
+     */
+    public void clear() {
+        this.cache.clear();
+    }
+
+    /**
+     * Get the number of verifications answered from this cache.
+     *
+     * @return The number of cache hits.
+     */
+    public long getHits() {
+        return this.hits.get();
+    }
+
+    /**
+     * Get the number of verifications that were not found in this cache.
+     *
+     * @return The number of cache misses.
+     */
+    public long getMisses() {
+        return this.misses.get();
+    }
+
+    /**
+     * Get the index of the generation used for a user.
+     *
+     * @param name The name of the user.
+     * @return The index into the generations.
+     */
+    private int stripe( String name ) {
+        return ( name.hashCode() & 0x7fffffff ) % GENERATIONS;
+    }
+
+    /**
+     * Compute the PBKDF2 digest of a password.
+     *
+     * @param password The password to hash.
+     * @param salt The salt to use.
+     * @return The digest.
+     */
+    private byte[] hash( String password, byte[] salt ) {
+        PBEKeySpec spec = new PBEKeySpec( password.toCharArray(), salt,
+                this.iterations, KEY_LENGTH );
+        try {
+            return SecretKeyFactory.getInstance( ALGORITHM ).generateSecret( spec ).getEncoded();
+        } catch ( GeneralSecurityException ex ) {
+            throw new IllegalStateException( ex );
+        } finally {
+            spec.clearPassword();
+        }
+    }
+}
@@ -0,0 +1,203 @@
+package at.fsinf.restauth.common;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * A cache for the properties of users. The cache is filled with the complete
+ * set of properties returned by {@link
+ * at.fsinf.restauth.resources.User#getProperties()}, later calls to {@link
+ * at.fsinf.restauth.resources.User#getProperty(java.lang.String)} are answered
+ * from it.
+ *
+ * Set an instance via {@link RestAuthConnection#setPropertyCache} to enable
+ * it. Creating, setting and removing properties through the same connection
+ * updates the cache.
+ *
+ * Every such update changes the {@link #getVersion version} of the user. A
+ * fetched set of properties is only stored if the version did not change
+ * since the request was sent, so a fetch that overlaps with a write cannot
+ * replace the written value with the old one.
+ *
+ * @author Mathias Ertl
+ */
+public class PropertyCache {
+    private static final int VERSIONS = 64;
+
+    private final ExpiringCache<String, ConcurrentMap<String, String>> cache;
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+    private final AtomicLongArray versions = new AtomicLongArray( VERSIONS );
+
+    /**
+     * Creates a new cache.
+     *
+     * @param maxUsers The maximum number of users whose properties are cached.
+     * @param ttlMillis The time in milliseconds after which the properties of
+     *      a user have to be fetched again.
+     */
+    public PropertyCache( int maxUsers, long ttlMillis ) {
+        this.cache = new ExpiringCache<String, ConcurrentMap<String, String>>(
+                maxUsers, ttlMillis );
+    }
+
+    /**
+     * Get all cached properties of a user.
+     *
+     * @param user The name of the user.
+     * @return A copy of the properties or null if they are not cached.
+     */
+    public Map<String, String> getProperties( String user ) {
+        ConcurrentMap<String, String> properties = this.cache.get( user );
+        if ( properties == null ) {
+            this.misses.incrementAndGet();
+            return null;
+        }
+        this.hits.incrementAndGet();
+        return new HashMap<String, String>( properties );
+    }
+
+    /**
+     * Get a single cached property of a user.
+     *
+     * @param user The name of the user.
+     * @param propName The name of the property.
+     * @return The value of the property or null if the property is not
+     *      cached.
+     */
+    public String getProperty( String user, String propName ) {
+        ConcurrentMap<String, String> properties = this.cache.get( user );
+        String value = properties == null ? null : properties.get( propName );
+        if ( value == null ) {
+            this.misses.incrementAndGet();
+            return null;
+        }
+        this.hits.incrementAndGet();
+        return value;
+    }
+
+    /**
+     * Get the current version of the properties of a user. The version
+     * changes every time a property of the user is updated or the user is
+     * invalidated. Users share versions, so it may also change if another
+     * user is updated.
+     *
+     * @param user The name of the user.
+     * @return The current version.
+     */
+    public long getVersion( String user ) {
+        return this.versions.get( this.stripe( user ) );
+    }
+
+    /**
+     * Remember the complete set of properties of a user.
+     *
+     * @param user The name of the user.
+     * @param properties All properties of the user.
+     */
+    public void setProperties( String user, Map<String, String> properties ) {
+        this.setProperties( user, properties, this.getVersion( user ) );
+    }
+
+    /**
+     * Remember the complete set of properties of a user, unless a property
+     * was updated since the given version was read.
+     *
+     * @param user The name of the user.
+     * @param properties All properties of the user.
+     * @param version The {@link #getVersion version} of the user before the
+     *      properties were requested.
+     * @return True if the properties were stored.
+     */
+    public boolean setProperties( String user, Map<String, String> properties,
+            long version ) {
+        ConcurrentMap<String, String> copy = new ConcurrentHashMap<String, String>( properties );
+        synchronized ( this.versions ) {
+            if ( this.versions.get( this.stripe( user ) ) != version ) {
+                return false;
+            }
+            this.cache.put( user, copy );
+            return true;
+        }
+    }
+
+    /**
+     * Update a single property, if the properties of the user are cached.
+     *
+     * @param user The name of the user.
+     * @param propName The name of the property.
+     * @param value The new value of the property.
+     */
+    public void setProperty( String user, String propName, String value ) {
+        synchronized ( this.versions ) {
+            this.versions.incrementAndGet( this.stripe( user ) );
+            ConcurrentMap<String, String> properties = this.cache.get( user );
+            if ( properties != null ) properties.put( propName, value );
+        }
+    }
+
+    /**
+     * Remove a single property, if the properties of the user are cached.
+     *
+     * @param user The name of the user.
+     * @param propName The name of the property.
+     */
+    public void removeProperty( String user, String propName ) {
+        synchronized ( this.versions ) {
+            this.versions.incrementAndGet( this.stripe( user ) );
+            ConcurrentMap<String, String> properties = this.cache.get( user );
+            if ( properties != null ) properties.remove( propName );
+        }
+    }
+
+    /**
+     * Forget all properties of a user.
+     *
+     * @param user The name of the user.
+     */
+    public void invalidate( String user ) {
+        synchronized ( this.versions ) {
+            this.versions.incrementAndGet( this.stripe( user ) );
+            this.cache.remove( user );
+        }
+    }
+
+    /**
+     * Forget all properties.
+     */
+    public void clear() {
+        this.cache.clear();
+    }
+
+    /**
+     * Get the number of lookups answered from this cache.
+     *
+     * @return The number of cache hits.
+     */
+    public long getHits() {
+        return this.hits.get();
+    }
+
+    /**
+     * Get the number of lookups that were not found in this cache.
+     *
+     * @return The number of cache misses.
+     */
+    public long getMisses() {
+        return this.misses.get();
+    }
+
+    /**
+     * Get the index of the version used for a user.
+     *
+     * @param user The name of the user.
+     * @return The index into the versions.
+     */
+    private int stripe( String user ) {
+        return ( user.hashCode() & 0x7fffffff ) % VERSIONS;
+    }
+}
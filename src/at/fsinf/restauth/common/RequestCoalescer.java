@@ -0,0 +1,116 @@
+package at.fsinf.restauth.common;
+
+import at.fsinf.restauth.errors.InternalServerError;
+import at.fsinf.restauth.errors.RequestFailed;
+import at.fsinf.restauth.errors.Unauthorized;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.atomic.AtomicLong;
+import org.apache.http.Header;
+
+/**
+ * Merges concurrent identical GET requests into a single HTTP request. If a
+ * thread makes a GET request while the same request is already in progress in
+ * another thread, it waits for that request and receives the same response
+ * (or exception) instead of contacting the server again.
+ *
+ * Set an instance via {@link RestAuthConnection#setRequestCoalescer} to enable
+ * it. Note that a GET request may then return a response that the server sent
+ * before a concurrent modification completed, so only enable it if this is
+ * acceptable for your application.
+ *
+ * Requests are only merged if they would be sent with the same credentials,
+ * Accept header and other headers (i.e. the validators of a {@link
+ * ResponseCache}), so a coalescer may be shared by several connections.
+ *
+ * @author Mathias Ertl
+ */
+public class RequestCoalescer {
+    private final ConcurrentMap<String, FutureTask<RestAuthResponse>> inFlight =
+            new ConcurrentHashMap<String, FutureTask<RestAuthResponse>>();
+    private final AtomicLong requests = new AtomicLong();
+    private final AtomicLong shared = new AtomicLong();
+
+    /**
+     * Send a GET request, or wait for an identical request that is already in
+     * progress.
+     *
+     * @param connection The connection used to send the request.
+     * @param request The request to send.
+     * @return The response returned by the RestAuth server.
+     * @throws Unauthorized If the authentication credentials are wrong.
+     * @throws InternalServerError If the RestAuth server suffered from an
+     *      internal error.
+     * @throws RequestFailed If making the request failed (that is, never
+     *      reached the RestAuth server) or the thread was interrupted while
+     *      waiting for the response.
+     */
+    public RestAuthResponse send( final RestAuthConnection connection,
+            final RestAuthRequest request )
+            throws Unauthorized, InternalServerError, RequestFailed {
+        String key = this.key( connection, request );
+        FutureTask<RestAuthResponse> task = new FutureTask<RestAuthResponse>(
+                new Callable<RestAuthResponse>() {
+            public RestAuthResponse call() throws Exception {
+                return connection.send( request );
+            }
+        });
+
+        FutureTask<RestAuthResponse> existing = this.inFlight.putIfAbsent( key, task );
+        if ( existing == null ) {
+            this.requests.incrementAndGet();
+            try {
+                task.run();
+            } finally {
+                this.inFlight.remove( key, task );
+            }
+        } else {
+            this.shared.incrementAndGet();
+            task = existing;
+        }
+
+        return Futures.get( task, Unauthorized.class, InternalServerError.class );
+    }
+
+    /**
+     * Get the key identifying identical requests. It contains everything
+     * that is sent to the server, except for the Accept-Encoding header
+     * which does not change the decoded response.
+     *
+     * @param connection The connection used to send the request.
+     * @param request The request to send.
+     * @return The key.
+     */
+    private String key( RestAuthConnection connection, RestAuthRequest request ) {
+        StringBuilder key = new StringBuilder( request.getMethod() );
+        key.append( ' ' ).append( request.getURI().toASCIIString() );
+        key.append( "\nAccept: " ).append( connection.getAccept() );
+        key.append( "\nAuthorization: " ).append( connection.getAuthorization() );
+        for ( Header header : request.getHeaders() ) {
+            key.append( '\n' ).append( header.getName() ).append( ": " )
+                    .append( header.getValue() );
+        }
+        return key.toString();
+    }
+
+    /**
+     * Get the number of requests that were actually sent to the server.
+     *
+     * @return The number of requests sent.
+     */
+    public long getRequests() {
+        return this.requests.get();
+    }
+
+    /**
+     * Get the number of requests that were answered with the response of an
+     * identical request that was already in progress.
+     *
+     * @return The number of shared responses.
+     */
+    public long getShared() {
+        return this.shared.get();
+    }
+}
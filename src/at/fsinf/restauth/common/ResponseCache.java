@@ -0,0 +1,370 @@
+package at.fsinf.restauth.common;
+
+import java.nio.ByteBuffer;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.concurrent.TimeUnit;
+import org.apache.http.Header;
+import org.apache.http.HttpStatus;
+
+/**
+ * An HTTP cache for the responses to GET requests. Responses are cached if
+ * the server sent an ETag or Last-Modified header or allowed caching via
+ * Cache-Control. Once a response is no longer fresh, it is revalidated with
+ * an If-None-Match or If-Modified-Since header and reused if the server
+ * answers with 304 Not Modified. The unmarshalled bodies of cached responses
+ * are kept as well, so they are not parsed again.
+ *
+ * The size of the cache is limited by the approximate number of bytes used
+ * by the cached responses. If the cache is full, the least recently used
+ * responses are evicted.
+ *
+ * Set an instance via {@link RestAuthConnection#setResponseCache} to enable
+ * it. Other requests made through the same connection {@link #invalidate
+ * invalidate} the responses they may have changed. Every invalidation also
+ * increments the {@link #getGeneration generation} of the cache: a GET
+ * request that was sent before a change is not cached if its response
+ * arrives after it.
+ *
+ * @author Mathias Ertl
+ */
+public class ResponseCache {
+    /**
+     * Estimated number of bytes used by an entry besides its body and
+     * headers.
+     */
+    private static final int ENTRY_OVERHEAD = 128;
+    /**
+     * The longest time in seconds a response is considered fresh.
+     */
+    private static final long MAX_AGE_LIMIT = TimeUnit.DAYS.toSeconds( 365 );
+
+    private final LinkedHashMap<String, CacheEntry> map =
+            new LinkedHashMap<String, CacheEntry>( 16, 0.75f, true );
+    private final long maxBytes;
+    private long bytes;
+    private long hits;
+    private long revalidations;
+    private long misses;
+    private long generation;
+
+    /**
+     * A cached response together with the time it has to be revalidated.
+     */
+    private static class CacheEntry {
+        final String path;
+        final RestAuthResponse response;
+        final int weight;
+        long expires;
+
+        CacheEntry( String path, RestAuthResponse response, int weight, long expires ) {
+            this.path = path;
+            this.response = response;
+            this.weight = weight;
+            this.expires = expires;
+        }
+    }
+
+    /**
+     * Creates a new cache.
+     *
+     * @param maxBytes The approximate maximum number of bytes used by the
+     *      cached responses.
+     */
+    public ResponseCache( long maxBytes ) {
+        if ( maxBytes < 1 ) {
+            throw new IllegalArgumentException( "Size must be greater than zero." );
+        }
+        this.maxBytes = maxBytes;
+    }
+
+    /**
+     * Get the cached response to a request. If a cached response exists but
+     * is no longer fresh, the headers required to revalidate it are added to
+     * the request.
+     *
+     * @param request The GET request.
+     * @return The cached response or null if the request has to be sent.
+     */
+    public synchronized RestAuthResponse lookup( RestAuthRequest request ) {
+        CacheEntry entry = this.map.get( this.key( request ) );
+        if ( entry == null ) {
+            this.misses++;
+            return null;
+        }
+        if ( entry.expires - System.nanoTime() > 0 ) {
+            this.hits++;
+            return entry.response;
+        }
+
+        String etag = entry.response.getHeader( "ETag" );
+        String lastModified = entry.response.getHeader( "Last-Modified" );
+        if ( etag != null ) {
+            request.addHeader( "If-None-Match", etag );
+        }
+        if ( lastModified != null ) {
+            request.addHeader( "If-Modified-Since", lastModified );
+        }
+        return null;
+    }
+
+    /**
+     * Get the current generation of this cache. The generation is
+     * incremented by every {@link #invalidate invalidation}.
+     *
+     * @return The current generation.
+     */
+    public synchronized long getGeneration() {
+        return this.generation;
+    }
+
+    /**
+     * Update the cache with the response to a request that was sent.
+     *
+     * @param request The GET request.
+     * @param response The response returned by the server.
+     * @param generation The {@link #getGeneration generation} of the cache
+     *      before the request was sent. If the cache was invalidated since,
+     *      the response is returned but not cached.
+     * @return The response to use. If the server returned 304 Not Modified,
+     *      this is the cached response. If that response was evicted in the
+     *      meantime, null is returned and the request has to be sent again
+     *      without validators.
+     */
+    public synchronized RestAuthResponse update( RestAuthRequest request,
+            RestAuthResponse response, long generation ) {
+        String key = this.key( request );
+        int respCode = response.getStatusCode();
+
+        if ( respCode == HttpStatus.SC_NOT_MODIFIED ) {
+            CacheEntry entry = this.map.get( key );
+            if ( entry == null ) return null;
+            this.revalidations++;
+            entry.expires = this.getExpires( response, entry.response );
+            return entry.response;
+        }
+
+        if ( request.getHeader( "If-None-Match" ) != null
+                || request.getHeader( "If-Modified-Since" ) != null ) {
+            this.misses++; // the cached response is outdated
+        }
+        this.remove( key );
+        ByteBuffer body = response.getRawBody();
+        if ( respCode != HttpStatus.SC_OK || body == null
+                || this.hasDirective( response, "no-store" ) ) {
+            return response;
+        }
+        if ( response.getHeader( "ETag" ) == null
+                && response.getHeader( "Last-Modified" ) == null
+                && this.getMaxAge( response ) <= 0 ) {
+            return response;
+        }
+
+        int weight = this.weigh( key, response, body );
+        if ( weight > this.maxBytes || generation != this.generation ) {
+            return response;
+        }
+        response.setCached();
+        this.map.put( key, new CacheEntry( request.getURI().getRawPath(), response,
+                weight, this.getExpires( response, response ) ) );
+        this.bytes += weight;
+        Iterator<CacheEntry> eldest = this.map.values().iterator();
+        while ( this.bytes > this.maxBytes ) {
+            this.bytes -= eldest.next().weight;
+            eldest.remove();
+        }
+        return response;
+    }
+
+    /**
+     * Remove the cached responses that may have been changed by a request
+     * other than GET. Password verifications do not change anything. A
+     * change to a user removes the responses for that user; removing or
+     * creating a user also removes the list of users. Since memberships are
+     * inherited from meta-groups and are also listed per user, any change to
+     * a group or removing a user removes all responses for groups.
+     *
+     * @param request The request that was sent.
+     */
+    public synchronized void invalidate( RestAuthRequest request ) {
+        String method = request.getMethod();
+        String[] segments = request.getURI().getRawPath().split( "/" );
+        // segments[0] is the empty string before the leading slash
+        String collection = segments.length > 1 ? segments[1] : "";
+        if ( method.equals( "GET" )
+                || ( method.equals( "POST" ) && collection.equals( "users" )
+                    && segments.length == 3 ) ) {
+            return; // read-only
+        }
+        this.generation++;
+
+        if ( ! collection.equals( "users" ) && ! collection.equals( "groups" ) ) {
+            this.clear();
+            return;
+        }
+        String prefix = "/" + collection + "/";
+        if ( segments.length > 2 ) {
+            prefix += segments[2] + "/";
+        }
+        boolean listed = segments.length <= 2
+                || ( method.equals( "DELETE" ) && segments.length == 3 );
+        boolean groups = collection.equals( "groups" )
+                || ( method.equals( "DELETE" ) && segments.length == 3 );
+
+        Iterator<CacheEntry> entries = this.map.values().iterator();
+        while ( entries.hasNext() ) {
+            CacheEntry entry = entries.next();
+            if ( entry.path.startsWith( prefix )
+                    || ( listed && entry.path.equals( "/" + collection + "/" ) )
+                    || ( groups && entry.path.startsWith( "/groups/" ) ) ) {
+                this.bytes -= entry.weight;
+                entries.remove();
+            }
+        }
+    }
+
+    /**
+     * Remove all cached responses.
+     */
+    public synchronized void clear() {
+        this.generation++;
+        this.map.clear();
+        this.bytes = 0;
+    }
+
+    /**
+     * Get the number of requests answered from this cache without contacting
+     * the server.
+     *
+     * @return The number of cache hits.
+     */
+    public synchronized long getHits() {
+        return this.hits;
+    }
+
+    /**
+     * Get the number of requests that were answered with 304 Not Modified,
+     * so that the cached response was used.
+     *
+     * @return The number of successful revalidations.
+     */
+    public synchronized long getRevalidations() {
+        return this.revalidations;
+    }
+
+    /**
+     * Get the number of requests for which no response was cached.
+     *
+     * @return The number of cache misses.
+     */
+    public synchronized long getMisses() {
+        return this.misses;
+    }
+
+    /**
+     * Get the approximate number of bytes used by the cached responses.
+     *
+     * @return The size of this cache in bytes.
+     */
+    public synchronized long getSize() {
+        return this.bytes;
+    }
+
+    /**
+     * Remove a cached response.
+     *
+     * @param key The key of the response.
+     */
+    private void remove( String key ) {
+        CacheEntry entry = this.map.remove( key );
+        if ( entry != null ) {
+            this.bytes -= entry.weight;
+        }
+    }
+
+    /**
+     * Get the key used for a request.
+     *
+     * @param request The request.
+     * @return The key.
+     */
+    private String key( RestAuthRequest request ) {
+        return request.getURI().toASCIIString();
+    }
+
+    /**
+     * Estimate the number of bytes used by a cached response.
+     *
+     * @param key The key of the response.
+     * @param response The response.
+     * @param body The raw body of the response.
+     * @return The estimated size in bytes.
+     */
+    private int weigh( String key, RestAuthResponse response, ByteBuffer body ) {
+        long weight = ResponseCache.ENTRY_OVERHEAD + body.remaining() + key.length() * 2;
+        for ( Header header : response.getHeaders() ) {
+            weight += ( header.getName().length() + header.getValue().length() ) * 2;
+        }
+        return (int) Math.min( weight, Integer.MAX_VALUE );
+    }
+
+    /**
+     * Get the time a response has to be revalidated.
+     *
+     * @param response The response that was received last, either the
+     *      original response or a 304 response.
+     * @param cached The cached response.
+     * @return The time as returned by {@link System#nanoTime()}.
+     */
+    private long getExpires( RestAuthResponse response, RestAuthResponse cached ) {
+        long maxAge = this.getMaxAge( response );
+        if ( maxAge < 0 && response != cached ) {
+            maxAge = this.getMaxAge( cached );
+        }
+        maxAge = Math.min( Math.max( maxAge, 0 ), ResponseCache.MAX_AGE_LIMIT );
+        return System.nanoTime() + TimeUnit.SECONDS.toNanos( maxAge );
+    }
+
+    /**
+     * Get the number of seconds a response is fresh according to its
+     * Cache-Control header.
+     *
+     * @param response The response.
+     * @return The number of seconds, 0 if the response has to be revalidated
+     *      every time or -1 if the header does not say anything about it.
+     */
+    private long getMaxAge( RestAuthResponse response ) {
+        String cacheControl = response.getHeader( "Cache-Control" );
+        if ( cacheControl == null ) return -1;
+        long maxAge = -1;
+        for ( String directive : cacheControl.split( "," ) ) {
+            directive = directive.trim().toLowerCase();
+            if ( directive.equals( "no-cache" ) ) {
+                return 0;
+            } else if ( directive.startsWith( "max-age=" ) ) {
+                try {
+                    maxAge = Long.parseLong( directive.substring( "max-age=".length() ) );
+                } catch ( NumberFormatException ex ) {
+                    return 0;
+                }
+            }
+        }
+        return maxAge;
+    }
+
+    /**
+     * Check if the Cache-Control header of a response contains a directive.
+     *
+     * @param response The response.
+     * @param name The name of the directive.
+     * @return True if the directive is present.
+     */
+    private boolean hasDirective( RestAuthResponse response, String name ) {
+        String cacheControl = response.getHeader( "Cache-Control" );
+        if ( cacheControl == null ) return false;
+        for ( String directive : cacheControl.split( "," ) ) {
+            if ( directive.trim().equalsIgnoreCase( name ) ) return true;
+        }
+        return false;
+    }
+}
@@ -8,22 +8,19 @@ import at.fsinf.restauth.errors.RequestFailed;
 import at.fsinf.restauth.errors.Unauthorized;
 import at.fsinf.restauth.errors.UnsupportedMediaType;
 import java.io.IOException;
-import java.io.UnsupportedEncodingException;
+import java.io.InputStream;
 import java.net.MalformedURLException;
 import java.net.URI;
 import java.net.URISyntaxException;
+import java.util.ArrayList;
+import java.util.HashMap;
 import java.util.Iterator;
+import java.util.List;
 import java.util.Map;
 import java.util.Set;
 import org.apache.commons.codec.binary.Base64;
+import org.apache.http.Header;
 import org.apache.http.HttpStatus;
-import org.apache.http.client.methods.HttpDelete;
-import org.apache.http.client.methods.HttpGet;
-import org.apache.http.client.methods.HttpPost;
-import org.apache.http.client.methods.HttpPut;
-import org.apache.http.client.methods.HttpRequestBase;
-import org.apache.http.entity.StringEntity;
-import org.apache.http.impl.client.DefaultHttpClient;
 
 /**
  * An instance of this class represents a connection to a RestAuth service. It
@@ -31,11 +28,20 @@ import org.apache.http.impl.client.DefaultHttpClient;
  *
  * @author Mathias Ertl
  */
-public class RestAuthConnection extends DefaultHttpClient {
-    public ContentHandler handler;
+public class RestAuthConnection {
+    public volatile ContentHandler handler;
 
     private URI host;
-    private String authHeader;
+    private volatile String authHeader;
+    private Transport transport;
+    private volatile PasswordCache passwordCache;
+    private volatile MembershipCache membershipCache;
+    private volatile PropertyCache propertyCache;
+    private volatile ExistenceCache existenceCache;
+    private volatile RequestCoalescer coalescer;
+    private volatile Compression compression;
+    private volatile ResponseCache responseCache;
+    private volatile ContentHandler[] handlers;
 
     /**
      * Creates a new connection to a RestAuth service. This method uses the
@@ -89,18 +95,108 @@ public class RestAuthConnection extends DefaultHttpClient {
      * @param handler The content handler to use.
      */
     public RestAuthConnection( URI host, String user, String passwd, ContentHandler handler ) throws InvalidCredentials {
+        this( host, user, passwd, handler, new ApacheTransport() );
+    }
+
+    /**
+     * Creates a new thread-safe connection to a RestAuth service. The
+     * underlying HTTP connections are kept in a pool and reused, so a single
+     * instance can be shared by any number of threads.
+     *
+     * @param host host The host where the RestAuth server can be reached (i.e.
+     *      "https://auth.example.com").
+     * @param user The user used to authenticate against the RestAuth server.
+     * @param passwd The password used to authenticate against the RestAuth server.
+     * @param handler The content handler to use.
+     * @param maxTotal The maximum number of open connections.
+     * @param maxPerRoute The maximum number of open connections to the same
+     *      host.
+     */
+    public RestAuthConnection( String host, String user, String passwd, ContentHandler handler,
+            int maxTotal, int maxPerRoute )
+            throws URISyntaxException, InvalidCredentials {
+        this( new URI( host ), user, passwd, handler, maxTotal, maxPerRoute );
+    }
+
+    /**
+     * Creates a new thread-safe connection to a RestAuth service. The
+     * underlying HTTP connections are kept in a pool and reused, so a single
+     * instance can be shared by any number of threads.
+     *
+     * @param host host The host where the RestAuth server can be reached (i.e.
+     *      "https://auth.example.com").
+     * @param user The user used to authenticate against the RestAuth server.
+     * @param passwd The password used to authenticate against the RestAuth server.
+     * @param handler The content handler to use.
+     * @param maxTotal The maximum number of open connections.
+     * @param maxPerRoute The maximum number of open connections to the same
+     *      host.
+     */
+    public RestAuthConnection( URI host, String user, String passwd, ContentHandler handler,
+            int maxTotal, int maxPerRoute ) throws InvalidCredentials {
+        this( host, user, passwd, handler, new ApacheTransport( maxTotal, maxPerRoute ) );
+    }
+
+    /**
+     * Creates a new connection to a RestAuth service that uses the given
+     * transport to send requests.
+     *
+     * @param host host The host where the RestAuth server can be reached (i.e.
+     *      "https://auth.example.com").
+     * @param user The user used to authenticate against the RestAuth server.
+     * @param passwd The password used to authenticate against the RestAuth server.
+     * @param handler The content handler to use.
+     * @param transport The transport used to send requests.
+     */
+    public RestAuthConnection( URI host, String user, String passwd, ContentHandler handler,
+            Transport transport ) throws InvalidCredentials {
         this.handler = handler;
-        this.setCredentials(user, passwd);        
+        this.setCredentials(user, passwd);
         this.host = host;
+        this.transport = transport;
     }
 
     /**
-     * Set a different content handler.
+     * Set a different content handler. Responses in the {@link ResponseCache}
+     * may not be readable by the new handler, so the cache is cleared.
      *
      * @param handler The new content handler to use.
      */
     public void setContentHandler( ContentHandler handler ) {
+        this.handlers = null;
         this.handler = handler;
+        this.clearResponseCache();
+    }
+
+    /**
+     * Negotiate the content type with the server. All MIME types of the given
+     * handlers are sent in the Accept header in the given order of
+     * preference, and responses are parsed by the handler matching their
+     * Content-Type header. Request bodies are marshalled by the first handler.
+     *
+     * If the server answers with 406 Not Acceptable or 415 Unsupported Media
+     * Type, the connection falls back to JSON and repeats the request. Like
+     * {@link #setContentHandler}, this clears the {@link ResponseCache}.
+     *
+     * @param handlers The content handlers to use, the preferred one first.
+     */
+    public void setContentHandlers( ContentHandler... handlers ) {
+        if ( handlers.length == 0 ) {
+            throw new IllegalArgumentException( "At least one handler is required." );
+        }
+        this.handlers = handlers.clone();
+        this.handler = handlers[0];
+        this.clearResponseCache();
+    }
+
+    /**
+     * Remove all responses from the {@link ResponseCache}, if one is set.
+     * This also keeps responses to requests that are in progress from being
+     * cached, since they were requested with the old Accept header.
+     */
+    private void clearResponseCache() {
+        ResponseCache cache = this.responseCache;
+        if ( cache != null ) cache.clear();
     }
 
     /**
@@ -112,6 +208,226 @@ public class RestAuthConnection extends DefaultHttpClient {
         return this.handler;
     }
 
+    /**
+     * Get the content handler that is able to parse the body of a response.
+     *
+     * @param response The response to parse.
+     * @return The handler matching the Content-Type of the response, or the
+     *      current content handler if none matches.
+     */
+    public ContentHandler getContentHandler( RestAuthResponse response ) {
+        return this.getContentHandler( response.getHeader( "Content-Type" ) );
+    }
+
+    /**
+     * Get the content handler for a MIME type.
+     *
+     * @param contentType The value of a Content-Type header, may be null.
+     * @return The handler matching the MIME type, or the current content
+     *      handler if none matches.
+     */
+    private ContentHandler getContentHandler( String contentType ) {
+        ContentHandler[] current = this.handlers;
+        if ( current == null || contentType == null ) return this.handler;
+
+        int end = contentType.indexOf( ';' );
+        String mimeType = ( end < 0 ? contentType : contentType.substring( 0, end ) ).trim();
+        for ( ContentHandler candidate : current ) {
+            if ( candidate.getMimeType().equalsIgnoreCase( mimeType ) ) {
+                return candidate;
+            }
+        }
+        return this.handler;
+    }
+
+    /**
+     * Get the value of the Accept header.
+     *
+     * @return The MIME types accepted by this connection.
+     */
+    String getAccept() {
+        ContentHandler[] current = this.handlers;
+        if ( current == null ) return this.handler.getMimeType();
+
+        StringBuilder accept = new StringBuilder( current[0].getMimeType() );
+        for ( int i = 1; i < current.length; i++ ) {
+            int quality = Math.max( 10 - i, 1 );
+            accept.append( ", " ).append( current[i].getMimeType() )
+                    .append( ";q=0." ).append( quality );
+        }
+        return accept.toString();
+    }
+
+    /**
+     * Get the value of the Authorization header.
+     *
+     * @return The credentials sent by this connection.
+     */
+    String getAuthorization() {
+        return this.authHeader;
+    }
+
+    /**
+     * Stop negotiating the content type and only use JSON from now on.
+     *
+     * @return true if the connection was negotiating before, false if nothing
+     *      changed.
+     */
+    private synchronized boolean fallBackToJson() {
+        if ( this.handlers == null ) return false;
+        ContentHandler json = null;
+        for ( ContentHandler candidate : this.handlers ) {
+            if ( candidate instanceof JsonHandler ) json = candidate;
+        }
+        this.setContentHandler( json == null ? new JsonHandler() : json );
+        return true;
+    }
+
+    /**
+     * Get the transport used to send requests.
+     *
+     * @return The current transport.
+     */
+    public Transport getTransport() {
+        return this.transport;
+    }
+
+    /**
+     * Enable caching of successful password verifications.
+     *
+     * @param cache The cache to use, or null to disable caching.
+     */
+    public void setPasswordCache( PasswordCache cache ) {
+        this.passwordCache = cache;
+    }
+
+    /**
+     * Get the cache used for password verifications.
+     *
+     * @return The current cache or null if caching is disabled.
+     */
+    public PasswordCache getPasswordCache() {
+        return this.passwordCache;
+    }
+
+    /**
+     * Enable caching of group memberships.
+     *
+     * @param cache The cache to use, or null to disable caching.
+     */
+    public void setMembershipCache( MembershipCache cache ) {
+        this.membershipCache = cache;
+    }
+
+    /**
+     * Get the cache used for group memberships.
+     *
+     * @return The current cache or null if caching is disabled.
+     */
+    public MembershipCache getMembershipCache() {
+        return this.membershipCache;
+    }
+
+    /**
+     * Enable caching of user properties.
+     *
+     * @param cache The cache to use, or null to disable caching.
+     */
+    public void setPropertyCache( PropertyCache cache ) {
+        this.propertyCache = cache;
+    }
+
+    /**
+     * Get the cache used for user properties.
+     *
+     * @return The current cache or null if caching is disabled.
+     */
+    public PropertyCache getPropertyCache() {
+        return this.propertyCache;
+    }
+
+    /**
+     * Enable caching of the existence of users and groups.
+     *
+     * @param cache The cache to use, or null to disable caching.
+     */
+    public void setExistenceCache( ExistenceCache cache ) {
+        this.existenceCache = cache;
+    }
+
+    /**
+     * Get the cache used for the existence of users and groups.
+     *
+     * @return The current cache or null if caching is disabled.
+     */
+    public ExistenceCache getExistenceCache() {
+        return this.existenceCache;
+    }
+
+    /**
+     * Enable merging of concurrent identical GET requests.
+     *
+     * @param coalescer The coalescer to use, or null to disable merging.
+     */
+    public void setRequestCoalescer( RequestCoalescer coalescer ) {
+        this.coalescer = coalescer;
+    }
+
+    /**
+     * Get the coalescer used to merge concurrent identical GET requests.
+     *
+     * @return The current coalescer or null if merging is disabled.
+     */
+    public RequestCoalescer getRequestCoalescer() {
+        return this.coalescer;
+    }
+
+    /**
+     * Enable compressed responses. The server may then compress response
+     * bodies, they are decompressed while they are received.
+     *
+     * @param compression The compression to use, or null to disable
+     *      compressed responses.
+     */
+    public void setCompression( Compression compression ) {
+        this.compression = compression;
+    }
+
+    /**
+     * Get the compression used for responses.
+     *
+     * @return The current compression or null if compressed responses are
+     *      disabled.
+     */
+    public Compression getCompression() {
+        return this.compression;
+    }
+
+    /**
+     * Enable the HTTP cache for responses to GET requests.
+     *
+     * @param cache The cache to use, or null to disable caching.
+     */
+    public void setResponseCache( ResponseCache cache ) {
+        this.responseCache = cache;
+    }
+
+    /**
+     * Get the HTTP cache used for responses to GET requests.
+     *
+     * @return The current cache or null if caching is disabled.
+     */
+    public ResponseCache getResponseCache() {
+        return this.responseCache;
+    }
+
+    /**
+     * Release all resources held by the transport of this connection.
+     */
+    public void shutdown() {
+        this.transport.shutdown();
+    }
+
     /**
      * Set new authentication credentials.
      *
@@ -128,17 +444,15 @@ public class RestAuthConnection extends DefaultHttpClient {
     }
 
     /**
-     * Thin wrapper-method that prefixes the URL set in the request with the
-     * host set in the constructor and wraps the HttpResponse into a {@link
-     * RestAuthResponse}.
+     * Create a request for the given path on the host set in the constructor.
      *
-     * @param request The request to execute. This should only include a path
-     *      and optionally a query part but NOT a hostname, port or URL scheme.
-     * @return The response returned by the RestAuth server.
-     * @throws IOException When the connection to the RestAuth server fails.
+     * @param method The HTTP method of the request.
+     * @param path The path of the request. This should NOT include a
+     *      hostname, port or URL scheme.
+     * @param query The query string of the request, may be null.
+     * @return The new request.
      */
-    public RestAuthResponse execute( HttpRequestBase request, String path, String query )
-            throws IOException {
+    public RestAuthRequest createRequest( String method, String path, String query ) {
         // sanitize path:
         if ( ! path.endsWith( "/" ) ) path += "/";
         if ( ! path.startsWith( "/" ) ) path = "/" + path;
@@ -148,13 +462,10 @@ public class RestAuthConnection extends DefaultHttpClient {
         try {
             URI fullURI = new URI(this.host.getScheme(), null,
                     this.host.getHost(), this.host.getPort(), path, query, null);
-            request.setURI( fullURI );
+            return new RestAuthRequest( method, fullURI );
         } catch (URISyntaxException ex) {
             throw new IllegalArgumentException( ex );
         }
-
-        // execute request:
-        return this.execute( request, new RestAuthResponseHandler() );
     }
 
     /**
@@ -172,33 +483,89 @@ public class RestAuthConnection extends DefaultHttpClient {
      * @throws RequestFailed If making the request failed (that is, never
      *      reached the RestAuth server).
      */
-    public RestAuthResponse send(HttpRequestBase request, String path )
-            throws Unauthorized, InternalServerError, RequestFailed {
-        return this.send( request, path, null );
+    public RestAuthResponse send( RestAuthRequest request )
+            throws Unauthorized, RequestFailed, InternalServerError {
+        RestAuthResponse response = this.execute( request );
+        if ( response.getStatusCode() == HttpStatus.SC_NOT_ACCEPTABLE
+                && request.getBody() == null && this.fallBackToJson() ) {
+            response = this.execute( this.copyRequest( request ) );
+        }
+        return this.check( response );
     }
 
     /**
-     * Same as {@link
-     * #send(org.apache.http.client.methods.HttpRequestBase, java.lang.String)}
-     * but with a querystring attached.
+     * Send a request without checking the status code of the response.
      *
-     * @param request
-     * @param path
-     * @param query
-     * @return
-     * @throws Unauthorized
+     * @param request The request to send.
+     * @return The response returned by the RestAuth server.
+     * @throws RequestFailed If making the request failed (that is, never
+     *      reached the RestAuth server).
      */
-    public RestAuthResponse send(HttpRequestBase request, String path, String query )
-            throws Unauthorized, RequestFailed, InternalServerError {
-        request.addHeader( "Accept", this.handler.getMimeType() );
-        request.addHeader( "Authorization", this.authHeader );
-
-        RestAuthResponse response;
+    private RestAuthResponse execute( RestAuthRequest request )
+            throws RequestFailed {
+        this.prepare( request );
         try {
-            response = this.execute(request, path, query );
+            return this.transport.execute( request );
         } catch (IOException ex) {
-            throw new RequestFailed( request, ex );
+            throw new RequestFailed( ex );
+        } finally {
+            // also if the request failed, it may have reached the server
+            ResponseCache cache = this.responseCache;
+            if ( cache != null ) cache.invalidate( request );
+        }
+    }
+
+    /**
+     * Copy a request that has no body so that it can be sent again. The
+     * headers set by this connection and the validators set by the {@link
+     * ResponseCache} are not copied.
+     *
+     * @param request The request to copy.
+     * @return The copy.
+     */
+    private RestAuthRequest copyRequest( RestAuthRequest request ) {
+        RestAuthRequest copy = new RestAuthRequest( request.getMethod(), request.getURI() );
+        for ( Header header : request.getHeaders() ) {
+            String name = header.getName();
+            if ( name.equalsIgnoreCase( "Accept" )
+                    || name.equalsIgnoreCase( "Authorization" )
+                    || name.equalsIgnoreCase( "Accept-Encoding" )
+                    || name.equalsIgnoreCase( "If-None-Match" )
+                    || name.equalsIgnoreCase( "If-Modified-Since" ) ) {
+                continue;
+            }
+            copy.addHeader( name, header.getValue() );
         }
+        return copy;
+    }
+
+    /**
+     * Set the headers common to all requests.
+     *
+     * @param request The request to prepare.
+     */
+    private void prepare( RestAuthRequest request ) {
+        request.addHeader( "Accept", this.getAccept() );
+        request.addHeader( "Authorization", this.authHeader );
+        Compression current = this.compression;
+        if ( current != null ) {
+            request.addHeader( "Accept-Encoding", Compression.ACCEPT_ENCODING );
+            request.setCompression( current );
+        }
+    }
+
+    /**
+     * Throw an exception if the response has an error code that may be
+     * returned for every request.
+     *
+     * @param response The response to check.
+     * @return The same response.
+     * @throws Unauthorized If the authentication credentials are wrong.
+     * @throws InternalServerError If the RestAuth server suffered from an
+     *      internal error.
+     */
+    private RestAuthResponse check( RestAuthResponse response )
+            throws Unauthorized, InternalServerError {
         int respCode = response.getStatusCode();
 
         switch( respCode ) {
@@ -226,7 +593,7 @@ public class RestAuthConnection extends DefaultHttpClient {
      */
     public RestAuthResponse get( String path )
             throws Unauthorized, InternalServerError, RequestFailed {
-        return this.send( new HttpGet(), path );
+        return this.sendGet( this.createRequest( "GET", path, null ) );
     }
 
     /**
@@ -256,7 +623,169 @@ public class RestAuthConnection extends DefaultHttpClient {
             } 
         }
 
-        return this.send( new HttpGet(), path, queryString );
+        return this.sendGet( this.createRequest( "GET", path, queryString ) );
+    }
+
+    /**
+     * Send a GET request, using the {@link ResponseCache} if one is set.
+     *
+     * @param request The request to send.
+     * @return The response returned by the RestAuth server or the cached
+     *      response.
+     * @throws Unauthorized If the authentication credentials are wrong.
+     * @throws InternalServerError If the RestAuth server suffered from an
+     *      internal error.
+     * @throws RequestFailed If making the request failed (that is, never
+     *      reached the RestAuth server).
+     */
+    private RestAuthResponse sendGet( RestAuthRequest request )
+            throws Unauthorized, InternalServerError, RequestFailed {
+        ResponseCache cache = this.responseCache;
+        if ( cache == null ) {
+            return this.coalesce( request );
+        }
+        long generation = cache.getGeneration();
+        RestAuthResponse response = cache.lookup( request );
+        if ( response != null ) {
+            return response;
+        }
+
+        response = cache.update( request, this.coalesce( request ), generation );
+        if ( response == null ) {
+            // the revalidated response was evicted in the meantime
+            RestAuthRequest retry = this.copyRequest( request );
+            generation = cache.getGeneration();
+            response = cache.update( retry, this.coalesce( retry ), generation );
+        }
+        return response;
+    }
+
+    /**
+     * Send a GET request, merging it with identical requests in progress if a
+     * {@link RequestCoalescer} is set.
+     *
+     * @param request The request to send.
+     * @return The response returned by the RestAuth server.
+     * @throws Unauthorized If the authentication credentials are wrong.
+     * @throws InternalServerError If the RestAuth server suffered from an
+     *      internal error.
+     * @throws RequestFailed If making the request failed (that is, never
+     *      reached the RestAuth server).
+     */
+    private RestAuthResponse coalesce( RestAuthRequest request )
+            throws Unauthorized, InternalServerError, RequestFailed {
+        RequestCoalescer current = this.coalescer;
+        if ( current == null ) {
+            return this.send( request );
+        }
+        return current.send( this, request );
+    }
+
+    /**
+     * Perform a GET request for a <a
+     * href="http://fs.fsinf.at/wiki/RestAuth/Specification#List">list</a>
+     * and pass its elements to the callback while the response is being
+     * read. If the status code of the response is 200, the returned response
+     * has no body. Otherwise the callback is not called and the body is
+     * available as usual.
+     *
+     * If the transport of this connection is not a {@link
+     * StreamingTransport} or a {@link ResponseCache} is set, the response is
+     * read completely before the callback is called.
+     *
+     * @param path The path to make the request to.
+     * @param callback The callback receiving the elements of the list.
+     * @return The response returned by the RestAuth server.
+     * @throws Unauthorized If the authentication credentials are wrong.
+     * @throws InternalServerError If the RestAuth server suffered from an
+     *      internal error.
+     * @throws RequestFailed If making the request failed (that is, never
+     *      reached the RestAuth server).
+     */
+    public RestAuthResponse getList( String path, final ListCallback callback )
+            throws Unauthorized, InternalServerError, RequestFailed {
+        RestAuthRequest request = this.createRequest( "GET", path, null );
+        if ( this.responseCache != null
+                || ! ( this.transport instanceof StreamingTransport ) ) {
+            RestAuthResponse response = this.sendGet( request );
+            if ( response.getStatusCode() == HttpStatus.SC_OK ) {
+                for ( String value : this.unmarshal_list( response ) ) {
+                    callback.item( value );
+                }
+            }
+            return response;
+        }
+
+        this.prepare( request );
+        RestAuthResponse response;
+        try {
+            response = ((StreamingTransport) this.transport).execute( request,
+                    new StreamHandler() {
+                public boolean accepts( int statusCode ) {
+                    return statusCode == HttpStatus.SC_OK;
+                }
+
+                public void handle( InputStream body, String contentType, String charset )
+                        throws IOException {
+                    RestAuthConnection.this.getContentHandler( contentType )
+                            .unmarshal_list( body, charset, callback );
+                }
+            });
+        } catch (IOException ex) {
+            throw new RequestFailed( ex );
+        }
+        if ( response.getStatusCode() == HttpStatus.SC_NOT_ACCEPTABLE
+                && this.fallBackToJson() ) {
+            return this.getList( path, callback );
+        }
+        return this.check( response );
+    }
+
+    /**
+     * Unmarshal the body of a response containing a <a
+     * href="http://fs.fsinf.at/wiki/RestAuth/Specification#List">list</a>.
+     * If the response is cached, the list is only unmarshalled once.
+     *
+     * @param response The response.
+     * @return The unmarshalled list, which may be modified by the caller.
+     */
+    public List<String> unmarshal_list( RestAuthResponse response ) {
+        if ( ! response.isCached() ) {
+            return this.getContentHandler( response ).unmarshal_list(
+                    response.getRawBody(), response.getCharset() );
+        }
+        @SuppressWarnings( "unchecked" )
+        List<String> list = (List<String>) response.getParsedBody();
+        if ( list == null ) {
+            list = this.getContentHandler( response ).unmarshal_list(
+                    response.getRawBody(), response.getCharset() );
+            response.setParsedBody( list );
+        }
+        return new ArrayList<String>( list );
+    }
+
+    /**
+     * Unmarshal the body of a response containing a <a
+     * href="http://fs.fsinf.at/wiki/RestAuth/Specification#Dictionary">dictionary</a>.
+     * If the response is cached, the dictionary is only unmarshalled once.
+     *
+     * @param response The response.
+     * @return The unmarshalled dictionary, which may be modified by the
+     *      caller.
+     */
+    public Map<String, String> unmarshal_dictionary( RestAuthResponse response ) {
+        if ( ! response.isCached() ) {
+            return this.getContentHandler( response ).unmarshal_dictionary(
+                    response.getRawBody(), response.getCharset() );
+        }
+        @SuppressWarnings( "unchecked" )
+        Map<String, String> map = (Map<String, String>) response.getParsedBody();
+        if ( map == null ) {
+            map = this.getContentHandler( response ).unmarshal_dictionary(
+                    response.getRawBody(), response.getCharset() );
+            response.setParsedBody( map );
+        }
+        return new HashMap<String, String>( map );
     }
 
     /**
@@ -276,22 +805,27 @@ public class RestAuthConnection extends DefaultHttpClient {
      */
     public RestAuthResponse post( String path, Map<String, Object> params )
             throws Unauthorized, InternalServerError, RequestFailed {
-        HttpPost method = new HttpPost();
-        String body = this.handler.marshal_dictionary( params );
-        try {
-            method.setEntity(new StringEntity(body, "UTF-8"));
-        } catch (UnsupportedEncodingException ex) {
-            throw new RequestFailed( ex );
-        }
-        method.addHeader( "Content-Type", this.handler.getMimeType() );
+        return this.sendBody( "POST", path, params, null, null );
+    }
 
-        RestAuthResponse response = this.send( method, path );
-        int respCode = response.getStatusCode();
-        switch (respCode) {
-            case 400: throw new BadRequest( response );
-            case 415: throw new UnsupportedMediaType( response );
-            default: return response;
-        }
+    /**
+     * Perform a POST request to the RestAuth server with a dictionary that
+     * only contains strings. This avoids creating a map for the request body.
+     *
+     * @param path The path to make the request to.
+     * @param fields Alternating keys and values of the dictionary that should
+     *      be used as the request body.
+     * @return The response returned by the RestAuth server.
+     * @throws Unauthorized If the authentication credentials are wrong.
+     * @throws InternalServerError If the RestAuth server suffered from an
+     *      internal error.
+     * @throws RequestFailed If making the request failed (that is, never
+     *      reached the RestAuth server).
+     * @see ContentHandler#marshal_fields
+     */
+    public RestAuthResponse post( String path, String... fields )
+            throws Unauthorized, InternalServerError, RequestFailed {
+        return this.sendBody( "POST", path, null, fields, null );
     }
 
     /**
@@ -310,17 +844,117 @@ public class RestAuthConnection extends DefaultHttpClient {
      */
     public RestAuthResponse put( String path, Map<String, Object> params )
             throws Unauthorized, InternalServerError, RequestFailed {
-        HttpPut method = new HttpPut();
-        String body = this.handler.marshal_dictionary( params );
+        return this.sendBody( "PUT", path, params, null, null );
+    }
+
+    /**
+     * Perform a PUT request to the RestAuth server with a dictionary that
+     * only contains strings. This avoids creating a map for the request body.
+     *
+     * @param path The path to make the request to.
+     * @param fields Alternating keys and values of the dictionary that should
+     *      be used as the request body.
+     * @return The response returned by the RestAuth server.
+     * @throws Unauthorized If the authentication credentials are wrong.
+     * @throws InternalServerError If the RestAuth server suffered from an
+     *      internal error.
+     * @throws RequestFailed If making the request failed (that is, never
+     *      reached the RestAuth server).
+     * @see ContentHandler#marshal_fields
+     */
+    public RestAuthResponse put( String path, String... fields )
+            throws Unauthorized, InternalServerError, RequestFailed {
+        return this.sendBody( "PUT", path, null, fields, null );
+    }
+
+    /**
+     * Perform a conditional PUT request to the RestAuth server. If the
+     * precondition does not hold, the server answers with status 412.
+     *
+     * @param path The path to make the request to.
+     * @param precondition An If-Match or If-None-Match header.
+     * @param fields Alternating keys and values of the dictionary that should
+     *      be used as the request body.
+     * @return The response returned by the RestAuth server.
+     * @throws Unauthorized If the authentication credentials are wrong.
+     * @throws InternalServerError If the RestAuth server suffered from an
+     *      internal error.
+     * @throws RequestFailed If making the request failed (that is, never
+     *      reached the RestAuth server).
+     * @see EntityTags
+     */
+    public RestAuthResponse put( String path, Header precondition, String... fields )
+            throws Unauthorized, InternalServerError, RequestFailed {
+        return this.sendBody( "PUT", path, null, fields, precondition );
+    }
+
+    /**
+     * Create a request whose body is marshalled into the body buffer of the
+     * current thread.
+     *
+     * @param method The HTTP method.
+     * @param path The path to make the request to.
+     * @param params The dictionary that should be used as the request body,
+     *      or null if fields is given.
+     * @param fields Alternating keys and values of the request body, only
+     *      used if params is null.
+     * @return The request.
+     * @throws RequestFailed If the body cannot be marshalled.
+     */
+    private RestAuthRequest createRequest( String method, String path,
+            Map<String, Object> params, String[] fields ) throws RequestFailed {
+        RestAuthRequest request = this.createRequest( method, path, null );
+        ContentHandler current = this.handler;
+        BodyBuffer buffer = BodyBuffer.get();
         try {
-            method.setEntity(new StringEntity(body, "UTF-8"));
-        } catch (UnsupportedEncodingException ex) {
+            if ( params != null ) {
+                current.marshal_dictionary( params, buffer );
+            } else {
+                current.marshal_fields( buffer, fields );
+            }
+        } catch (IOException ex) {
             throw new RequestFailed( ex );
         }
-        method.addHeader( "Content-Type", this.handler.getMimeType() );
+        request.setBody( buffer.getArray(), buffer.size() );
+        request.addHeader( "Content-Type", current.getMimeType() );
+        return request;
+    }
 
-        RestAuthResponse response = this.send( method, path );
+    /**
+     * Send a POST or PUT request and throw an exception if the server did not
+     * accept the request body.
+     *
+     * @param method The HTTP method.
+     * @param path The path to make the request to.
+     * @param params The dictionary that should be used as the request body,
+     *      or null if fields is given.
+     * @param fields Alternating keys and values of the request body, only
+     *      used if params is null.
+     * @param precondition An If-Match or If-None-Match header, may be null.
+     * @return The response returned by the RestAuth server.
+     * @throws Unauthorized If the authentication credentials are wrong.
+     * @throws InternalServerError If the RestAuth server suffered from an
+     *      internal error.
+     * @throws RequestFailed If making the request failed (that is, never
+     *      reached the RestAuth server).
+     */
+    private RestAuthResponse sendBody( String method, String path,
+            Map<String, Object> params, String[] fields, Header precondition )
+            throws Unauthorized, InternalServerError, RequestFailed {
+        RestAuthRequest request = this.createRequest( method, path, params, fields );
+        if ( precondition != null ) request.addHeader( precondition );
+        RestAuthResponse response = this.execute( request );
         int respCode = response.getStatusCode();
+        if ( ( respCode == HttpStatus.SC_NOT_ACCEPTABLE
+                || respCode == HttpStatus.SC_UNSUPPORTED_MEDIA_TYPE )
+                && this.fallBackToJson() ) {
+            request = this.createRequest( method, path, params, fields );
+            if ( precondition != null ) request.addHeader( precondition );
+            response = this.execute( request );
+        }
+
+        this.check( response );
+        respCode = response.getStatusCode();
         switch (respCode) {
             case 400: throw new BadRequest( response );
             case 415: throw new UnsupportedMediaType( response );
@@ -341,7 +975,28 @@ public class RestAuthConnection extends DefaultHttpClient {
      */
     public RestAuthResponse delete( String path )
             throws Unauthorized, InternalServerError, RequestFailed {
-        return this.send( new HttpDelete(), path );
+        return this.send( this.createRequest( "DELETE", path, null ) );
+    }
+
+    /**
+     * Perform a conditional DELETE request to the RestAuth server. If the
+     * precondition does not hold, the server answers with status 412.
+     *
+     * @param path The path to make the request to.
+     * @param precondition An If-Match header.
+     * @return The response returned by the RestAuth server.
+     * @throws Unauthorized If the authentication credentials are wrong.
+     * @throws InternalServerError If the RestAuth server suffered from an
+     *      internal error.
+     * @throws RequestFailed If making the request failed (that is, never
+     *      reached the RestAuth server).
+     * @see EntityTags
+     */
+    public RestAuthResponse delete( String path, Header precondition )
+            throws Unauthorized, InternalServerError, RequestFailed {
+        RestAuthRequest request = this.createRequest( "DELETE", path, null );
+        request.addHeader( precondition );
+        return this.send( request );
     }
 
     /**
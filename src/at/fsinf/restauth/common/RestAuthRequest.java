@@ -0,0 +1,156 @@
+package at.fsinf.restauth.common;
+
+import java.net.URI;
+import java.util.ArrayList;
+import java.util.List;
+import org.apache.http.Header;
+import org.apache.http.message.BasicHeader;
+
+/**
+ * This class represents an HTTP request to a RestAuth server independent of
+ * the {@link Transport} that actually sends it.
+ *
+ * @author Mathias Ertl
+ */
+public class RestAuthRequest {
+    private String method;
+    private URI uri;
+    private List<Header> headers;
+    private byte[] body;
+    private int bodyLength;
+    private Compression compression;
+
+    /**
+     * Standard constructor.
+     *
+     * @param method The HTTP method (i.e. "GET").
+     * @param uri The full URI of the request.
+     */
+    public RestAuthRequest( String method, URI uri ) {
+        this.method = method;
+        this.uri = uri;
+        this.headers = new ArrayList<Header>();
+    }
+
+    /**
+     * Get the HTTP method of this request.
+     *
+     * @return The HTTP method.
+     */
+    public String getMethod() {
+        return this.method;
+    }
+
+    /**
+     * Get the full URI of this request.
+     *
+     * @return The URI of this request.
+     */
+    public URI getURI() {
+        return this.uri;
+    }
+
+    /**
+     * Add a header to this request.
+     *
+     * @param name The name of the header.
+     * @param value The value of the header.
+     */
+    public void addHeader( String name, String value ) {
+        this.headers.add( new BasicHeader( name, value ) );
+    }
+
+    /**
+     * Add a header to this request.
+     *
+     * @param header The header.
+     */
+    public void addHeader( Header header ) {
+        this.headers.add( header );
+    }
+
+    /**
+     * Get all headers of this request.
+     *
+     * @return All headers of this request.
+     */
+    public List<Header> getHeaders() {
+        return this.headers;
+    }
+
+    /**
+     * Get the (first) value of a specific header.
+     *
+     * @param name The name of the header.
+     * @return The value of the header or null if the header is not set.
+     */
+    public String getHeader( String name ) {
+        for (Header header : this.headers ) {
+            if ( header.getName().equalsIgnoreCase( name ) )
+                return header.getValue();
+        }
+        return null;
+    }
+
+    /**
+     * Set the message body of this request.
+     *
+     * @param body The raw message body.
+     */
+    public void setBody( byte[] body ) {
+        this.setBody( body, body == null ? 0 : body.length );
+    }
+
+    /**
+     * Set the message body of this request to the first bytes of the given
+     * array. The array is not copied, so it must not be modified until the
+     * request was sent.
+     *
+     * @param body The array holding the raw message body.
+     * @param length The length of the message body.
+     */
+    public void setBody( byte[] body, int length ) {
+        this.body = body;
+        this.bodyLength = length;
+    }
+
+    /**
+     * Get the message body of this request. Only the first {@link
+     * #getBodyLength()} bytes of the array belong to the body.
+     *
+     * @return The raw message body or null if this request has no body.
+     */
+    public byte[] getBody() {
+        return this.body;
+    }
+
+    /**
+     * Get the length of the message body of this request.
+     *
+     * @return The length of the message body.
+     */
+    public int getBodyLength() {
+        return this.bodyLength;
+    }
+
+    /**
+     * Set the object that decompresses the response to this request. The
+     * {@link Transport} passes compressed response bodies to it.
+     *
+     * @param compression The compression to use, or null if no compressed
+     *      responses are accepted.
+     */
+    public void setCompression( Compression compression ) {
+        this.compression = compression;
+    }
+
+    /**
+     * Get the object that decompresses the response to this request.
+     *
+     * @return The compression to use, or null if no compressed responses are
+     *      accepted.
+     */
+    public Compression getCompression() {
+        return this.compression;
+    }
+}
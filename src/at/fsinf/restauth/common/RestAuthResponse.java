@@ -1,5 +1,7 @@
 package at.fsinf.restauth.common;
 
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
 import java.util.List;
 import org.apache.http.Header;
 
@@ -12,7 +14,11 @@ import org.apache.http.Header;
 public class RestAuthResponse {
     private List<Header> headers;
     private int statusCode;
-    private String body;
+    private volatile String body;
+    private volatile byte[] rawBody;
+    private String charset;
+    private volatile boolean cached;
+    private volatile Object parsedBody;
     
     /**
      * Standard constructor.
@@ -27,6 +33,23 @@ public class RestAuthResponse {
         this.body = body;
     }
 
+    /**
+     * Constructor for responses whose body has not been decoded yet. The body
+     * is only converted to a string if {@link #getBody()} is called.
+     *
+     * @param statusCode The status code of the response.
+     * @param headers The headers of the response.
+     * @param rawBody The raw message body of the response.
+     * @param charset The charset of the message body.
+     */
+    public RestAuthResponse( int statusCode, List<Header> headers,
+            byte[] rawBody, String charset ) {
+        this.statusCode = statusCode;
+        this.headers = headers;
+        this.rawBody = rawBody;
+        this.charset = charset;
+    }
+
     /**
      * A constructor for responses containing no content (i.e. HTTP status code
      * 204 No Content).
@@ -45,9 +68,36 @@ public class RestAuthResponse {
      * @return The body of the response.
      */
     public String getBody() {
+        if ( this.body == null && this.rawBody != null ) {
+            this.body = Charset.forName( this.charset ).decode(
+                    ByteBuffer.wrap( this.rawBody ) ).toString();
+        }
         return this.body;
     }
 
+    /**
+     * Get the raw body of this response. The returned buffer is a view of
+     * the body received by the transport, the data is not copied.
+     *
+     * @return The raw body or null if the response has no body.
+     */
+    public ByteBuffer getRawBody() {
+        if ( this.rawBody == null ) {
+            if ( this.body == null ) return null;
+            this.rawBody = this.body.getBytes( Charset.forName( this.getCharset() ) );
+        }
+        return ByteBuffer.wrap( this.rawBody );
+    }
+
+    /**
+     * Get the charset of the raw body of this response.
+     *
+     * @return The charset of the raw body.
+     */
+    public String getCharset() {
+        return this.charset == null ? "UTF-8" : this.charset;
+    }
+
     /**
      * Get the status code of this response.
      *
@@ -74,9 +124,46 @@ public class RestAuthResponse {
      */
     public String getHeader( String name ) {
         for (Header header : this.headers ) {
-            if ( header.getName().equals( name ) )
+            if ( header.getName().equalsIgnoreCase( name ) )
                 return header.getValue();
         }
         return null;
     }
+
+    /**
+     * Check if this response is kept in a {@link ResponseCache} and may be
+     * returned for more than one request.
+     *
+     * @return True if this response is cached.
+     */
+    boolean isCached() {
+        return this.cached;
+    }
+
+    /**
+     * Mark this response as kept in a {@link ResponseCache}.
+     */
+    void setCached() {
+        this.cached = true;
+    }
+
+    /**
+     * Get the unmarshalled body of a cached response.
+     *
+     * @return The unmarshalled body or null if the body was not unmarshalled
+     *      yet.
+     */
+    Object getParsedBody() {
+        return this.parsedBody;
+    }
+
+    /**
+     * Remember the unmarshalled body of a cached response, so that it does
+     * not have to be unmarshalled again.
+     *
+     * @param parsedBody The unmarshalled body, must not be modified later.
+     */
+    void setParsedBody( Object parsedBody ) {
+        this.parsedBody = parsedBody;
+    }
 }
@@ -1,14 +1,18 @@
 package at.fsinf.restauth.common;
 
 import java.io.IOException;
+import java.io.InputStream;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.List;
 import org.apache.http.Header;
+import org.apache.http.HttpEntity;
 import org.apache.http.HttpResponse;
 import org.apache.http.HttpStatus;
 import org.apache.http.client.ClientProtocolException;
 import org.apache.http.client.ResponseHandler;
+import org.apache.http.entity.HttpEntityWrapper;
+import org.apache.http.protocol.HTTP;
 import org.apache.http.util.EntityUtils;
 
 /**
@@ -18,6 +22,66 @@ import org.apache.http.util.EntityUtils;
  * @author Mathias Ertl
  */
 public class RestAuthResponseHandler implements ResponseHandler<RestAuthResponse> {
+    private final StreamHandler handler;
+    private final Compression compression;
+
+    /**
+     * An entity that decompresses the wrapped entity while it is read.
+     */
+    private static class DecodingEntity extends HttpEntityWrapper {
+        private final Compression compression;
+
+        DecodingEntity( HttpEntity entity, Compression compression ) {
+            super( entity );
+            this.compression = compression;
+        }
+
+        @Override
+        public InputStream getContent() throws IOException {
+            return this.compression.decode( this.wrappedEntity.getContent(),
+                    this.wrappedEntity.getContentEncoding().getValue() );
+        }
+
+        @Override
+        public long getContentLength() {
+            return -1;
+        }
+
+        @Override
+        public Header getContentEncoding() {
+            return null;
+        }
+    }
+
+    /**
+     * Creates a handler that buffers all response bodies.
+     */
+    public RestAuthResponseHandler() {
+        this( null );
+    }
+
+    /**
+     * Creates a handler that passes response bodies to the given stream
+     * handler if it accepts them.
+     *
+     * @param handler The stream handler, may be null.
+     */
+    public RestAuthResponseHandler( StreamHandler handler ) {
+        this( handler, null );
+    }
+
+    /**
+     * Creates a handler that passes response bodies to the given stream
+     * handler if it accepts them and decompresses compressed bodies.
+     *
+     * @param handler The stream handler, may be null.
+     * @param compression The compression used to decompress bodies, may be
+     *      null if no compressed responses were requested.
+     */
+    public RestAuthResponseHandler( StreamHandler handler, Compression compression ) {
+        this.handler = handler;
+        this.compression = compression;
+    }
 
     /**
      * Wrap a HttpResponse into a {@link RestAuthResponse}.
@@ -35,9 +99,28 @@ public class RestAuthResponseHandler implements ResponseHandler<RestAuthResponse
         List<Header> headers = new ArrayList<Header>();
         headers.addAll( Arrays.asList( hr.getAllHeaders() ) );
 
-        if ( statusCode != HttpStatus.SC_NO_CONTENT ) {
-            String body = EntityUtils.toString( hr.getEntity() );
-            return new RestAuthResponse( statusCode, headers, body );
+        HttpEntity entity = hr.getEntity();
+        if ( entity != null && entity.getContentEncoding() != null
+                && this.compression != null ) {
+            entity = new DecodingEntity( entity, this.compression );
+        }
+        String charset = entity == null ? null : EntityUtils.getContentCharSet( entity );
+        if ( charset == null ) charset = HTTP.DEFAULT_CONTENT_CHARSET;
+
+        if ( this.handler != null && entity != null
+                && this.handler.accepts( statusCode ) ) {
+            InputStream in = entity.getContent();
+            try {
+                Header contentType = entity.getContentType();
+                this.handler.handle( in,
+                        contentType == null ? null : contentType.getValue(), charset );
+            } finally {
+                in.close();
+            }
+            return new RestAuthResponse( statusCode, headers );
+        } else if ( statusCode != HttpStatus.SC_NO_CONTENT ) {
+            byte[] body = entity == null ? new byte[0] : EntityUtils.toByteArray( entity );
+            return new RestAuthResponse( statusCode, headers, body, charset );
         } else {
             return new RestAuthResponse( statusCode, headers );
         }
@@ -0,0 +1,35 @@
+package at.fsinf.restauth.common;
+
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * Reads the body of a response directly from the network instead of having
+ * it buffered into a {@link RestAuthResponse}.
+ *
+ * @see StreamingTransport
+ * @author Mathias Ertl
+ */
+public interface StreamHandler {
+    /**
+     * Decide if the body of a response with the given status code should be
+     * passed to {@link #handle}. Bodies of all other responses are buffered
+     * as usual.
+     *
+     * @param statusCode The status code of the response.
+     * @return true if the body should be streamed.
+     */
+    public boolean accepts( int statusCode );
+
+    /**
+     * Read the body of the response. The stream is closed by the transport
+     * once this method returns.
+     *
+     * @param body The body of the response.
+     * @param contentType The value of the Content-Type header, may be null.
+     * @param charset The charset of the body.
+     * @throws IOException If reading from the stream fails.
+     */
+    public void handle( InputStream body, String contentType, String charset )
+            throws IOException;
+}
@@ -0,0 +1,26 @@
+package at.fsinf.restauth.common;
+
+import java.io.IOException;
+
+/**
+ * A {@link Transport} that is able to pass the body of a response to a
+ * {@link StreamHandler} while it is being received.
+ *
+ * @author Mathias Ertl
+ */
+public interface StreamingTransport extends Transport {
+    /**
+     * Send the request. If the handler accepts the status code of the
+     * response, the body is passed to the handler and the returned response
+     * has no body. Otherwise this method behaves like {@link
+     * Transport#execute(at.fsinf.restauth.common.RestAuthRequest)}.
+     *
+     * @param request The request to send.
+     * @param handler The handler that reads the body.
+     * @return The response returned by the RestAuth server.
+     * @throws IOException When the connection to the RestAuth server fails
+     *      or the handler fails to read the body.
+     */
+    public RestAuthResponse execute( RestAuthRequest request, StreamHandler handler )
+            throws IOException;
+}
@@ -0,0 +1,30 @@
+package at.fsinf.restauth.common;
+
+import java.io.IOException;
+
+/**
+ * A transport is responsible for actually sending a {@link RestAuthRequest}
+ * to a RestAuth server. If you want to use a different HTTP engine for a
+ * {@link RestAuthConnection}, you should implement this interface.
+ *
+ * Implementations should be thread-safe if the connection using them is
+ * shared between threads.
+ *
+ * @author Mathias Ertl
+ */
+public interface Transport {
+    /**
+     * Send the request and wrap the answer of the server into a {@link
+     * RestAuthResponse}. HTTP error codes must not cause an exception.
+     *
+     * @param request The request to send.
+     * @return The response returned by the RestAuth server.
+     * @throws IOException When the connection to the RestAuth server fails.
+     */
+    public RestAuthResponse execute( RestAuthRequest request ) throws IOException;
+
+    /**
+     * Release all resources (i.e. open connections) held by this transport.
+     */
+    public void shutdown();
+}
@@ -0,0 +1,17 @@
+package at.fsinf.restauth.errors;
+
+import at.fsinf.restauth.common.RestAuthResponse;
+
+/**
+ * Thrown when a conditional request succeeded, but the RestAuth server did
+ * not confirm that it checked the precondition (i.e. because it does not
+ * support If-Match headers). The request may have been executed
+ * unconditionally, so the current state of the resource is unknown.
+ *
+ * @author Mathias Ertl
+ */
+public class PreconditionIgnored extends RestAuthRuntimeException {
+    public PreconditionIgnored( RestAuthResponse response ) {
+        super( response, response.getStatusCode() );
+    }
+}
@@ -0,0 +1,746 @@
+package at.fsinf.restauth.memory;
+
+import at.fsinf.restauth.common.EntityTags;
+import at.fsinf.restauth.common.RestAuthRequest;
+import at.fsinf.restauth.common.RestAuthResponse;
+import com.google.gson.Gson;
+import com.google.gson.JsonElement;
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParseException;
+import com.google.gson.JsonParser;
+import java.io.UnsupportedEncodingException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import org.apache.commons.codec.binary.Base64;
+import org.apache.http.Header;
+import org.apache.http.HttpStatus;
+import org.apache.http.message.BasicHeader;
+
+/**
+ * An in-memory implementation of the RestAuth <code>/users/</code> and
+ * <code>/groups/</code> protocol. It keeps all users, properties and groups
+ * in concurrent maps and answers {@link RestAuthRequest requests} with the same
+ * status codes and Resource-Type headers a real RestAuth server would use.
+ *
+ * Instances are thread-safe.
+ *
+ * @author Mathias Ertl
+ * @see MemoryTransport
+ */
+public class MemoryDirectory {
+    private static final String CONTENT_TYPE = "application/json; charset=UTF-8";
+
+    private final ConcurrentMap<String, MemoryUser> users;
+    private final ConcurrentMap<String, MemoryGroup> groups;
+    private final Gson gson;
+    private volatile String authHeader;
+
+    /**
+     * A user stored in the directory.
+     */
+    private static class MemoryUser {
+        volatile String password;
+        final ConcurrentMap<String, String> properties =
+                new ConcurrentHashMap<String, String>();
+
+        MemoryUser( String password ) {
+            this.password = password;
+        }
+    }
+
+    /**
+     * A group stored in the directory.
+     */
+    private static class MemoryGroup {
+        final Set<String> users =
+                Collections.newSetFromMap( new ConcurrentHashMap<String, Boolean>() );
+        final Set<String> subgroups =
+                Collections.newSetFromMap( new ConcurrentHashMap<String, Boolean>() );
+        final Set<String> metagroups =
+                Collections.newSetFromMap( new ConcurrentHashMap<String, Boolean>() );
+    }
+
+    /**
+     * Creates an empty directory that accepts requests with any credentials.
+     */
+    public MemoryDirectory() {
+        this.users = new ConcurrentHashMap<String, MemoryUser>();
+        this.groups = new ConcurrentHashMap<String, MemoryGroup>();
+        this.gson = new Gson();
+    }
+
+    /**
+     * Only accept requests authenticated with the given credentials. All other
+     * requests are answered with HTTP status 401.
+     *
+     * @param user The name of the service.
+     * @param passwd The password of the service.
+     */
+    public void setCredentials( String user, String passwd ) {
+        String raw_header = user + ":" + passwd;
+        this.authHeader = "Basic " +
+                new String( Base64.encodeBase64( raw_header.getBytes() ) );
+    }
+
+    /**
+     * Create a new user.
+     *
+     * @param name The name of the user.
+     * @param password The password of the user, may be null.
+     * @return false if the user already existed.
+     */
+    public boolean createUser( String name, String password ) {
+        return this.users.putIfAbsent( name, new MemoryUser( password ) ) == null;
+    }
+
+    /**
+     * Create many users at once, i.e. to seed the directory for a benchmark.
+     * The users are named prefix0, prefix1, ... and all share the same
+     * password.
+     *
+     * @param prefix The prefix of the usernames.
+     * @param count The number of users to create.
+     * @param password The password of all users, may be null.
+     * @return The number of users actually created.
+     */
+    public int createUsers( String prefix, int count, String password ) {
+        int created = 0;
+        for ( int i = 0; i < count; i++ ) {
+            if ( this.createUser( prefix + i, password ) ) created++;
+        }
+        return created;
+    }
+
+    /**
+     * Create a new group.
+     *
+     * @param name The name of the group.
+     * @return false if the group already existed.
+     */
+    public boolean createGroup( String name ) {
+        return this.groups.putIfAbsent( name, new MemoryGroup() ) == null;
+    }
+
+    /**
+     * Make a user a member of a group.
+     *
+     * @param group The name of the group.
+     * @param user The name of the user.
+     * @return false if the group or the user does not exist.
+     */
+    public boolean addUserToGroup( String group, String user ) {
+        MemoryGroup g = this.groups.get( group );
+        if ( g == null || ! this.users.containsKey( user ) ) return false;
+        g.users.add( user );
+        return true;
+    }
+
+    /**
+     * Get the number of users currently stored.
+     *
+     * @return The number of users.
+     */
+    public int getUserCount() {
+        return this.users.size();
+    }
+
+    /**
+     * Get the number of groups currently stored.
+     *
+     * @return The number of groups.
+     */
+    public int getGroupCount() {
+        return this.groups.size();
+    }
+
+    /**
+     * Remove all users and groups.
+     */
+    public void clear() {
+        this.users.clear();
+        this.groups.clear();
+    }
+
+    /**
+     * Answer a request the way a RestAuth server would.
+     *
+     * @param request The request to answer.
+     * @return The response to the request.
+     */
+    public RestAuthResponse handle( RestAuthRequest request ) {
+        String expected = this.authHeader;
+        if ( expected != null && ! expected.equals( request.getHeader( "Authorization" ) ) ) {
+            return this.status( HttpStatus.SC_UNAUTHORIZED );
+        }
+
+        // like a server that only speaks JSON:
+        String contentType = request.getHeader( "Content-Type" );
+        if ( request.getBody() != null && contentType != null
+                && ! this.isJson( contentType ) ) {
+            return this.status( HttpStatus.SC_UNSUPPORTED_MEDIA_TYPE );
+        }
+        String accept = request.getHeader( "Accept" );
+        if ( accept != null && ! this.acceptsJson( accept ) ) {
+            return this.status( HttpStatus.SC_NOT_ACCEPTABLE );
+        }
+
+        List<String> segments = new ArrayList<String>();
+        for ( String segment : request.getURI().getPath().split( "/" ) ) {
+            if ( segment.length() > 0 ) segments.add( segment );
+        }
+        if ( segments.isEmpty() ) {
+            return this.status( HttpStatus.SC_NOT_FOUND );
+        }
+
+        try {
+            String method = request.getMethod();
+            JsonObject body = this.parseBody( request.getBody(), request.getBodyLength() );
+            String resource = segments.remove( 0 );
+            RestAuthResponse response;
+            if ( resource.equals( "users" ) ) {
+                response = this.handleUsers( request, segments, body );
+            } else if ( resource.equals( "groups" ) ) {
+                response = this.handleGroups( method, segments,
+                        request.getURI().getQuery(), body );
+            } else {
+                return this.status( HttpStatus.SC_NOT_FOUND );
+            }
+            return this.conditional( request, response );
+        } catch ( JsonParseException ex ) {
+            return this.status( HttpStatus.SC_BAD_REQUEST );
+        } catch ( IllegalStateException ex ) {
+            return this.status( HttpStatus.SC_BAD_REQUEST );
+        } catch ( IllegalArgumentException ex ) {
+            return this.status( HttpStatus.SC_BAD_REQUEST );
+        }
+    }
+
+    /**
+     * Add an ETag header to a successful GET response unless it already has
+     * one, or replace it with 304 Not Modified if the client already has the
+     * current version.
+     *
+     * @param request The request.
+     * @param response The response to the request.
+     * @return The response to send.
+     */
+    private RestAuthResponse conditional( RestAuthRequest request, RestAuthResponse response ) {
+        if ( ! request.getMethod().equals( "GET" )
+                || response.getStatusCode() != HttpStatus.SC_OK
+                || response.getBody() == null ) {
+            return response;
+        }
+        String etag = response.getHeader( "ETag" );
+        if ( etag == null ) {
+            etag = "\"" + Integer.toHexString( response.getBody().hashCode() ) + "\"";
+            response.getHeaders().add( new BasicHeader( "ETag", etag ) );
+        }
+        String ifNoneMatch = request.getHeader( "If-None-Match" );
+        if ( ifNoneMatch != null && EntityTags.matches( ifNoneMatch, etag ) ) {
+            List<Header> headers = new ArrayList<Header>();
+            headers.add( new BasicHeader( "ETag", etag ) );
+            return new RestAuthResponse( HttpStatus.SC_NOT_MODIFIED, headers );
+        }
+        return response;
+    }
+
+    /**
+     * Answer a request below <code>/users/</code>.
+     *
+     * @param request The request, used for the HTTP method and conditional
+     *      headers.
+     * @param path The path segments following "users".
+     * @param body The parsed request body.
+     * @return The response to the request.
+     */
+    private RestAuthResponse handleUsers( RestAuthRequest request, List<String> path,
+            JsonObject body ) {
+        String method = request.getMethod();
+        if ( path.isEmpty() ) {
+            if ( method.equals( "GET" ) ) {
+                return this.list( this.users.keySet() );
+            } else if ( method.equals( "POST" ) ) {
+                String name = this.requireString( body, "user" );
+                if ( ! this.isValidName( name ) ) {
+                    return this.status( HttpStatus.SC_PRECONDITION_FAILED );
+                }
+                MemoryUser user = new MemoryUser( this.getString( body, "password" ) );
+                if ( body.has( "properties" ) ) {
+                    for ( Map.Entry<String, JsonElement> entry :
+                            body.getAsJsonObject( "properties" ).entrySet() ) {
+                        user.properties.put( entry.getKey(), this.toString( entry.getValue() ) );
+                    }
+                }
+                if ( this.users.putIfAbsent( name, user ) != null ) {
+                    return this.status( HttpStatus.SC_CONFLICT );
+                }
+                return this.status( HttpStatus.SC_CREATED );
+            }
+            return this.status( HttpStatus.SC_METHOD_NOT_ALLOWED );
+        }
+
+        String name = path.get( 0 );
+        MemoryUser user = this.users.get( name );
+        if ( user == null ) {
+            return this.notFound( "user" );
+        }
+
+        if ( path.size() == 1 ) {
+            if ( method.equals( "GET" ) ) {
+                return this.status( HttpStatus.SC_NO_CONTENT );
+            } else if ( method.equals( "POST" ) ) {
+                String password = this.getString( body, "password" );
+                if ( user.password != null && user.password.equals( password ) ) {
+                    return this.status( HttpStatus.SC_NO_CONTENT );
+                }
+                return this.notFound( "user" );
+            } else if ( method.equals( "PUT" ) ) {
+                user.password = this.getString( body, "password" );
+                return this.status( HttpStatus.SC_NO_CONTENT );
+            } else if ( method.equals( "DELETE" ) ) {
+                this.users.remove( name );
+                for ( MemoryGroup group : this.groups.values() ) {
+                    group.users.remove( name );
+                }
+                return this.status( HttpStatus.SC_NO_CONTENT );
+            }
+            return this.status( HttpStatus.SC_METHOD_NOT_ALLOWED );
+        }
+
+        if ( ! path.get( 1 ).equals( "props" ) || path.size() > 3 ) {
+            return this.status( HttpStatus.SC_NOT_FOUND );
+        }
+
+        if ( path.size() == 2 ) {
+            if ( method.equals( "GET" ) ) {
+                return this.dictionary( user.properties );
+            } else if ( method.equals( "POST" ) ) {
+                String prop = this.requireString( body, "prop" );
+                String value = this.requireString( body, "value" );
+                if ( user.properties.putIfAbsent( prop, value ) != null ) {
+                    return this.status( HttpStatus.SC_CONFLICT );
+                }
+                return this.status( HttpStatus.SC_CREATED );
+            }
+            return this.status( HttpStatus.SC_METHOD_NOT_ALLOWED );
+        }
+
+        String prop = path.get( 2 );
+        String ifMatch = request.getHeader( "If-Match" );
+        String ifNoneMatch = method.equals( "GET" ) ? null : request.getHeader( "If-None-Match" );
+        if ( method.equals( "GET" ) ) {
+            String value = user.properties.get( prop );
+            if ( value == null ) return this.notFound( "property" );
+            RestAuthResponse response = this.string( HttpStatus.SC_OK, value );
+            response.getHeaders().add( new BasicHeader( "ETag", EntityTags.of( value ) ) );
+            return response;
+        } else if ( method.equals( "PUT" ) ) {
+            String value = this.requireString( body, "value" );
+            while ( true ) {
+                String old = user.properties.get( prop );
+                if ( ! this.preconditionHolds( old, ifMatch, ifNoneMatch ) ) {
+                    return this.status( HttpStatus.SC_PRECONDITION_FAILED );
+                }
+                RestAuthResponse response = null;
+                if ( old == null ) {
+                    if ( user.properties.putIfAbsent( prop, value ) == null ) {
+                        response = this.status( HttpStatus.SC_CREATED );
+                    }
+                } else if ( user.properties.replace( prop, old, value ) ) {
+                    response = this.string( HttpStatus.SC_OK, old );
+                }
+                if ( response != null ) {
+                    // confirms that the precondition was checked
+                    response.getHeaders().add( new BasicHeader( "ETag", EntityTags.of( value ) ) );
+                    return response;
+                }
+            }
+        } else if ( method.equals( "DELETE" ) ) {
+            while ( true ) {
+                String old = user.properties.get( prop );
+                if ( old == null && ifMatch == null ) return this.notFound( "property" );
+                if ( ! this.preconditionHolds( old, ifMatch, ifNoneMatch ) ) {
+                    return this.status( HttpStatus.SC_PRECONDITION_FAILED );
+                }
+                if ( user.properties.remove( prop, old ) ) {
+                    RestAuthResponse response = this.status( HttpStatus.SC_NO_CONTENT );
+                    response.getHeaders().add( new BasicHeader( "ETag", EntityTags.of( old ) ) );
+                    return response;
+                }
+            }
+        }
+        return this.status( HttpStatus.SC_METHOD_NOT_ALLOWED );
+    }
+
+    /**
+     * Check the If-Match and If-None-Match headers of a request modifying a
+     * property.
+     *
+     * @param current The current value of the property, null if it does not
+     *      exist.
+     * @param ifMatch The value of the If-Match header, may be null.
+     * @param ifNoneMatch The value of the If-None-Match header, may be null.
+     * @return True if the request may be executed.
+     */
+    private boolean preconditionHolds( String current, String ifMatch, String ifNoneMatch ) {
+        String tag = current == null ? null : EntityTags.of( current );
+        if ( ifMatch != null && ! EntityTags.matches( ifMatch, tag ) ) {
+            return false;
+        }
+        return ifNoneMatch == null || ! EntityTags.matches( ifNoneMatch, tag );
+    }
+
+    /**
+     * Answer a request below <code>/groups/</code>.
+     *
+     * @param method The HTTP method.
+     * @param path The path segments following "groups".
+     * @param query The (decoded) query string, may be null.
+     * @param body The parsed request body.
+     * @return The response to the request.
+     */
+    private RestAuthResponse handleGroups( String method, List<String> path,
+            String query, JsonObject body ) {
+        if ( path.isEmpty() ) {
+            if ( method.equals( "GET" ) ) {
+                String username = this.getQueryParameter( query, "user" );
+                if ( username == null ) {
+                    return this.list( this.groups.keySet() );
+                }
+                if ( ! this.users.containsKey( username ) ) {
+                    return this.notFound( "user" );
+                }
+                List<String> names = new ArrayList<String>();
+                for ( Map.Entry<String, MemoryGroup> entry : this.groups.entrySet() ) {
+                    if ( entry.getValue().users.contains( username ) ) {
+                        names.add( entry.getKey() );
+                    }
+                }
+                return this.list( names );
+            } else if ( method.equals( "POST" ) ) {
+                String name = this.requireString( body, "group" );
+                if ( ! this.isValidName( name ) ) {
+                    return this.status( HttpStatus.SC_PRECONDITION_FAILED );
+                }
+                if ( ! this.createGroup( name ) ) {
+                    return this.status( HttpStatus.SC_CONFLICT );
+                }
+                return this.status( HttpStatus.SC_CREATED );
+            }
+            return this.status( HttpStatus.SC_METHOD_NOT_ALLOWED );
+        }
+
+        String name = path.get( 0 );
+        MemoryGroup group = this.groups.get( name );
+        if ( group == null ) {
+            return this.notFound( "group" );
+        }
+
+        if ( path.size() == 1 ) {
+            if ( method.equals( "GET" ) ) {
+                return this.status( HttpStatus.SC_NO_CONTENT );
+            } else if ( method.equals( "DELETE" ) ) {
+                this.groups.remove( name );
+                for ( MemoryGroup other : this.groups.values() ) {
+                    other.subgroups.remove( name );
+                    other.metagroups.remove( name );
+                }
+                return this.status( HttpStatus.SC_NO_CONTENT );
+            }
+            return this.status( HttpStatus.SC_METHOD_NOT_ALLOWED );
+        }
+
+        String collection = path.get( 1 );
+        if ( path.size() > 3 ) {
+            return this.status( HttpStatus.SC_NOT_FOUND );
+        } else if ( collection.equals( "users" ) ) {
+            if ( path.size() == 2 ) {
+                if ( method.equals( "GET" ) ) {
+                    return this.list( this.getEffectiveUsers( name ) );
+                } else if ( method.equals( "POST" ) ) {
+                    String username = this.requireString( body, "user" );
+                    if ( ! this.users.containsKey( username ) ) {
+                        return this.notFound( "user" );
+                    }
+                    group.users.add( username );
+                    return this.status( HttpStatus.SC_NO_CONTENT );
+                }
+                return this.status( HttpStatus.SC_METHOD_NOT_ALLOWED );
+            }
+
+            String username = path.get( 2 );
+            if ( method.equals( "GET" ) ) {
+                if ( this.users.containsKey( username ) &&
+                        this.getEffectiveUsers( name ).contains( username ) ) {
+                    return this.status( HttpStatus.SC_NO_CONTENT );
+                }
+                return this.notFound( "user" );
+            } else if ( method.equals( "DELETE" ) ) {
+                if ( ! group.users.remove( username ) ) {
+                    return this.notFound( "user" );
+                }
+                return this.status( HttpStatus.SC_NO_CONTENT );
+            }
+            return this.status( HttpStatus.SC_METHOD_NOT_ALLOWED );
+        } else if ( collection.equals( "groups" ) ) {
+            if ( path.size() == 2 ) {
+                if ( method.equals( "GET" ) ) {
+                    return this.list( group.subgroups );
+                } else if ( method.equals( "POST" ) ) {
+                    String subname = this.requireString( body, "group" );
+                    MemoryGroup subgroup = this.groups.get( subname );
+                    if ( subgroup == null ) {
+                        return this.notFound( "group" );
+                    }
+                    group.subgroups.add( subname );
+                    subgroup.metagroups.add( name );
+                    return this.status( HttpStatus.SC_NO_CONTENT );
+                }
+                return this.status( HttpStatus.SC_METHOD_NOT_ALLOWED );
+            }
+
+            String subname = path.get( 2 );
+            if ( method.equals( "DELETE" ) ) {
+                if ( ! group.subgroups.remove( subname ) ) {
+                    return this.notFound( "group" );
+                }
+                MemoryGroup subgroup = this.groups.get( subname );
+                if ( subgroup != null ) subgroup.metagroups.remove( name );
+                return this.status( HttpStatus.SC_NO_CONTENT );
+            }
+            return this.status( HttpStatus.SC_METHOD_NOT_ALLOWED );
+        }
+        return this.status( HttpStatus.SC_NOT_FOUND );
+    }
+
+    /**
+     * Get the members of a group including the members inherited from its
+     * meta-groups.
+     *
+     * @param name The name of the group.
+     * @return All members of the group.
+     */
+    private Set<String> getEffectiveUsers( String name ) {
+        Set<String> members = new HashSet<String>();
+        Set<String> seen = new HashSet<String>();
+        LinkedList<String> queue = new LinkedList<String>();
+        queue.add( name );
+        while ( ! queue.isEmpty() ) {
+            String current = queue.removeFirst();
+            MemoryGroup group = this.groups.get( current );
+            if ( group == null || ! seen.add( current ) ) continue;
+            members.addAll( group.users );
+            queue.addAll( group.metagroups );
+        }
+        return members;
+    }
+
+    /**
+     * Check if a name is acceptable for a user or group.
+     *
+     * @param name The name to check.
+     * @return true if the name is valid.
+     */
+    private boolean isValidName( String name ) {
+        return name.length() > 0 && ! name.contains( "/" );
+    }
+
+    /**
+     * Check if a Content-Type header names JSON.
+     *
+     * @param contentType The value of the Content-Type header.
+     * @return true if the content type is JSON.
+     */
+    private boolean isJson( String contentType ) {
+        int end = contentType.indexOf( ';' );
+        String mimeType = end < 0 ? contentType : contentType.substring( 0, end );
+        return mimeType.trim().equalsIgnoreCase( "application/json" );
+    }
+
+    /**
+     * Check if an Accept header allows JSON.
+     *
+     * @param accept The value of the Accept header.
+     * @return true if JSON is acceptable.
+     */
+    private boolean acceptsJson( String accept ) {
+        for ( String range : accept.split( "," ) ) {
+            int end = range.indexOf( ';' );
+            String mimeType = ( end < 0 ? range : range.substring( 0, end ) ).trim();
+            if ( mimeType.equalsIgnoreCase( "application/json" )
+                    || mimeType.equals( "application/*" ) || mimeType.equals( "*/*" ) ) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Parse a request body into a JSON object.
+     *
+     * @param body The raw request body, may be null.
+     * @param length The length of the request body.
+     * @return The parsed body, an empty object if there is no body.
+     */
+    private JsonObject parseBody( byte[] body, int length ) {
+        if ( body == null || length == 0 ) {
+            return new JsonObject();
+        }
+        try {
+            return new JsonParser().parse( new String( body, 0, length, "UTF-8" ) ).getAsJsonObject();
+        } catch ( UnsupportedEncodingException ex ) {
+            throw new IllegalStateException( ex );
+        }
+    }
+
+    /**
+     * Get an optional string from a request body.
+     *
+     * @param body The parsed request body.
+     * @param key The key of the value.
+     * @return The value or null if the key is not present.
+     */
+    private String getString( JsonObject body, String key ) {
+        JsonElement element = body.get( key );
+        if ( element == null || element.isJsonNull() ) return null;
+        return this.toString( element );
+    }
+
+    /**
+     * Get a mandatory string from a request body.
+     *
+     * @param body The parsed request body.
+     * @param key The key of the value.
+     * @return The value.
+     * @throws IllegalArgumentException If the key is not present.
+     */
+    private String requireString( JsonObject body, String key ) {
+        String value = this.getString( body, key );
+        if ( value == null ) {
+            throw new IllegalArgumentException( "Missing key: " + key );
+        }
+        return value;
+    }
+
+    /**
+     * Convert a JSON element to a string.
+     *
+     * @param element The JSON element.
+     * @return The string value of the element.
+     * @throws IllegalArgumentException If the element is not a primitive.
+     */
+    private String toString( JsonElement element ) {
+        if ( ! element.isJsonPrimitive() ) {
+            throw new IllegalArgumentException( "Not a string: " + element );
+        }
+        return element.getAsString();
+    }
+
+    /**
+     * Get a parameter from a query string.
+     *
+     * @param query The (decoded) query string, may be null.
+     * @param key The name of the parameter.
+     * @return The value of the parameter or null if it is not present.
+     */
+    private String getQueryParameter( String query, String key ) {
+        if ( query == null ) return null;
+        for ( String pair : query.split( "&" ) ) {
+            int index = pair.indexOf( '=' );
+            if ( index > 0 && pair.substring( 0, index ).equals( key ) ) {
+                return pair.substring( index + 1 );
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Create a response with only a status code.
+     *
+     * @param statusCode The HTTP status code.
+     * @return The response.
+     */
+    private RestAuthResponse status( int statusCode ) {
+        List<Header> headers = new ArrayList<Header>();
+        if ( statusCode == HttpStatus.SC_NO_CONTENT ) {
+            return new RestAuthResponse( statusCode, headers );
+        }
+        return new RestAuthResponse( statusCode, headers, "" );
+    }
+
+    /**
+     * Create a 404 response for the given resource type.
+     *
+     * @param type The value of the Resource-Type header.
+     * @return The response.
+     */
+    private RestAuthResponse notFound( String type ) {
+        List<Header> headers = new ArrayList<Header>();
+        headers.add( new BasicHeader( "Resource-Type", type ) );
+        return new RestAuthResponse( HttpStatus.SC_NOT_FOUND, headers, "" );
+    }
+
+    /**
+     * Create a response with a JSON body.
+     *
+     * @param statusCode The HTTP status code.
+     * @param body The marshalled body.
+     * @return The response.
+     */
+    private RestAuthResponse json( int statusCode, String body ) {
+        List<Header> headers = new ArrayList<Header>();
+        headers.add( new BasicHeader( "Content-Type", CONTENT_TYPE ) );
+        return new RestAuthResponse( statusCode, headers, body );
+    }
+
+    /**
+     * Create a response containing a list.
+     *
+     * @param names The elements of the list.
+     * @return The response.
+     */
+    private RestAuthResponse list( Set<String> names ) {
+        return this.list( new ArrayList<String>( names ) );
+    }
+
+    /**
+     * Create a response containing a list.
+     *
+     * @param names The elements of the list.
+     * @return The response.
+     */
+    private RestAuthResponse list( List<String> names ) {
+        return this.json( HttpStatus.SC_OK, this.gson.toJson( names ) );
+    }
+
+    /**
+     * Create a response containing a dictionary.
+     *
+     * @param map The dictionary.
+     * @return The response.
+     */
+    private RestAuthResponse dictionary( Map<String, String> map ) {
+        return this.json( HttpStatus.SC_OK,
+                this.gson.toJson( new HashMap<String, String>( map ) ) );
+    }
+
+    /**
+     * Create a response containing a single string.
+     *
+     * @param statusCode The HTTP status code.
+     * @param value The string.
+     * @return The response.
+     */
+    private RestAuthResponse string( int statusCode, String value ) {
+        return this.json( statusCode,
+                this.gson.toJson( Collections.singletonList( value ) ) );
+    }
+}
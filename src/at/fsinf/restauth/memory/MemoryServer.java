@@ -0,0 +1,253 @@
+package at.fsinf.restauth.memory;
+
+import at.fsinf.restauth.common.RestAuthRequest;
+import at.fsinf.restauth.common.RestAuthResponse;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.URI;
+import java.net.URISyntaxException;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.zip.GZIPOutputStream;
+import org.apache.http.Header;
+import org.apache.http.HttpStatus;
+
+/**
+ * A lightweight embedded HTTP server that answers RestAuth requests using a
+ * {@link MemoryDirectory}. It is meant as a local target for load tests and
+ * benchmarks of {@link at.fsinf.restauth.common.RestAuthConnection}.
+ *
+ * The server can also be started from the command line:
+ * <pre>
+ * java at.fsinf.restauth.memory.MemoryServer [port [users [service-user service-password]]]
+ * </pre>
+ *
+ * @author Mathias Ertl
+ */
+public class MemoryServer {
+    /**
+     * Response bodies of at least this many bytes are compressed if the
+     * client accepts gzip.
+     */
+    private static final int COMPRESS_MIN_LENGTH = 1024;
+
+    private final MemoryDirectory directory;
+    private final HttpServer server;
+    private final ExecutorService executor;
+
+    /**
+     * Creates a server listening on the loopback interface. The server is not
+     * started until {@link #start()} is called.
+     *
+     * @param directory The directory that answers requests.
+     * @param port The port to listen on, 0 picks a free port.
+     * @throws IOException If the server socket cannot be opened.
+     */
+    public MemoryServer( MemoryDirectory directory, int port ) throws IOException {
+        this( directory, new InetSocketAddress( InetAddress.getByName( null ), port ),
+                Runtime.getRuntime().availableProcessors() * 2 );
+    }
+
+    /**
+     * Creates a server listening on the given address. The server is not
+     * started until {@link #start()} is called.
+     *
+     * @param directory The directory that answers requests.
+     * @param address The address to listen on.
+     * @param threads The number of threads handling requests.
+     * @throws IOException If the server socket cannot be opened.
+     */
+    public MemoryServer( MemoryDirectory directory, InetSocketAddress address, int threads )
+            throws IOException {
+        this.directory = directory;
+        this.executor = Executors.newFixedThreadPool( threads );
+        this.server = HttpServer.create( address, 0 );
+        this.server.setExecutor( this.executor );
+        this.server.createContext( "/", new HttpHandler() {
+            public void handle( HttpExchange exchange ) throws IOException {
+                MemoryServer.this.handle( exchange );
+            }
+        } );
+    }
+
+    /**
+     * Get the directory that answers requests.
+     *
+     * @return The directory used by this server.
+     */
+    public MemoryDirectory getDirectory() {
+        return this.directory;
+    }
+
+    /**
+     * Get the port this server listens on.
+     *
+     * @return The port of this server.
+     */
+    public int getPort() {
+        return this.server.getAddress().getPort();
+    }
+
+    /**
+     * Get the URI that can be passed to a {@link
+     * at.fsinf.restauth.common.RestAuthConnection}.
+     *
+     * @return The URI of this server (i.e. "http://127.0.0.1:8000").
+     */
+    public URI getURI() {
+        InetSocketAddress address = this.server.getAddress();
+        try {
+            return new URI( "http", null, address.getAddress().getHostAddress(),
+                    address.getPort(), null, null, null );
+        } catch ( URISyntaxException ex ) {
+            throw new IllegalStateException( ex );
+        }
+    }
+
+    /**
+     * Start accepting requests.
+     */
+    public void start() {
+        this.server.start();
+    }
+
+    /**
+     * Stop accepting requests and close the server socket.
+     */
+    public void stop() {
+        this.server.stop( 0 );
+        this.executor.shutdown();
+    }
+
+    /**
+     * Convert the exchange into a {@link RestAuthRequest}, let the directory
+     * answer it and send back the response.
+     *
+     * @param exchange The HTTP exchange to handle.
+     * @throws IOException If reading the request or writing the response
+     *      fails.
+     */
+    private void handle( HttpExchange exchange ) throws IOException {
+        try {
+            RestAuthRequest request = new RestAuthRequest(
+                    exchange.getRequestMethod(), exchange.getRequestURI() );
+            for ( Map.Entry<String, List<String>> entry :
+                    exchange.getRequestHeaders().entrySet() ) {
+                for ( String value : entry.getValue() ) {
+                    request.addHeader( entry.getKey(), value );
+                }
+            }
+            byte[] body = MemoryServer.readFully( exchange.getRequestBody() );
+            if ( body.length > 0 ) {
+                request.setBody( body );
+            }
+
+            RestAuthResponse response = this.directory.handle( request );
+            for ( Header header : response.getHeaders() ) {
+                exchange.getResponseHeaders().add( header.getName(), header.getValue() );
+            }
+
+            int statusCode = response.getStatusCode();
+            byte[] raw = response.getBody() == null
+                    ? new byte[0] : response.getBody().getBytes( "UTF-8" );
+            if ( raw.length >= MemoryServer.COMPRESS_MIN_LENGTH
+                    && MemoryServer.acceptsGzip( request.getHeader( "Accept-Encoding" ) ) ) {
+                raw = MemoryServer.gzip( raw );
+                exchange.getResponseHeaders().add( "Content-Encoding", "gzip" );
+            }
+            if ( statusCode == HttpStatus.SC_NO_CONTENT || raw.length == 0 ) {
+                exchange.sendResponseHeaders( statusCode, -1 );
+            } else {
+                exchange.sendResponseHeaders( statusCode, raw.length );
+                OutputStream out = exchange.getResponseBody();
+                out.write( raw );
+                out.close();
+            }
+        } finally {
+            exchange.close();
+        }
+    }
+
+    /**
+     * Read the stream until its end.
+     *
+     * @param in The stream to read.
+     * @return The bytes read from the stream.
+     * @throws IOException If reading from the stream fails.
+     */
+    private static byte[] readFully( InputStream in ) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        byte[] buffer = new byte[4096];
+        int read;
+        while ( ( read = in.read( buffer ) ) != -1 ) {
+            out.write( buffer, 0, read );
+        }
+        return out.toByteArray();
+    }
+
+    /**
+     * Check if an Accept-Encoding header includes gzip.
+     *
+     * @param acceptEncoding The value of the header, may be null.
+     * @return True if the client accepts gzip compressed responses.
+     */
+    private static boolean acceptsGzip( String acceptEncoding ) {
+        if ( acceptEncoding == null ) return false;
+        for ( String coding : acceptEncoding.split( "," ) ) {
+            String[] parts = coding.split( ";" );
+            if ( parts[0].trim().equalsIgnoreCase( "gzip" ) ) {
+                return parts.length == 1 || ! parts[1].trim().matches( "q=0(\\.0*)?" );
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Compress a response body.
+     *
+     * @param raw The uncompressed body.
+     * @return The gzip compressed body.
+     * @throws IOException If compressing fails.
+     */
+    private static byte[] gzip( byte[] raw ) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream( raw.length / 4 );
+        GZIPOutputStream gzip = new GZIPOutputStream( out );
+        gzip.write( raw );
+        gzip.close();
+        return out.toByteArray();
+    }
+
+    /**
+     * Start a server from the command line.
+     *
+     * @param args The port (default 8000), the number of users to seed
+     *      (default 0) and optionally the credentials of the service.
+     * @throws IOException If the server socket cannot be opened.
+     */
+    public static void main( String[] args ) throws IOException {
+        int port = args.length > 0 ? Integer.parseInt( args[0] ) : 8000;
+        int users = args.length > 1 ? Integer.parseInt( args[1] ) : 0;
+
+        MemoryDirectory directory = new MemoryDirectory();
+        if ( args.length > 3 ) {
+            directory.setCredentials( args[2], args[3] );
+        }
+        directory.createUsers( "user", users, "password" );
+
+        MemoryServer server = new MemoryServer( directory,
+                new InetSocketAddress( port ),
+                Runtime.getRuntime().availableProcessors() * 2 );
+        server.start();
+        System.out.println( String.format(
+                "Serving %d users on port %d", directory.getUserCount(), server.getPort() ) );
+    }
+}
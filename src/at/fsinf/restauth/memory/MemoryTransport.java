@@ -0,0 +1,94 @@
+package at.fsinf.restauth.memory;
+
+import at.fsinf.restauth.common.RestAuthRequest;
+import at.fsinf.restauth.common.RestAuthResponse;
+import at.fsinf.restauth.common.StreamHandler;
+import at.fsinf.restauth.common.StreamingTransport;
+import at.fsinf.restauth.common.Transport;
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * A {@link Transport} that dispatches requests directly to a {@link
+ * MemoryDirectory} without opening any sockets. This is useful for tests and
+ * for measuring the overhead of the client library itself.
+ *
+ * @author Mathias Ertl
+ */
+public class MemoryTransport implements StreamingTransport {
+    private final MemoryDirectory directory;
+
+    /**
+     * Creates a transport backed by a new, empty directory.
+     */
+    public MemoryTransport() {
+        this( new MemoryDirectory() );
+    }
+
+    /**
+     * Creates a transport backed by the given directory.
+     *
+     * @param directory The directory that answers all requests.
+     */
+    public MemoryTransport( MemoryDirectory directory ) {
+        this.directory = directory;
+    }
+
+    /**
+     * Get the directory that answers requests sent via this transport.
+     *
+     * @return The directory used by this transport.
+     */
+    public MemoryDirectory getDirectory() {
+        return this.directory;
+    }
+
+    /**
+     * Let the directory answer the request.
+     *
+     * @param request The request to send.
+     * @return The response returned by the directory.
+     */
+    @Override
+    public RestAuthResponse execute( RestAuthRequest request ) {
+        return this.directory.handle( request );
+    }
+
+    /**
+     * Let the directory answer the request and pass the body of the response
+     * to the given handler.
+     *
+     * @param request The request to send.
+     * @param handler The handler that reads the body, may be null.
+     * @return The response returned by the directory.
+     * @throws IOException If the handler fails to read the body.
+     */
+    @Override
+    public RestAuthResponse execute( RestAuthRequest request, StreamHandler handler )
+            throws IOException {
+        RestAuthResponse response = this.execute( request );
+        int statusCode = response.getStatusCode();
+        if ( handler == null || response.getBody() == null
+                || ! handler.accepts( statusCode ) ) {
+            return response;
+        }
+
+        InputStream in = new ByteArrayInputStream(
+                response.getRawBody().array() );
+        try {
+            handler.handle( in, response.getHeader( "Content-Type" ),
+                    response.getCharset() );
+        } finally {
+            in.close();
+        }
+        return new RestAuthResponse( statusCode, response.getHeaders() );
+    }
+
+    /**
+     * There are no resources to release, so this method does nothing.
+     */
+    @Override
+    public void shutdown() {
+    }
+}
@@ -0,0 +1,212 @@
+package at.fsinf.restauth.resources;
+
+import at.fsinf.restauth.common.AsyncRestAuthConnection;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.Future;
+
+/**
+ * Asynchronous variant of {@link Group}. Every method returns immediately with
+ * a {@link Future}; exceptions thrown by the corresponding {@link Group}
+ * method are reported as the cause of the {@link
+ * java.util.concurrent.ExecutionException} thrown by {@link Future#get()}.
+ *
+ * @author Mathias Ertl
+ */
+public class AsyncGroup {
+    private final AsyncRestAuthConnection async;
+    private final Group group;
+
+    /**
+     * A simple constructor.
+     *
+     * Note that merely instantiating this class via the constructor does not
+     * verify that this group actually exists, you can use the {@link #get get
+     * method} if you want to be sure that the group exists.
+     *
+     * @param async The asynchronous connection to use when making requests.
+     * @param name The name of the group.
+     */
+    public AsyncGroup( AsyncRestAuthConnection async, String name ) {
+        this.async = async;
+        this.group = new Group( async.getConnection(), name );
+    }
+
+    /**
+     * Asynchronous variant of {@link Group#get}.
+     *
+     * @param async The asynchronous connection to use when making requests.
+     * @param name The name of the group.
+     * @return The pending group, guaranteed to exist when the request finished.
+     */
+    public static Future<Group> get( final AsyncRestAuthConnection async, final String name ) {
+        return async.submit( new Callable<Group>() {
+            public Group call() throws Exception {
+                return Group.get( async.getConnection(), name );
+            }
+        } );
+    }
+
+    /**
+     * Asynchronous variant of {@link Group#getAll}.
+     *
+     * @param async The asynchronous connection to use when making requests.
+     * @return The pending list of all groups known to RestAuth.
+     */
+    public static Future<List<Group>> getAll( final AsyncRestAuthConnection async ) {
+        return async.submit( new Callable<List<Group>>() {
+            public List<Group> call() throws Exception {
+                return Group.getAll( async.getConnection() );
+            }
+        } );
+    }
+
+    /**
+     * Asynchronous variant of {@link Group#create}.
+     *
+     * @param async The asynchronous connection to use when making requests.
+     * @param name The name of the group.
+     * @return The pending newly created group.
+     */
+    public static Future<Group> create( final AsyncRestAuthConnection async, final String name ) {
+        return async.submit( new Callable<Group>() {
+            public Group call() throws Exception {
+                return Group.create( async.getConnection(), name );
+            }
+        } );
+    }
+
+    /**
+     * Get the blocking group wrapped by this instance.
+     *
+     * @return The wrapped group.
+     */
+    public Group getGroup() {
+        return this.group;
+    }
+
+    /**
+     * Getter for this groups name.
+     *
+     * @return The name of this group.
+     */
+    public String getName() {
+        return this.group.getName();
+    }
+
+    /**
+     * Asynchronous variant of {@link Group#getUsers}.
+     *
+     * @return The pending users currently in this group.
+     */
+    public Future<List<User>> getUsers() {
+        return this.async.submit( new Callable<List<User>>() {
+            public List<User> call() throws Exception {
+                return group.getUsers();
+            }
+        } );
+    }
+
+    /**
+     * Asynchronous variant of {@link Group#addUser(java.lang.String)}.
+     *
+     * @param username The name of the user to add.
+     * @return A future that completes when the user was added.
+     */
+    public Future<Void> addUser( final String username ) {
+        return this.async.submit( new Callable<Void>() {
+            public Void call() throws Exception {
+                group.addUser( username );
+                return null;
+            }
+        } );
+    }
+
+    /**
+     * Asynchronous variant of {@link Group#isMember(java.lang.String)}.
+     *
+     * @param username The username of the user in question.
+     * @return Pending true if the user is a member of the group, false
+     *      otherwise.
+     */
+    public Future<Boolean> isMember( final String username ) {
+        return this.async.submit( new Callable<Boolean>() {
+            public Boolean call() throws Exception {
+                return group.isMember( username );
+            }
+        } );
+    }
+
+    /**
+     * Asynchronous variant of {@link Group#removeUser(java.lang.String)}.
+     *
+     * @param username The username to remove.
+     * @return A future that completes when the user was removed.
+     */
+    public Future<Void> removeUser( final String username ) {
+        return this.async.submit( new Callable<Void>() {
+            public Void call() throws Exception {
+                group.removeUser( username );
+                return null;
+            }
+        } );
+    }
+
+    /**
+     * Asynchronous variant of {@link Group#getGroups}.
+     *
+     * @return The pending sub-groups of this group.
+     */
+    public Future<List<Group>> getGroups() {
+        return this.async.submit( new Callable<List<Group>>() {
+            public List<Group> call() throws Exception {
+                return group.getGroups();
+            }
+        } );
+    }
+
+    /**
+     * Asynchronous variant of {@link Group#addGroup(java.lang.String)}.
+     *
+     * @param subgroupname The name of the group that is to become a sub-group
+     *      of this group.
+     * @return A future that completes when the sub-group was added.
+     */
+    public Future<Void> addGroup( final String subgroupname ) {
+        return this.async.submit( new Callable<Void>() {
+            public Void call() throws Exception {
+                group.addGroup( subgroupname );
+                return null;
+            }
+        } );
+    }
+
+    /**
+     * Asynchronous variant of {@link Group#removeGroup(java.lang.String)}.
+     *
+     * @param subgroupname The name of the subgroup to remove.
+     * @return A future that completes when the sub-group was removed.
+     */
+    public Future<Void> removeGroup( final String subgroupname ) {
+        return this.async.submit( new Callable<Void>() {
+            public Void call() throws Exception {
+                group.removeGroup( subgroupname );
+                return null;
+            }
+        } );
+    }
+
+    /**
+     * Asynchronous variant of {@link Group#remove}.
+     *
+     * @return A future that completes when the group was removed.
+     */
+    public Future<Void> remove() {
+        return this.async.submit( new Callable<Void>() {
+            public Void call() throws Exception {
+                group.remove();
+                return null;
+            }
+        } );
+    }
+}
@@ -0,0 +1,289 @@
+package at.fsinf.restauth.resources;
+
+import at.fsinf.restauth.common.AsyncRestAuthConnection;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.Future;
+
+/**
+ * Asynchronous variant of {@link User}. Every method returns immediately with
+ * a {@link Future}; exceptions thrown by the corresponding {@link User} method
+ * are reported as the cause of the {@link
+ * java.util.concurrent.ExecutionException} thrown by {@link Future#get()}.
+ *
+ * @author Mathias Ertl
+ */
+public class AsyncUser {
+    private final AsyncRestAuthConnection async;
+    private final User user;
+
+    /**
+     * Simple constructor.
+     *
+     * Note that merely instantiating this class via the constructor does not
+     * verify that this user actually exists, you can use the {@link #get get
+     * method} if you want to be sure that the user exists.
+     *
+     * @param async The asynchronous connection to use when making requests.
+     * @param name The name of the user.
+     */
+    public AsyncUser( AsyncRestAuthConnection async, String name ) {
+        this.async = async;
+        this.user = new User( async.getConnection(), name );
+    }
+
+    /**
+     * Asynchronous variant of {@link User#get}.
+     *
+     * @param async The asynchronous connection to use when making requests.
+     * @param name The name of the user.
+     * @return The pending user, guaranteed to exist when the request finished.
+     */
+    public static Future<User> get( final AsyncRestAuthConnection async, final String name ) {
+        return async.submit( new Callable<User>() {
+            public User call() throws Exception {
+                return User.get( async.getConnection(), name );
+            }
+        } );
+    }
+
+    /**
+     * Asynchronous variant of {@link User#getAll}.
+     *
+     * @param async The asynchronous connection to use when making requests.
+     * @return The pending list of all users known to RestAuth.
+     */
+    public static Future<List<User>> getAll( final AsyncRestAuthConnection async ) {
+        return async.submit( new Callable<List<User>>() {
+            public List<User> call() throws Exception {
+                return User.getAll( async.getConnection() );
+            }
+        } );
+    }
+
+    /**
+     * Asynchronous variant of {@link User#create(at.fsinf.restauth.common.RestAuthConnection,
+     * java.lang.String, java.lang.String)}.
+     *
+     * @param async The asynchronous connection to use when making requests.
+     * @param name The name of the user.
+     * @param passwd The password of the user, may be null.
+     * @return The pending newly created user.
+     */
+    public static Future<User> create( final AsyncRestAuthConnection async,
+            final String name, final String passwd ) {
+        return async.submit( new Callable<User>() {
+            public User call() throws Exception {
+                return User.create( async.getConnection(), name, passwd );
+            }
+        } );
+    }
+
+    /**
+     * Get the blocking user wrapped by this instance.
+     *
+     * @return The wrapped user.
+     */
+    public User getUser() {
+        return this.user;
+    }
+
+    /**
+     * Getter for this users name.
+     *
+     * @return The name of this user.
+     */
+    public String getName() {
+        return this.user.getName();
+    }
+
+    /**
+     * Asynchronous variant of {@link User#verifyPassword}.
+     *
+     * @param password The password to verify.
+     * @return Pending true if the password is correct, false otherwise.
+     */
+    public Future<Boolean> verifyPassword( final String password ) {
+        return this.async.submit( new Callable<Boolean>() {
+            public Boolean call() throws Exception {
+                return user.verifyPassword( password );
+            }
+        } );
+    }
+
+    /**
+     * Asynchronous variant of {@link User#setPassword}.
+     *
+     * @param newPassword The new password.
+     * @return A future that completes when the password was set.
+     */
+    public Future<Void> setPassword( final String newPassword ) {
+        return this.async.submit( new Callable<Void>() {
+            public Void call() throws Exception {
+                user.setPassword( newPassword );
+                return null;
+            }
+        } );
+    }
+
+    /**
+     * Asynchronous variant of {@link User#disableUser}.
+     *
+     * @return A future that completes when the user was disabled.
+     */
+    public Future<Void> disableUser() {
+        return this.async.submit( new Callable<Void>() {
+            public Void call() throws Exception {
+                user.disableUser();
+                return null;
+            }
+        } );
+    }
+
+    /**
+     * Asynchronous variant of {@link User#getProperties}.
+     *
+     * @return The pending map of the properties of this user.
+     */
+    public Future<Map<String, String>> getProperties() {
+        return this.async.submit( new Callable<Map<String, String>>() {
+            public Map<String, String> call() throws Exception {
+                return user.getProperties();
+            }
+        } );
+    }
+
+    /**
+     * Asynchronous variant of {@link User#getProperty}.
+     *
+     * @param propName The name of the property.
+     * @return The pending value of the named property.
+     */
+    public Future<String> getProperty( final String propName ) {
+        return this.async.submit( new Callable<String>() {
+            public String call() throws Exception {
+                return user.getProperty( propName );
+            }
+        } );
+    }
+
+    /**
+     * Asynchronous variant of {@link User#createProperty}.
+     *
+     * @param propName The name of the new property.
+     * @param value The value of the new property.
+     * @return A future that completes when the property was created.
+     */
+    public Future<Void> createProperty( final String propName, final String value ) {
+        return this.async.submit( new Callable<Void>() {
+            public Void call() throws Exception {
+                user.createProperty( propName, value );
+                return null;
+            }
+        } );
+    }
+
+    /**
+     * Asynchronous variant of {@link User#setProperty}.
+     *
+     * @param propName The name of the property.
+     * @param value The value of the property.
+     * @return The pending previous value of the property, or null if it did
+     *      not exist.
+     */
+    public Future<String> setProperty( final String propName, final String value ) {
+        return this.async.submit( new Callable<String>() {
+            public String call() throws Exception {
+                return user.setProperty( propName, value );
+            }
+        } );
+    }
+
+    /**
+     * Asynchronous variant of {@link User#removeProperty}.
+     *
+     * @param propName The property to remove.
+     * @return A future that completes when the property was removed.
+     */
+    public Future<Void> removeProperty( final String propName ) {
+        return this.async.submit( new Callable<Void>() {
+            public Void call() throws Exception {
+                user.removeProperty( propName );
+                return null;
+            }
+        } );
+    }
+
+    /**
+     * Asynchronous variant of {@link User#getGroups}.
+     *
+     * @return The pending groups that this user is a member of.
+     */
+    public Future<List<Group>> getGroups() {
+        return this.async.submit( new Callable<List<Group>>() {
+            public List<Group> call() throws Exception {
+                return user.getGroups();
+            }
+        } );
+    }
+
+    /**
+     * Asynchronous variant of {@link User#inGroup(java.lang.String)}.
+     *
+     * @param groupname The name of the group.
+     * @return Pending true if the user is in the group, false otherwise.
+     */
+    public Future<Boolean> inGroup( final String groupname ) {
+        return this.async.submit( new Callable<Boolean>() {
+            public Boolean call() throws Exception {
+                return user.inGroup( groupname );
+            }
+        } );
+    }
+
+    /**
+     * Asynchronous variant of {@link User#addGroup(java.lang.String)}.
+     *
+     * @param groupname The name of the group to add to this user.
+     * @return A future that completes when the user was added to the group.
+     */
+    public Future<Void> addGroup( final String groupname ) {
+        return this.async.submit( new Callable<Void>() {
+            public Void call() throws Exception {
+                user.addGroup( groupname );
+                return null;
+            }
+        } );
+    }
+
+    /**
+     * Asynchronous variant of {@link User#removeGroup(java.lang.String)}.
+     *
+     * @param groupname The name of the group to remove.
+     * @return A future that completes when the user was removed from the
+     *      group.
+     */
+    public Future<Void> removeGroup( final String groupname ) {
+        return this.async.submit( new Callable<Void>() {
+            public Void call() throws Exception {
+                user.removeGroup( groupname );
+                return null;
+            }
+        } );
+    }
+
+    /**
+     * Asynchronous variant of {@link User#remove}.
+     *
+     * @return A future that completes when the user was removed.
+     */
+    public Future<Void> remove() {
+        return this.async.submit( new Callable<Void>() {
+            public Void call() throws Exception {
+                user.remove();
+                return null;
+            }
+        } );
+    }
+}
@@ -0,0 +1,102 @@
+package at.fsinf.restauth.resources;
+
+import at.fsinf.restauth.common.DaemonThreadFactory;
+import at.fsinf.restauth.common.Futures;
+import at.fsinf.restauth.errors.RequestFailed;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.RejectedExecutionException;
+
+/**
+ * Helper methods for operations that make many requests in parallel.
+ *
+ * These operations run their requests on an executor passed by the caller
+ * (i.e. the one of an {@link at.fsinf.restauth.common.AsyncRestAuthConnection}).
+ * Variants that do not take an executor create a pool of daemon threads with
+ * {@link #newPool} for the duration of the call.
+ *
+ * @author Mathias Ertl
+ */
+final class Bulk {
+    /**
+     * This class only has static methods.
+     */
+    private Bulk() {
+    }
+
+    /**
+     * Create a pool of daemon threads. The caller has to shut it down when
+     * the operation is finished.
+     *
+     * @param threads The number of threads.
+     * @return The new pool.
+     */
+    static ExecutorService newPool( int threads ) {
+        if ( threads < 1 ) {
+            throw new IllegalArgumentException( "Threads must be greater than zero." );
+        }
+        return Executors.newFixedThreadPool( threads,
+                new DaemonThreadFactory( "RestAuth request" ) );
+    }
+
+    /**
+     * Run independent tasks on the given executor and wait for all of them.
+     * A task that fails does not stop the other tasks. If the calling thread
+     * is interrupted, tasks that did not finish yet are cancelled.
+     *
+     * @param executor The executor that runs the tasks.
+     * @param tasks The tasks, by the name they are reported with.
+     * @return The tasks that failed, with the exception they threw. A task
+     *      rejected by the executor is reported with the {@link
+     *      RejectedExecutionException}. The map is empty if all tasks
+     *      succeeded.
+     * @throws RequestFailed If the calling thread was interrupted.
+     */
+    static Map<String, Exception> run( Executor executor,
+            Map<String, ? extends Callable<?>> tasks ) throws RequestFailed {
+        final Map<String, Exception> failed = new LinkedHashMap<String, Exception>();
+        List<FutureTask<Object>> futures = new ArrayList<FutureTask<Object>>( tasks.size() );
+        try {
+            for ( final Map.Entry<String, ? extends Callable<?>> task : tasks.entrySet() ) {
+                FutureTask<Object> future = new FutureTask<Object>( new Callable<Object>() {
+                    public Object call() {
+                        try {
+                            task.getValue().call();
+                        } catch ( Exception ex ) {
+                            synchronized ( failed ) {
+                                failed.put( task.getKey(), ex );
+                            }
+                        }
+                        return null;
+                    }
+                });
+                try {
+                    executor.execute( future );
+                } catch ( RejectedExecutionException ex ) {
+                    synchronized ( failed ) {
+                        failed.put( task.getKey(), ex );
+                    }
+                    continue;
+                }
+                futures.add( future );
+            }
+            for ( FutureTask<Object> future : futures ) {
+                Futures.get( future );
+            }
+        } finally {
+            for ( FutureTask<Object> future : futures ) {
+                future.cancel( true ); // only has an effect if interrupted
+            }
+        }
+        synchronized ( failed ) {
+            return failed;
+        }
+    }
+}
@@ -0,0 +1,65 @@
+package at.fsinf.restauth.resources;
+
+import at.fsinf.restauth.common.RestAuthConnection;
+import at.fsinf.restauth.errors.RestAuthException;
+
+/**
+ * A single request planned by a {@link Reconciler}, i.e. creating a user or
+ * adding a user to a group. Changes are executed in phases: all changes of a
+ * phase may run at the same time, but only after all changes of the previous
+ * phase completed.
+ *
+ * @author Mathias Ertl
+ */
+public abstract class Change {
+    /**
+     * Phase for changes that do not depend on other changes.
+     */
+    public static final int PHASE_RESOURCES = 0;
+    /**
+     * Phase for changes to group memberships, which require that users and
+     * groups were created before.
+     */
+    public static final int PHASE_MEMBERSHIPS = 1;
+
+    private final int phase;
+    private final String description;
+
+    /**
+     * Creates a new change.
+     *
+     * @param phase The phase of the change.
+     * @param description A short description (i.e. "create user foo").
+     */
+    Change( int phase, String description ) {
+        this.phase = phase;
+        this.description = description;
+    }
+
+    /**
+     * Get the phase this change is executed in.
+     *
+     * @return Either {@link #PHASE_RESOURCES} or {@link #PHASE_MEMBERSHIPS}.
+     */
+    public int getPhase() {
+        return this.phase;
+    }
+
+    /**
+     * Execute this change.
+     *
+     * @param connection The connection to use when making requests.
+     * @throws RestAuthException If the request fails.
+     */
+    abstract void apply( RestAuthConnection connection ) throws RestAuthException;
+
+    /**
+     * Get a short description of this change.
+     *
+     * @return The description (i.e. "create user foo").
+     */
+    @Override
+    public String toString() {
+        return this.description;
+    }
+}
@@ -0,0 +1,17 @@
+package at.fsinf.restauth.resources;
+
+/**
+ * Receives the outcome of every user created by {@link User#createAll}.
+ *
+ * @author Mathias Ertl
+ */
+public interface CreateCallback {
+    /**
+     * Called once for every user, in the order the requests finished. The
+     * method is always called by the thread that called {@link
+     * User#createAll}.
+     *
+     * @param result The outcome.
+     */
+    public void done( CreateResult result );
+}
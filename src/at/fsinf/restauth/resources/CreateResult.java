@@ -0,0 +1,69 @@
+package at.fsinf.restauth.resources;
+
+/**
+ * The outcome of creating a single user with {@link User#createAll}.
+ *
+ * Note that a user may have been created even if an error occurred: if adding
+ * the user to one of its groups failed, both {@link #getUser()} and {@link
+ * #getError()} return a value.
+ *
+ * @author Mathias Ertl
+ */
+public class CreateResult {
+    private final UserSpec spec;
+    private final User user;
+    private final Exception error;
+
+    /**
+     * Standard constructor.
+     *
+     * @param spec The description of the user.
+     * @param user The created user, or null if it was not created.
+     * @param error The error that occurred, or null if there was none.
+     */
+    public CreateResult( UserSpec spec, User user, Exception error ) {
+        this.spec = spec;
+        this.user = user;
+        this.error = error;
+    }
+
+    /**
+     * Get the description of the user.
+     *
+     * @return The description passed to {@link User#createAll}.
+     */
+    public UserSpec getSpec() {
+        return this.spec;
+    }
+
+    /**
+     * Get the created user.
+     *
+     * @return The user or null if it was not created.
+     */
+    public User getUser() {
+        return this.user;
+    }
+
+    /**
+     * Get the error that occurred. This is usually a {@link
+     * at.fsinf.restauth.errors.UserExists}, {@link
+     * at.fsinf.restauth.errors.PreconditionFailed} or (if a group does not
+     * exist) {@link at.fsinf.restauth.errors.ResourceNotFound}.
+     *
+     * @return The error or null if the user was created and added to all of
+     *      its groups.
+     */
+    public Exception getError() {
+        return this.error;
+    }
+
+    /**
+     * Check if the user was created and added to all of its groups.
+     *
+     * @return True if no error occurred.
+     */
+    public boolean isSuccess() {
+        return this.error == null;
+    }
+}
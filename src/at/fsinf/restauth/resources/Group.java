@@ -1,5 +1,8 @@
 package at.fsinf.restauth.resources;
 
+import at.fsinf.restauth.common.ExistenceCache;
+import at.fsinf.restauth.common.ListCallback;
+import at.fsinf.restauth.common.MembershipCache;
 import at.fsinf.restauth.common.RestAuthConnection;
 import at.fsinf.restauth.common.RestAuthResponse;
 import at.fsinf.restauth.errors.GroupExists;
@@ -10,9 +13,15 @@ import at.fsinf.restauth.errors.ResourceNotFound;
 import at.fsinf.restauth.errors.Unauthorized;
 import at.fsinf.restauth.errors.UnknownStatus;
 import java.util.ArrayList;
-import java.util.HashMap;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
 import org.apache.http.HttpStatus;
 
 /**
@@ -65,15 +74,15 @@ public class Group extends Resource {
      */
     public static Group create( RestAuthConnection connection, String name )
             throws Unauthorized, InternalServerError, RequestFailed, GroupExists, PreconditionFailed {
-        Map<String, String> params = new HashMap<String, String>();
-        params.put( "group", name );
-
-        RestAuthResponse response = connection.post( Group.prefix, params );
+        RestAuthResponse response = connection.post( Group.prefix, "group", name );
         int respCode = response.getStatusCode();
 
+        ExistenceCache cache = connection.getExistenceCache();
         if ( respCode == HttpStatus.SC_CREATED ) {
+            if ( cache != null ) cache.putExisting( ExistenceCache.GROUP, name );
             return new Group( connection, name );
         } else if ( respCode == HttpStatus.SC_CONFLICT ) {
+            if ( cache != null ) cache.putExisting( ExistenceCache.GROUP, name );
             throw new GroupExists( response );
         } else if ( respCode == HttpStatus.SC_PRECONDITION_FAILED ) {
             throw new PreconditionFailed( response );
@@ -93,20 +102,37 @@ public class Group extends Resource {
      * @throws RequestFailed If making the request failed (that is, never
      *      reached the RestAuth server).
      */
-    public static List<Group> getAll( RestAuthConnection connection )
+    public static List<Group> getAll( final RestAuthConnection connection )
             throws Unauthorized, InternalServerError, RequestFailed {
-        RestAuthResponse response = connection.get( Group.prefix );
-        int respCode = response.getStatusCode();
-
-        if ( respCode == HttpStatus.SC_OK ) {
-            String raw_body = response.getBody();
-            List<String> names = connection.handler.unmarshal_list(raw_body);
-            List<Group> groups = new ArrayList<Group>();
-            for ( String name : names ) {
+        final List<Group> groups = new ArrayList<Group>();
+        Group.getAll( connection, new ListCallback() {
+            public void item( String name ) {
                 groups.add( new Group( connection, name ) );
             }
+        });
+        return groups;
+    }
 
-            return groups;
+    /**
+     * Get the names of all groups currently known to RestAuth. The names are
+     * passed to the callback one at a time while the response is being read,
+     * so the complete list never has to be kept in memory.
+     *
+     * @param connection The connection to use when making requests.
+     * @param callback The callback receiving the names.
+     * @throws Unauthorized If the authentication credentials are wrong.
+     * @throws InternalServerError If the RestAuth server suffered from an
+     *      internal error.
+     * @throws RequestFailed If making the request failed (that is, never
+     *      reached the RestAuth server).
+     */
+    public static void getAll( RestAuthConnection connection, ListCallback callback )
+            throws Unauthorized, InternalServerError, RequestFailed {
+        RestAuthResponse response = connection.getList( Group.prefix, callback );
+        int respCode = response.getStatusCode();
+
+        if ( respCode == HttpStatus.SC_OK ) {
+            return;
         } else {
             throw new UnknownStatus( response );
         }
@@ -127,8 +153,18 @@ public class Group extends Resource {
      */
     public static Group get( RestAuthConnection connection, String name )
             throws Unauthorized, InternalServerError, RequestFailed, ResourceNotFound {
-        String path = String.format( "%s%s/", Group.prefix, name );
-        RestAuthResponse response = connection.get( path );
+        ExistenceCache cache = connection.getExistenceCache();
+        RestAuthResponse response = null;
+        long generation = 0;
+        if ( cache != null ) {
+            generation = cache.getGeneration( ExistenceCache.GROUP, name );
+            response = cache.get( ExistenceCache.GROUP, name );
+        }
+        if ( response == null ) {
+            String path = String.format( "%s%s/", Group.prefix, name );
+            response = connection.get( path );
+            if ( cache != null ) cache.put( ExistenceCache.GROUP, name, response, generation );
+        }
         int respCode = response.getStatusCode();
 
         if ( respCode == HttpStatus.SC_NO_CONTENT ) {
@@ -144,7 +180,10 @@ public class Group extends Resource {
      * Get all users currently in this group. This includes inherited group
      * memberships.
      *
-     * @return The users currently in this group.
+     * The returned list only stores the names of the users, the {@link User}
+     * objects are created when they are accessed.
+     *
+     * @return A read-only list of the users currently in this group.
      * @throws ResourceNotFound If the group in question does not exist.
      * @throws Unauthorized If the authentication credentials are wrong.
      * @throws InternalServerError If the RestAuth server suffered from an
@@ -154,18 +193,33 @@ public class Group extends Resource {
      */
     public List<User> getUsers() 
             throws ResourceNotFound, Unauthorized, InternalServerError, RequestFailed {
-        String path = String.format( "%s/users/", this.name );
-        RestAuthResponse response = this.get( path );
-        int respCode = response.getStatusCode();
+        return this.fetchUsers();
+    }
 
-        if ( respCode == HttpStatus.SC_OK ) {
-            String raw_body = response.getBody();
-            List<String> names = this.conn.handler.unmarshal_list(raw_body);
-            List<User> users = new ArrayList<User>();
-            for ( String username : names ) {
-                users.add( new User( this.conn, username ) );
+    /**
+     * Fetch the names of all users currently in this group.
+     *
+     * @return The names of the users currently in this group.
+     * @throws ResourceNotFound If the group in question does not exist.
+     * @throws Unauthorized If the authentication credentials are wrong.
+     * @throws InternalServerError If the RestAuth server suffered from an
+     *      internal error.
+     * @throws RequestFailed If making the request failed (that is, never
+     *      reached the RestAuth server).
+     */
+    private UserList fetchUsers()
+            throws ResourceNotFound, Unauthorized, InternalServerError, RequestFailed {
+        String path = String.format( "%s%s/users/", Group.prefix, this.name );
+        final UserList users = new UserList( this.conn );
+        RestAuthResponse response = this.conn.getList( path, new ListCallback() {
+            public void item( String username ) {
+                users.append( username );
             }
+        });
+        int respCode = response.getStatusCode();
 
+        if ( respCode == HttpStatus.SC_OK ) {
+            users.trimToSize();
             return users;
         } else if ( respCode == HttpStatus.SC_NOT_FOUND ) {
             throw new ResourceNotFound( response );
@@ -203,14 +257,17 @@ public class Group extends Resource {
      */
     public void addUser( String username ) 
             throws Unauthorized, InternalServerError, RequestFailed, ResourceNotFound {
-        Map<String, String> params = new HashMap<String, String>();
-        params.put( "user", username );
-
         String path = String.format( "%s/users/", this.name );
-        RestAuthResponse response = this.post( path, params );
+        RestAuthResponse response = this.post( path, "user", username );
         int respCode = response.getStatusCode();
 
         if( respCode == HttpStatus.SC_NO_CONTENT ) {
+            MembershipCache cache = this.conn.getMembershipCache();
+            if ( cache != null ) {
+                // sub-groups inherit the membership as well
+                cache.invalidateUser( username );
+                cache.put( this.name, username, true );
+            }
             return;
         } else if ( respCode == HttpStatus.SC_NOT_FOUND ) {
             throw new ResourceNotFound( response );
@@ -219,6 +276,107 @@ public class Group extends Resource {
         }
     }
 
+    /**
+     * Set the members of this group to exactly the given users, using a pool
+     * of {@link #DEFAULT_PARALLELISM} threads that is created for this call.
+     *
+     * @param usernames The names of the users that should be members.
+     * @return The users that could not be added or removed, with the error
+     *      that occurred. The map is empty if all requests succeeded.
+     * @throws ResourceNotFound If the group in question does not exist.
+     * @throws Unauthorized If the authentication credentials are wrong.
+     * @throws InternalServerError If the RestAuth server suffered from an
+     *      internal error.
+     * @throws RequestFailed If making the request failed (that is, never
+     *      reached the RestAuth server) or the calling thread was
+     *      interrupted.
+     * @see #setMembers(Collection, Executor)
+     */
+    public Map<String, Exception> setMembers( Collection<String> usernames )
+            throws ResourceNotFound, Unauthorized, InternalServerError, RequestFailed {
+        ExecutorService executor = Bulk.newPool( Resource.DEFAULT_PARALLELISM );
+        try {
+            return this.setMembers( usernames, executor );
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    /**
+     * Set the members of this group to exactly the given users. The current
+     * members are fetched once, only users that have to be added or removed
+     * cause a request. The requests are made by the given executor (i.e. the
+     * one of an {@link at.fsinf.restauth.common.AsyncRestAuthConnection}), so
+     * the connection should use a thread-safe transport.
+     *
+     * The RestAuth server only returns the effective members of a group, so
+     * the given users are compared with the effective members, including
+     * users that inherit the membership from a meta-group:
+     * <ul>
+     * <li>A given user that already is an inherited member is not added
+     * directly, it stays a member as long as it is a member of the
+     * meta-group.</li>
+     * <li>An inherited member that is not given cannot be removed from this
+     * group. It is reported as a failure with a {@link ResourceNotFound}, and
+     * has to be removed from the meta-group instead.</li>
+     * </ul>
+     * If the group has no meta-groups, its members are exactly the given
+     * users afterwards (unless a request failed).
+     *
+     * A user that cannot be added or removed (i.e. because it does not exist)
+     * does not stop the remaining requests. This includes users the executor
+     * rejects, they are reported with the {@link
+     * java.util.concurrent.RejectedExecutionException}. User names are
+     * compared case-insensitively, failures are reported with the lower case
+     * name.
+     *
+     * @param usernames The names of the users that should be members.
+     * @param executor The executor used for adding and removing users.
+     * @return The users that could not be added or removed, with the error
+     *      that occurred. The map is empty if all requests succeeded.
+     * @throws ResourceNotFound If the group in question does not exist.
+     * @throws Unauthorized If the authentication credentials are wrong.
+     * @throws InternalServerError If the RestAuth server suffered from an
+     *      internal error.
+     * @throws RequestFailed If making the request failed (that is, never
+     *      reached the RestAuth server) or the calling thread was
+     *      interrupted.
+     */
+    public Map<String, Exception> setMembers( Collection<String> usernames,
+            Executor executor )
+            throws ResourceNotFound, Unauthorized, InternalServerError, RequestFailed {
+        Set<String> desired = new HashSet<String>( usernames.size() * 4 / 3 + 1 );
+        for ( String username : usernames ) {
+            desired.add( username.toLowerCase() );
+        }
+        UserList members = this.fetchUsers();
+        Set<String> current = new HashSet<String>( members.size() * 4 / 3 + 1 );
+        for ( int i = 0; i < members.size(); i++ ) {
+            current.add( members.getName( i ).toLowerCase() );
+        }
+
+        Map<String, Callable<Object>> tasks = new LinkedHashMap<String, Callable<Object>>();
+        for ( final String username : desired ) {
+            if ( current.contains( username ) ) continue;
+            tasks.put( username, new Callable<Object>() {
+                public Object call() throws Exception {
+                    Group.this.addUser( username );
+                    return null;
+                }
+            });
+        }
+        for ( final String username : current ) {
+            if ( desired.contains( username ) ) continue;
+            tasks.put( username, new Callable<Object>() {
+                public Object call() throws Exception {
+                    Group.this.removeUser( username );
+                    return null;
+                }
+            });
+        }
+        return Bulk.run( executor, tasks );
+    }
+
     /**
      * Check if the given user is a member of this group. This will also return
      * true if the membership is inherited from another group.
@@ -252,15 +410,25 @@ public class Group extends Resource {
      */
     public boolean isMember( String username ) 
             throws Unauthorized, InternalServerError, RequestFailed, ResourceNotFound {
+        MembershipCache cache = this.conn.getMembershipCache();
+        long generation = 0;
+        if ( cache != null ) {
+            Boolean cached = cache.get( this.name, username );
+            if ( cached != null ) return cached;
+            generation = cache.getGeneration( username );
+        }
+
         String path = String.format( "%s/users/%s/", this.name, username );
         RestAuthResponse response = this.get( path );
         int respCode = response.getStatusCode();
 
         if ( respCode == HttpStatus.SC_NO_CONTENT ) {
+            if ( cache != null ) cache.put( this.name, username, true, generation );
             return true;
         } else if ( respCode == HttpStatus.SC_NOT_FOUND ) {
             String type = response.getHeader( "Resource-Type" );
             if ( type.equals( "user") ) {
+                if ( cache != null ) cache.put( this.name, username, false, generation );
                 return false;
             } else {
                 throw new ResourceNotFound( response );
@@ -320,6 +488,9 @@ public class Group extends Resource {
         int respCode = response.getStatusCode();
 
         if ( respCode == HttpStatus.SC_NO_CONTENT ) {
+            // the user may still be a member via a meta-group
+            MembershipCache cache = this.conn.getMembershipCache();
+            if ( cache != null ) cache.invalidateUser( username );
             return;
         } else if ( respCode == HttpStatus.SC_NOT_FOUND ) {
             throw new ResourceNotFound( response );
@@ -346,8 +517,7 @@ public class Group extends Resource {
         int respCode = response.getStatusCode();
 
         if ( respCode == HttpStatus.SC_OK ) {
-            String raw_body = response.getBody();
-            List<String> names = this.conn.handler.unmarshal_list(raw_body);
+            List<String> names = this.conn.unmarshal_list( response );
             List<Group> groups = new ArrayList<Group>();
             for ( String groupname : names ) {
                 groups.add( new Group( this.conn, groupname ) );
@@ -393,14 +563,12 @@ public class Group extends Resource {
      */
     public void addGroup( String subgroupname )
             throws Unauthorized, InternalServerError, RequestFailed, ResourceNotFound {
-        Map<String, String> params = new HashMap<String, String>();
-        params.put( "group", subgroupname );
-
         String path = String.format( "%s/groups/", this.name );
-        RestAuthResponse response = this.post( path, params );
+        RestAuthResponse response = this.post( path, "group", subgroupname );
         int respCode = response.getStatusCode();
 
         if( respCode == HttpStatus.SC_NO_CONTENT ) {
+            this.clearMembershipCache();
             return;
         } else if ( respCode == HttpStatus.SC_NOT_FOUND ) {
             throw new ResourceNotFound( response );
@@ -443,6 +611,7 @@ public class Group extends Resource {
         int respCode = response.getStatusCode();
 
         if ( respCode == HttpStatus.SC_NO_CONTENT ) {
+            this.clearMembershipCache();
             return;
         } else if ( respCode == HttpStatus.SC_NOT_FOUND ) {
             throw new ResourceNotFound( response );
@@ -468,14 +637,28 @@ public class Group extends Resource {
         int respCode = response.getStatusCode();
 
         if ( respCode == HttpStatus.SC_NO_CONTENT ) {
+            ExistenceCache existence = this.conn.getExistenceCache();
+            if ( existence != null ) existence.putMissing( ExistenceCache.GROUP, this.name );
+            this.clearMembershipCache();
             return;
         } else if ( respCode == HttpStatus.SC_NOT_FOUND ) {
+            ExistenceCache existence = this.conn.getExistenceCache();
+            if ( existence != null ) existence.putMissing( ExistenceCache.GROUP, this.name );
             throw new ResourceNotFound( response );
         } else {
             throw new UnknownStatus( response );
         }
     }
 
+    /**
+     * Clear the membership cache of the connection, if any. This is necessary
+     * whenever a change may affect inherited memberships.
+     */
+    private void clearMembershipCache() {
+        MembershipCache cache = this.conn.getMembershipCache();
+        if ( cache != null ) cache.clear();
+    }
+
     /**
      * @throws InternalServerError If the RestAuth server suffered from an
      *      internal error.
@@ -513,7 +696,7 @@ public class Group extends Resource {
      * @inheritDoc
      */
     @Override
-    protected RestAuthResponse post( String path, Map<String, String> params )
+    protected RestAuthResponse post( String path, Map<String, Object> params )
             throws Unauthorized, InternalServerError, RequestFailed {
         return this.conn.post( Group.prefix + path, params );
     }
@@ -527,11 +710,39 @@ public class Group extends Resource {
      * @inheritDoc
      */
     @Override
-    protected RestAuthResponse put( String path, Map<String, String> params )
+    protected RestAuthResponse put( String path, Map<String, Object> params )
             throws Unauthorized, InternalServerError, RequestFailed {
         return this.conn.put( Group.prefix + path, params );
     }
 
+    /**
+     * @throws RequestFailed If making the request failed (that is, never
+     *      reached the RestAuth server).
+     * @throws Unauthorized If the authentication credentials are wrong.
+     * @throws InternalServerError If the RestAuth server suffered from an
+     *      internal error.
+     * @inheritDoc
+     */
+    @Override
+    protected RestAuthResponse post( String path, String... fields )
+            throws Unauthorized, InternalServerError, RequestFailed {
+        return this.conn.post( Group.prefix + path, fields );
+    }
+
+    /**
+     * @throws RequestFailed If making the request failed (that is, never
+     *      reached the RestAuth server).
+     * @throws Unauthorized If the authentication credentials are wrong.
+     * @throws InternalServerError If the RestAuth server suffered from an
+     *      internal error.
+     * @inheritDoc
+     */
+    @Override
+    protected RestAuthResponse put( String path, String... fields )
+            throws Unauthorized, InternalServerError, RequestFailed {
+        return this.conn.put( Group.prefix + path, fields );
+    }
+
     /**
      * @throws Unauthorized If the authentication credentials are wrong.
      * @throws RequestFailed If making the request failed (that is, never
@@ -0,0 +1,251 @@
+package at.fsinf.restauth.resources;
+
+import at.fsinf.restauth.common.ExpiringCache;
+import at.fsinf.restauth.common.Futures;
+import at.fsinf.restauth.common.RestAuthConnection;
+import at.fsinf.restauth.errors.InternalServerError;
+import at.fsinf.restauth.errors.RequestFailed;
+import at.fsinf.restauth.errors.ResourceNotFound;
+import at.fsinf.restauth.errors.Unauthorized;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.LinkedHashSet;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletionService;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Resolves the effective group memberships of users. A user that is a member
+ * of a group is also a member of all its <a
+ * href="http://fs.fsinf.at/wiki/RestAuth/Specification#Meta-groups">
+ * sub-groups</a>, but {@link User#getGroups()} only returns the groups the
+ * user was added to directly.
+ *
+ * The sub-groups are fetched in parallel: the sub-groups of a group are
+ * requested as soon as the group is found, so resolving takes about as long
+ * as the depth of the group hierarchy times the round trip time. Groups that
+ * are reached more than once (including cycles) are only fetched once.
+ *
+ * The sub-groups of every group are remembered for a limited time, so later
+ * calls only fetch groups that were not seen recently. Use {@link #clear()}
+ * if the group hierarchy has changed.
+ *
+ * @author Mathias Ertl
+ */
+public class GroupResolver {
+    /**
+     * The maximum number of groups whose sub-groups are remembered by a
+     * resolver created with {@link #GroupResolver(RestAuthConnection, int)}.
+     */
+    public static final int DEFAULT_MAX_GROUPS = 10000;
+
+    /**
+     * The time in milliseconds the sub-groups of a group are remembered by a
+     * resolver created with {@link #GroupResolver(RestAuthConnection, int)}.
+     */
+    public static final long DEFAULT_TTL = 60000;
+
+    private final RestAuthConnection conn;
+    private final Executor executor;
+    private final ExecutorService pool;
+    private final ExpiringCache<String, List<String>> subgroups;
+    private final AtomicLong generation = new AtomicLong();
+
+    /**
+     * Creates a new resolver with its own pool of daemon threads. The
+     * sub-groups of up to {@link #DEFAULT_MAX_GROUPS} groups are remembered
+     * for {@link #DEFAULT_TTL} milliseconds.
+     *
+     * @param connection The (thread-safe) connection to use.
+     * @param threads The maximum number of requests made at the same time.
+     */
+    public GroupResolver( RestAuthConnection connection, int threads ) {
+        this( connection, null, Bulk.newPool( threads ), DEFAULT_MAX_GROUPS, DEFAULT_TTL );
+    }
+
+    /**
+     * Creates a new resolver that makes its requests with the given executor
+     * (i.e. the one of an {@link
+     * at.fsinf.restauth.common.AsyncRestAuthConnection}).
+     *
+     * @param connection The (thread-safe) connection to use.
+     * @param executor The executor used for fetching sub-groups.
+     * @param maxGroups The maximum number of groups whose sub-groups are
+     *      remembered.
+     * @param ttlMillis The time in milliseconds after which the sub-groups of
+     *      a group have to be fetched again.
+     */
+    public GroupResolver( RestAuthConnection connection, Executor executor,
+            int maxGroups, long ttlMillis ) {
+        this( connection, executor, null, maxGroups, ttlMillis );
+    }
+
+    /**
+     * Common constructor.
+     *
+     * @param connection The (thread-safe) connection to use.
+     * @param executor The executor passed by the caller, or null.
+     * @param pool The pool owned by this resolver if no executor is passed.
+     * @param maxGroups The maximum number of groups whose sub-groups are
+     *      remembered.
+     * @param ttlMillis The time in milliseconds after which the sub-groups of
+     *      a group have to be fetched again.
+     */
+    private GroupResolver( RestAuthConnection connection, Executor executor,
+            ExecutorService pool, int maxGroups, long ttlMillis ) {
+        this.conn = connection;
+        this.executor = executor == null ? pool : executor;
+        this.pool = pool;
+        this.subgroups = new ExpiringCache<String, List<String>>( maxGroups, ttlMillis );
+    }
+
+    /**
+     * Get all groups the given user is a member of, either directly or
+     * because it is a member of a meta-group.
+     *
+     * @param user The user in question.
+     * @return The names of the groups, the groups the user was added to
+     *      directly come first.
+     * @throws ResourceNotFound If the user in question does not exist.
+     * @throws Unauthorized If the authentication credentials are wrong.
+     * @throws InternalServerError If the RestAuth server suffered from an
+     *      internal error.
+     * @throws RequestFailed If making the request failed (that is, never
+     *      reached the RestAuth server) or the calling thread was
+     *      interrupted.
+     */
+    public Set<String> getEffectiveGroups( User user )
+            throws ResourceNotFound, Unauthorized, InternalServerError, RequestFailed {
+        List<String> direct = new ArrayList<String>();
+        for ( Group group : user.getGroups() ) {
+            direct.add( group.getName() );
+        }
+        return this.resolve( direct );
+    }
+
+    /**
+     * Get the given groups and all their sub-groups, recursively.
+     *
+     * Groups that do not exist (i.e. because they were removed while
+     * resolving) are included, but have no sub-groups.
+     *
+     * @param groups The names of the groups to start with.
+     * @return The names of the groups, in the order they were found.
+     * @throws Unauthorized If the authentication credentials are wrong.
+     * @throws InternalServerError If the RestAuth server suffered from an
+     *      internal error.
+     * @throws RequestFailed If making the request failed (that is, never
+     *      reached the RestAuth server) or the calling thread was
+     *      interrupted.
+     */
+    public Set<String> resolve( Collection<String> groups )
+            throws Unauthorized, InternalServerError, RequestFailed {
+        Set<String> closure = new LinkedHashSet<String>( groups );
+        LinkedList<String> ready = new LinkedList<String>( closure );
+        CompletionService<List<String>> completion =
+                new ExecutorCompletionService<List<String>>( this.executor );
+        List<Future<List<String>>> futures = new ArrayList<Future<List<String>>>();
+        int pending = 0;
+        try {
+            while ( ! ready.isEmpty() || pending > 0 ) {
+                List<String> children;
+                if ( ready.isEmpty() ) {
+                    children = this.take( completion );
+                    pending--;
+                } else {
+                    String name = ready.removeFirst();
+                    children = this.subgroups.get( name );
+                    if ( children == null ) {
+                        futures.add( completion.submit( this.fetch( name ) ) );
+                        pending++;
+                        continue;
+                    }
+                }
+                for ( String subgroup : children ) {
+                    if ( closure.add( subgroup ) ) {
+                        ready.add( subgroup );
+                    }
+                }
+            }
+        } finally {
+            for ( Future<List<String>> future : futures ) {
+                future.cancel( true ); // only has an effect if resolving failed
+            }
+        }
+        return closure;
+    }
+
+    /**
+     * Forget the sub-groups fetched so far. Sub-groups that are currently
+     * being fetched are not remembered either.
+     */
+    public void clear() {
+        synchronized ( this.generation ) {
+            this.generation.incrementAndGet();
+            this.subgroups.clear();
+        }
+    }
+
+    /**
+     * Stop the threads of this resolver, if it created its own. Requests that
+     * are still running are completed, but the resolver cannot be used
+     * afterwards. The threads are daemon threads, so calling this method is
+     * not required for the application to exit.
+     */
+    public void shutdown() {
+        if ( this.pool != null ) this.pool.shutdown();
+    }
+
+    /**
+     * Create a task that fetches the sub-groups of a group and remembers them.
+     *
+     * @param name The name of the group.
+     * @return The task, which returns the names of the sub-groups.
+     */
+    private Callable<List<String>> fetch( final String name ) {
+        final long generation = this.generation.get();
+        return new Callable<List<String>>() {
+            public List<String> call() throws Exception {
+                List<String> names = new ArrayList<String>();
+                try {
+                    for ( Group group : new Group( GroupResolver.this.conn, name ).getGroups() ) {
+                        names.add( group.getName() );
+                    }
+                } catch ( ResourceNotFound ex ) {
+                    names = Collections.emptyList();
+                }
+                synchronized ( GroupResolver.this.generation ) {
+                    if ( GroupResolver.this.generation.get() == generation ) {
+                        GroupResolver.this.subgroups.put( name, names );
+                    }
+                }
+                return names;
+            }
+        };
+    }
+
+    /**
+     * Wait for the next group fetched by {@link #resolve}.
+     *
+     * @param completion The completion service running the requests.
+     * @return The names of the sub-groups of the group.
+     * @throws Unauthorized If the authentication credentials are wrong.
+     * @throws InternalServerError If the RestAuth server suffered from an
+     *      internal error.
+     * @throws RequestFailed If making the request failed or the thread was
+     *      interrupted.
+     */
+    private List<String> take( CompletionService<List<String>> completion )
+            throws Unauthorized, InternalServerError, RequestFailed {
+        return Futures.get( Futures.take( completion ),
+                Unauthorized.class, InternalServerError.class );
+    }
+}
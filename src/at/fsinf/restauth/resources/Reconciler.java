@@ -0,0 +1,433 @@
+package at.fsinf.restauth.resources;
+
+import at.fsinf.restauth.common.Futures;
+import at.fsinf.restauth.common.ListCallback;
+import at.fsinf.restauth.common.RestAuthConnection;
+import at.fsinf.restauth.errors.RequestFailed;
+import at.fsinf.restauth.errors.ResourceNotFound;
+import at.fsinf.restauth.errors.RestAuthException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+
+/**
+ * Brings the RestAuth server in line with a desired state of users,
+ * properties and group memberships, i.e. one mirrored from another
+ * directory.
+ *
+ * {@link #plan} compares the desired state with the server and returns only
+ * the changes that are required. {@link #apply} then executes them in
+ * parallel: users and groups are created (and removed) first, group
+ * memberships are changed once that is done.
+ *
+ * Passwords cannot be compared, they are only set for users that are
+ * created. Group memberships are compared with the members returned by
+ * {@link Group#getUsers()}, which includes inherited memberships, so the
+ * groups in the desired state should not have meta-groups. By default,
+ * users, groups and properties that are not part of the desired state are
+ * left alone, see {@link #setDeleteExtra}. Like the RestAuth server,
+ * the reconciler treats the names of users and groups as case-insensitive.
+ *
+ * @author Mathias Ertl
+ */
+public class Reconciler {
+    private final RestAuthConnection conn;
+    private final int threads;
+    private boolean deleteExtra;
+
+    /**
+     * Creates a new reconciler.
+     *
+     * @param connection The (thread-safe) connection to use.
+     * @param threads The maximum number of requests made at the same time.
+     */
+    public Reconciler( RestAuthConnection connection, int threads ) {
+        if ( threads < 1 ) {
+            throw new IllegalArgumentException( "Threads must be greater than zero." );
+        }
+        this.conn = connection;
+        this.threads = threads;
+    }
+
+    /**
+     * Set if users, groups and properties that are not part of the desired
+     * state are removed. Note that the RestAuth server may add properties
+     * to new users on its own.
+     *
+     * @param deleteExtra True to remove them, the default is false.
+     */
+    public void setDeleteExtra( boolean deleteExtra ) {
+        this.deleteExtra = deleteExtra;
+    }
+
+    /**
+     * Compute the changes required to reach the desired state.
+     *
+     * @param users The desired users with their properties and groups.
+     * @param groups Additional groups that should exist, i.e. groups that
+     *      should have no members. Groups named by a {@link UserSpec} are
+     *      always part of the desired state.
+     * @return The changes, in the order they should be applied.
+     * @throws RestAuthException If fetching the current state fails.
+     */
+    public List<Change> plan( Iterable<UserSpec> users, Collection<String> groups )
+            throws RestAuthException {
+        Map<String, UserSpec> desiredUsers = new LinkedHashMap<String, UserSpec>();
+        Map<String, Set<String>> desiredMembers = new LinkedHashMap<String, Set<String>>();
+        for ( String group : groups ) {
+            desiredMembers.put( group.toLowerCase(), new HashSet<String>() );
+        }
+        for ( UserSpec spec : users ) {
+            String name = spec.getName().toLowerCase();
+            desiredUsers.put( name, spec );
+            for ( String group : spec.getGroups() ) {
+                Set<String> members = desiredMembers.get( group.toLowerCase() );
+                if ( members == null ) {
+                    members = new HashSet<String>();
+                    desiredMembers.put( group.toLowerCase(), members );
+                }
+                members.add( name );
+            }
+        }
+
+        final Set<String> existingUsers = new HashSet<String>();
+        User.getAll( this.conn, new ListCallback() {
+            public void item( String name ) {
+                existingUsers.add( name.toLowerCase() );
+            }
+        });
+        final Set<String> existingGroups = new HashSet<String>();
+        Group.getAll( this.conn, new ListCallback() {
+            public void item( String name ) {
+                existingGroups.add( name.toLowerCase() );
+            }
+        });
+
+        // fetch the properties of existing users and the members of existing groups
+        List<Callable<Object>> fetches = new ArrayList<Callable<Object>>();
+        final Map<String, Map<String, String>> properties =
+                new HashMap<String, Map<String, String>>();
+        final Map<String, Set<String>> members = new HashMap<String, Set<String>>();
+        for ( final String name : desiredUsers.keySet() ) {
+            if ( ! existingUsers.contains( name ) ) continue;
+            fetches.add( new Callable<Object>() {
+                public Object call() throws Exception {
+                    Map<String, String> props;
+                    try {
+                        props = new User( Reconciler.this.conn, name ).getProperties();
+                    } catch ( ResourceNotFound ex ) {
+                        props = new HashMap<String, String>();
+                    }
+                    synchronized ( properties ) {
+                        properties.put( name, props );
+                    }
+                    return null;
+                }
+            });
+        }
+        for ( final String group : desiredMembers.keySet() ) {
+            if ( ! existingGroups.contains( group ) ) continue;
+            fetches.add( new Callable<Object>() {
+                public Object call() throws Exception {
+                    Set<String> names = new HashSet<String>();
+                    try {
+                        List<User> users = new Group( Reconciler.this.conn, group ).getUsers();
+                        for ( User user : users ) {
+                            names.add( user.getName() ); // already lower case
+                        }
+                    } catch ( ResourceNotFound ex ) {
+                    }
+                    synchronized ( members ) {
+                        members.put( group, names );
+                    }
+                    return null;
+                }
+            });
+        }
+        this.runAll( fetches );
+
+        List<Change> changes = new ArrayList<Change>();
+        for ( String group : desiredMembers.keySet() ) {
+            if ( ! existingGroups.contains( group ) ) {
+                changes.add( new CreateGroup( group ) );
+            }
+        }
+        for ( Map.Entry<String, UserSpec> entry : desiredUsers.entrySet() ) {
+            String name = entry.getKey();
+            UserSpec spec = entry.getValue();
+            if ( ! existingUsers.contains( name ) ) {
+                changes.add( new CreateUser( spec ) );
+                continue;
+            }
+            Map<String, String> current = properties.get( name );
+            for ( Map.Entry<String, String> prop : spec.getProperties().entrySet() ) {
+                if ( ! prop.getValue().equals( current.get( prop.getKey() ) ) ) {
+                    changes.add( new SetProperty( name, prop.getKey(), prop.getValue() ) );
+                }
+            }
+            if ( this.deleteExtra ) {
+                for ( String prop : current.keySet() ) {
+                    if ( ! spec.getProperties().containsKey( prop ) ) {
+                        changes.add( new RemoveProperty( name, prop ) );
+                    }
+                }
+            }
+        }
+        Set<String> removedUsers = new HashSet<String>();
+        if ( this.deleteExtra ) {
+            for ( String name : existingUsers ) {
+                if ( ! desiredUsers.containsKey( name ) ) {
+                    changes.add( new RemoveUser( name ) );
+                    removedUsers.add( name );
+                }
+            }
+            for ( String group : existingGroups ) {
+                if ( ! desiredMembers.containsKey( group ) ) {
+                    changes.add( new RemoveGroup( group ) );
+                }
+            }
+        }
+
+        for ( Map.Entry<String, Set<String>> entry : desiredMembers.entrySet() ) {
+            String group = entry.getKey();
+            Set<String> current = members.get( group );
+            if ( current == null ) current = new HashSet<String>();
+            for ( String name : entry.getValue() ) {
+                if ( ! current.contains( name ) ) {
+                    changes.add( new AddMember( group, name ) );
+                }
+            }
+            for ( String name : current ) {
+                if ( ! entry.getValue().contains( name ) && ! removedUsers.contains( name ) ) {
+                    changes.add( new RemoveMember( group, name ) );
+                }
+            }
+        }
+        return changes;
+    }
+
+    /**
+     * Execute the given changes. Changes of the same phase are executed in
+     * parallel, a change that fails does not stop the other changes.
+     *
+     * @param changes The changes returned by {@link #plan}.
+     * @return The changes that failed, with the error that occurred. The map
+     *      is empty if all changes succeeded.
+     * @throws RequestFailed If the calling thread was interrupted.
+     */
+    public Map<Change, Exception> apply( List<Change> changes ) throws RequestFailed {
+        final Map<Change, Exception> failed = new LinkedHashMap<Change, Exception>();
+        Set<Integer> phases = new LinkedHashSet<Integer>();
+        phases.add( Change.PHASE_RESOURCES );
+        phases.add( Change.PHASE_MEMBERSHIPS );
+        for ( int phase : phases ) {
+            List<Callable<Object>> tasks = new ArrayList<Callable<Object>>();
+            for ( final Change change : changes ) {
+                if ( change.getPhase() != phase ) continue;
+                tasks.add( new Callable<Object>() {
+                    public Object call() {
+                        try {
+                            change.apply( Reconciler.this.conn );
+                        } catch ( Exception ex ) {
+                            synchronized ( failed ) {
+                                failed.put( change, ex );
+                            }
+                        }
+                        return null;
+                    }
+                });
+            }
+            try {
+                this.runAll( tasks );
+            } catch ( RequestFailed ex ) {
+                throw ex;
+            } catch ( RestAuthException ex ) {
+                throw new RequestFailed( ex ); // the tasks catch all exceptions
+            }
+        }
+        return failed;
+    }
+
+    /**
+     * Run tasks on a pool of threads and wait for all of them.
+     *
+     * @param tasks The tasks to run.
+     * @throws RestAuthException If a task failed.
+     */
+    private void runAll( List<Callable<Object>> tasks ) throws RestAuthException {
+        if ( tasks.isEmpty() ) return;
+        ExecutorService executor = Bulk.newPool( Math.min( this.threads, tasks.size() ) );
+        List<Future<Object>> futures;
+        try {
+            futures = executor.invokeAll( tasks );
+        } catch ( InterruptedException ex ) {
+            executor.shutdownNow();
+            Thread.currentThread().interrupt();
+            throw new RequestFailed( ex );
+        }
+        try {
+            for ( Future<Object> future : futures ) {
+                Futures.get( future, RestAuthException.class );
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    /**
+     * Creates a group.
+     */
+    private static class CreateGroup extends Change {
+        private final String group;
+
+        CreateGroup( String group ) {
+            super( Change.PHASE_RESOURCES, "create group " + group );
+            this.group = group;
+        }
+
+        @Override
+        void apply( RestAuthConnection connection ) throws RestAuthException {
+            Group.create( connection, this.group );
+        }
+    }
+
+    /**
+     * Removes a group.
+     */
+    private static class RemoveGroup extends Change {
+        private final String group;
+
+        RemoveGroup( String group ) {
+            super( Change.PHASE_RESOURCES, "remove group " + group );
+            this.group = group;
+        }
+
+        @Override
+        void apply( RestAuthConnection connection ) throws RestAuthException {
+            new Group( connection, this.group ).remove();
+        }
+    }
+
+    /**
+     * Creates a user with its password and properties.
+     */
+    private static class CreateUser extends Change {
+        private final UserSpec spec;
+
+        CreateUser( UserSpec spec ) {
+            super( Change.PHASE_RESOURCES, "create user " + spec.getName() );
+            this.spec = spec;
+        }
+
+        @Override
+        void apply( RestAuthConnection connection ) throws RestAuthException {
+            Map<String, String> properties = this.spec.getProperties();
+            User.create( connection, this.spec.getName(), this.spec.getPassword(),
+                    properties.isEmpty() ? null : new HashMap<String, String>( properties ) );
+        }
+    }
+
+    /**
+     * Removes a user.
+     */
+    private static class RemoveUser extends Change {
+        private final String name;
+
+        RemoveUser( String name ) {
+            super( Change.PHASE_RESOURCES, "remove user " + name );
+            this.name = name;
+        }
+
+        @Override
+        void apply( RestAuthConnection connection ) throws RestAuthException {
+            new User( connection, this.name ).remove();
+        }
+    }
+
+    /**
+     * Creates or updates a property.
+     */
+    private static class SetProperty extends Change {
+        private final String name;
+        private final String prop;
+        private final String value;
+
+        SetProperty( String name, String prop, String value ) {
+            super( Change.PHASE_RESOURCES, "set property " + prop + " of user " + name );
+            this.name = name;
+            this.prop = prop;
+            this.value = value;
+        }
+
+        @Override
+        void apply( RestAuthConnection connection ) throws RestAuthException {
+            new User( connection, this.name ).setProperty( this.prop, this.value );
+        }
+    }
+
+    /**
+     * Removes a property.
+     */
+    private static class RemoveProperty extends Change {
+        private final String name;
+        private final String prop;
+
+        RemoveProperty( String name, String prop ) {
+            super( Change.PHASE_RESOURCES, "remove property " + prop + " of user " + name );
+            this.name = name;
+            this.prop = prop;
+        }
+
+        @Override
+        void apply( RestAuthConnection connection ) throws RestAuthException {
+            new User( connection, this.name ).removeProperty( this.prop );
+        }
+    }
+
+    /**
+     * Adds a user to a group.
+     */
+    private static class AddMember extends Change {
+        private final String group;
+        private final String name;
+
+        AddMember( String group, String name ) {
+            super( Change.PHASE_MEMBERSHIPS, "add user " + name + " to group " + group );
+            this.group = group;
+            this.name = name;
+        }
+
+        @Override
+        void apply( RestAuthConnection connection ) throws RestAuthException {
+            new Group( connection, this.group ).addUser( this.name );
+        }
+    }
+
+    /**
+     * Removes a user from a group.
+     */
+    private static class RemoveMember extends Change {
+        private final String group;
+        private final String name;
+
+        RemoveMember( String group, String name ) {
+            super( Change.PHASE_MEMBERSHIPS, "remove user " + name + " from group " + group );
+            this.group = group;
+            this.name = name;
+        }
+
+        @Override
+        void apply( RestAuthConnection connection ) throws RestAuthException {
+            new Group( connection, this.group ).removeUser( this.name );
+        }
+    }
+}
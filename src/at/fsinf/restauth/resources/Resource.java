@@ -11,6 +11,12 @@ import java.util.Map;
  * @author Mathias Ertl
  */
 public abstract class Resource {
+    /**
+     * The number of requests {@link Group#setMembers(java.util.Collection)}
+     * and {@link User#setProperties(Map)} make at the same time.
+     */
+    public static final int DEFAULT_PARALLELISM = 8;
+
     /**
      * The name of the given resource.
      */
@@ -86,6 +92,34 @@ public abstract class Resource {
             put( String path, Map<String, Object> params )
             throws RestAuthException;
 
+    /**
+     * Perform a HTTP POST request with the given path prefixed by this
+     * resources prefix. The fields are alternating keys and values of a
+     * dictionary that only contains strings.
+     *
+     * @param path The path for the HTTP request.
+     * @param fields Alternating keys and values of the request body.
+     * @return The response of the request.
+     * @throws RestAuthException
+     */
+    protected abstract RestAuthResponse
+            post( String path, String... fields )
+            throws RestAuthException;
+
+    /**
+     * Perform a HTTP PUT request with the given path prefixed by this
+     * resources prefix. The fields are alternating keys and values of a
+     * dictionary that only contains strings.
+     *
+     * @param path The path for the HTTP request.
+     * @param fields Alternating keys and values of the request body.
+     * @return The response of the request.
+     * @throws RestAuthException
+     */
+    protected abstract RestAuthResponse
+            put( String path, String... fields )
+            throws RestAuthException;
+
     /**
      * Perform a HTTP DELETE request with the given path prefixed by this
      * resources prefix.
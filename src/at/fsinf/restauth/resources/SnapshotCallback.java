@@ -0,0 +1,22 @@
+package at.fsinf.restauth.resources;
+
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Receives the users stored in a snapshot written by {@link
+ * SnapshotExporter}.
+ *
+ * @author Mathias Ertl
+ */
+public interface SnapshotCallback {
+    /**
+     * Called once for every user in the snapshot, in the order they were
+     * written.
+     *
+     * @param name The name of the user.
+     * @param properties The properties of the user.
+     * @param groups The names of the groups the user is a member of.
+     */
+    public void user( String name, Map<String, String> properties, List<String> groups );
+}
@@ -0,0 +1,461 @@
+package at.fsinf.restauth.resources;
+
+import at.fsinf.restauth.common.Futures;
+import at.fsinf.restauth.common.ListCallback;
+import at.fsinf.restauth.common.RestAuthConnection;
+import at.fsinf.restauth.errors.RequestFailed;
+import at.fsinf.restauth.errors.ResourceNotFound;
+import at.fsinf.restauth.errors.RestAuthException;
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.RandomAccessFile;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Writes a snapshot of all users, their properties and their group
+ * memberships to a file. The properties and groups of up to a given number
+ * of users are fetched at the same time, so the connection should use a
+ * thread-safe, pooled transport.
+ *
+ * Users are written in the order of their names as soon as their data
+ * arrives. Every few users, the position in the file is recorded in a
+ * checkpoint file next to the snapshot (the name of the snapshot with
+ * ".checkpoint" appended). If an export is interrupted, calling {@link
+ * #export} again with the same file continues after the last checkpoint. The
+ * checkpoint file is removed once the export is complete. Users created
+ * after an export was started may be missing from the snapshot.
+ *
+ * The snapshot uses a compact binary format, use {@link #read} to read it.
+ * The counters of an exporter may be queried from another thread while the
+ * export is running.
+ *
+ * @author Mathias Ertl
+ */
+public class SnapshotExporter {
+    private static final byte[] MAGIC = { 'R', 'A', 'S', 'N', 'A', 'P', 1 };
+    private static final int RECORD = 1;
+    private static final int END = 0;
+
+    private final RestAuthConnection conn;
+    private final int threads;
+    private int checkpointInterval = 1000;
+
+    private final AtomicLong exported = new AtomicLong();
+    private final AtomicLong skipped = new AtomicLong();
+    private final AtomicLong bytesWritten = new AtomicLong();
+    private volatile long started;
+    private volatile long finished;
+
+    /**
+     * The data of a single user.
+     */
+    private static class Record {
+        final String name;
+        final Map<String, String> properties;
+        final List<Group> groups;
+
+        Record( String name, Map<String, String> properties, List<Group> groups ) {
+            this.name = name;
+            this.properties = properties;
+            this.groups = groups;
+        }
+    }
+
+    /**
+     * Creates a new exporter.
+     *
+     * @param connection The (thread-safe) connection to use.
+     * @param threads The maximum number of users fetched at the same time.
+     */
+    public SnapshotExporter( RestAuthConnection connection, int threads ) {
+        if ( threads < 1 ) {
+            throw new IllegalArgumentException( "Threads must be greater than zero." );
+        }
+        this.conn = connection;
+        this.threads = threads;
+    }
+
+    /**
+     * Set after how many users a checkpoint is written. The default is 1000.
+     *
+     * @param users The number of users between two checkpoints.
+     */
+    public void setCheckpointInterval( int users ) {
+        if ( users < 1 ) {
+            throw new IllegalArgumentException( "Interval must be greater than zero." );
+        }
+        this.checkpointInterval = users;
+    }
+
+    /**
+     * Export all users to the given file, or continue an interrupted export.
+     *
+     * @param file The file to write the snapshot to.
+     * @throws RestAuthException If fetching the data of a user failed. The
+     *      users written until then are recorded in the checkpoint, as they
+     *      are for unchecked exceptions.
+     * @throws IOException If writing the snapshot fails.
+     */
+    public void export( File file ) throws RestAuthException, IOException {
+        File checkpointFile = SnapshotExporter.getCheckpointFile( file );
+        Properties checkpoint = new Properties();
+        long offset = 0;
+        String last = null;
+        if ( checkpointFile.exists() ) {
+            InputStream in = new FileInputStream( checkpointFile );
+            try {
+                checkpoint.load( in );
+            } finally {
+                in.close();
+            }
+            offset = Long.parseLong( checkpoint.getProperty( "offset" ) );
+            last = checkpoint.getProperty( "last" );
+            this.exported.set( Long.parseLong( checkpoint.getProperty( "exported" ) ) );
+            this.skipped.set( Long.parseLong( checkpoint.getProperty( "skipped" ) ) );
+
+            // remove whatever was written after the checkpoint
+            RandomAccessFile raf = new RandomAccessFile( file, "rw" );
+            try {
+                raf.setLength( offset );
+            } finally {
+                raf.close();
+            }
+        } else {
+            this.exported.set( 0 );
+            this.skipped.set( 0 );
+        }
+        this.bytesWritten.set( offset );
+        this.started = System.currentTimeMillis();
+        this.finished = 0;
+
+        List<String> names = this.getNames( last );
+        FileOutputStream fos = new FileOutputStream( file, offset > 0 );
+        OutputStream out = new BufferedOutputStream( fos, 64 * 1024 );
+        ExecutorService executor = Bulk.newPool( this.threads );
+        try {
+            if ( offset == 0 ) {
+                out.write( SnapshotExporter.MAGIC );
+                this.bytesWritten.addAndGet( SnapshotExporter.MAGIC.length );
+            }
+
+            LinkedList<Future<Record>> pending = new LinkedList<Future<Record>>();
+            int sinceCheckpoint = 0;
+            for ( final String name : names ) {
+                if ( pending.size() == this.threads * 2 ) {
+                    last = this.write( out, pending.removeFirst(), last );
+                    if ( ++sinceCheckpoint == this.checkpointInterval ) {
+                        this.checkpoint( checkpointFile, out, last );
+                        sinceCheckpoint = 0;
+                    }
+                }
+                pending.add( executor.submit( new Callable<Record>() {
+                    public Record call() throws Exception {
+                        return SnapshotExporter.this.fetch( name );
+                    }
+                } ) );
+            }
+            while ( ! pending.isEmpty() ) {
+                last = this.write( out, pending.removeFirst(), last );
+            }
+
+            out.write( SnapshotExporter.END );
+            this.bytesWritten.incrementAndGet();
+            out.close();
+            checkpointFile.delete();
+            this.finished = System.currentTimeMillis();
+        } catch ( RestAuthException ex ) {
+            this.checkpoint( checkpointFile, out, last );
+            out.close();
+            throw ex;
+        } catch ( RuntimeException ex ) {
+            this.checkpoint( checkpointFile, out, last );
+            out.close();
+            throw ex;
+        } finally {
+            executor.shutdownNow();
+            fos.close();
+        }
+    }
+
+    /**
+     * Read a snapshot.
+     *
+     * @param in The snapshot written by {@link #export}.
+     * @param callback The callback receiving every user in the snapshot.
+     * @throws IOException If the snapshot cannot be read or is incomplete.
+     */
+    public static void read( InputStream in, SnapshotCallback callback ) throws IOException {
+        DataInputStream data = new DataInputStream( new BufferedInputStream( in ) );
+        byte[] magic = new byte[SnapshotExporter.MAGIC.length];
+        data.readFully( magic );
+        if ( ! Arrays.equals( magic, SnapshotExporter.MAGIC ) ) {
+            throw new IOException( "Not a RestAuth snapshot" );
+        }
+
+        int marker;
+        while ( ( marker = data.read() ) == SnapshotExporter.RECORD ) {
+            String name = SnapshotExporter.readString( data );
+            int count = SnapshotExporter.readVarInt( data );
+            Map<String, String> properties = new HashMap<String, String>( count * 2 );
+            for ( int i = 0; i < count; i++ ) {
+                properties.put( SnapshotExporter.readString( data ),
+                        SnapshotExporter.readString( data ) );
+            }
+            count = SnapshotExporter.readVarInt( data );
+            List<String> groups = new ArrayList<String>( count );
+            for ( int i = 0; i < count; i++ ) {
+                groups.add( SnapshotExporter.readString( data ) );
+            }
+            callback.user( name, properties, groups );
+        }
+        if ( marker != SnapshotExporter.END ) {
+            throw new EOFException( "Snapshot is incomplete" );
+        }
+    }
+
+    /**
+     * Get the number of users written to the snapshot.
+     *
+     * @return The number of exported users.
+     */
+    public long getExported() {
+        return this.exported.get();
+    }
+
+    /**
+     * Get the number of users that were removed while the snapshot was being
+     * written and are therefore missing from it.
+     *
+     * @return The number of skipped users.
+     */
+    public long getSkipped() {
+        return this.skipped.get();
+    }
+
+    /**
+     * Get the size of the snapshot written so far.
+     *
+     * @return The number of bytes written.
+     */
+    public long getBytesWritten() {
+        return this.bytesWritten.get();
+    }
+
+    /**
+     * Get the time spent on the current (or last) export. Time spent on
+     * earlier, interrupted exports of the same file is not included.
+     *
+     * @return The elapsed time in milliseconds.
+     */
+    public long getElapsedMillis() {
+        if ( this.started == 0 ) return 0;
+        long end = this.finished == 0 ? System.currentTimeMillis() : this.finished;
+        return end - this.started;
+    }
+
+    /**
+     * Get a short report on the throughput of the current (or last) export,
+     * i.e. "1000 users (0 skipped, 52341 bytes) in 1.250s, 800.0 users/s".
+     *
+     * @return The report.
+     */
+    public String getReport() {
+        long millis = this.getElapsedMillis();
+        double rate = millis == 0 ? 0 : this.exported.get() * 1000.0 / millis;
+        return String.format( "%d users (%d skipped, %d bytes) in %.3fs, %.1f users/s",
+                this.exported.get(), this.skipped.get(), this.bytesWritten.get(),
+                millis / 1000.0, rate );
+    }
+
+    /**
+     * Get the file used to record the progress of an export.
+     *
+     * @param file The snapshot.
+     * @return The checkpoint file.
+     */
+    public static File getCheckpointFile( File file ) {
+        return new File( file.getPath() + ".checkpoint" );
+    }
+
+    /**
+     * Get the sorted names of all users that still have to be exported.
+     *
+     * @param last The last user that was already exported, or null.
+     * @return The names of the users.
+     * @throws RestAuthException If the users cannot be fetched.
+     */
+    private List<String> getNames( final String last ) throws RestAuthException {
+        final List<String> names = new ArrayList<String>();
+        User.getAll( this.conn, new ListCallback() {
+            public void item( String name ) {
+                if ( last == null || name.compareTo( last ) > 0 ) names.add( name );
+            }
+        });
+        String[] sorted = names.toArray( new String[names.size()] );
+        Arrays.sort( sorted );
+        return Arrays.asList( sorted );
+    }
+
+    /**
+     * Fetch the properties and groups of a user.
+     *
+     * @param name The name of the user.
+     * @return The data of the user, or null if the user no longer exists.
+     * @throws RestAuthException If a request fails.
+     */
+    private Record fetch( String name ) throws RestAuthException {
+        User user = new User( this.conn, name );
+        try {
+            return new Record( name, user.getProperties(), user.getGroups() );
+        } catch ( ResourceNotFound ex ) {
+            return null;
+        }
+    }
+
+    /**
+     * Wait for the data of a user and append it to the snapshot.
+     *
+     * @param out The snapshot.
+     * @param future The pending data of the user.
+     * @param last The name of the last user written before.
+     * @return The name of the last user written.
+     * @throws RestAuthException If fetching the data failed.
+     * @throws IOException If writing fails.
+     */
+    private String write( OutputStream out, Future<Record> future, String last )
+            throws RestAuthException, IOException {
+        Record record = Futures.get( future, RestAuthException.class );
+        if ( record == null ) {
+            this.skipped.incrementAndGet();
+            return last;
+        }
+
+        long length = 1;
+        out.write( SnapshotExporter.RECORD );
+        length += this.writeString( out, record.name );
+        length += this.writeVarInt( out, record.properties.size() );
+        for ( Map.Entry<String, String> entry : record.properties.entrySet() ) {
+            length += this.writeString( out, entry.getKey() );
+            length += this.writeString( out, entry.getValue() );
+        }
+        length += this.writeVarInt( out, record.groups.size() );
+        for ( Group group : record.groups ) {
+            length += this.writeString( out, group.getName() );
+        }
+        this.bytesWritten.addAndGet( length );
+        this.exported.incrementAndGet();
+        return record.name;
+    }
+
+    /**
+     * Flush the snapshot and record the progress in the checkpoint file.
+     *
+     * @param checkpointFile The checkpoint file.
+     * @param out The snapshot.
+     * @param last The name of the last user written.
+     * @throws IOException If writing fails.
+     */
+    private void checkpoint( File checkpointFile, OutputStream out, String last )
+            throws IOException {
+        out.flush();
+        Properties checkpoint = new Properties();
+        checkpoint.setProperty( "offset", Long.toString( this.bytesWritten.get() ) );
+        if ( last != null ) checkpoint.setProperty( "last", last );
+        checkpoint.setProperty( "exported", Long.toString( this.exported.get() ) );
+        checkpoint.setProperty( "skipped", Long.toString( this.skipped.get() ) );
+
+        File tmp = new File( checkpointFile.getPath() + ".tmp" );
+        OutputStream cp = new FileOutputStream( tmp );
+        try {
+            checkpoint.store( cp, "RestAuth snapshot checkpoint" );
+        } finally {
+            cp.close();
+        }
+        checkpointFile.delete();
+        if ( ! tmp.renameTo( checkpointFile ) ) {
+            throw new IOException( "Unable to write " + checkpointFile );
+        }
+    }
+
+    /**
+     * Write a length-prefixed UTF-8 string.
+     *
+     * @param out The stream to write to.
+     * @param value The string.
+     * @return The number of bytes written.
+     * @throws IOException If writing fails.
+     */
+    private int writeString( OutputStream out, String value ) throws IOException {
+        byte[] bytes = value.getBytes( "UTF-8" );
+        int length = this.writeVarInt( out, bytes.length );
+        out.write( bytes );
+        return length + bytes.length;
+    }
+
+    /**
+     * Write a non-negative integer using seven bits per byte.
+     *
+     * @param out The stream to write to.
+     * @param value The integer.
+     * @return The number of bytes written.
+     * @throws IOException If writing fails.
+     */
+    private int writeVarInt( OutputStream out, int value ) throws IOException {
+        int length = 1;
+        while ( ( value & ~0x7f ) != 0 ) {
+            out.write( ( value & 0x7f ) | 0x80 );
+            value >>>= 7;
+            length++;
+        }
+        out.write( value );
+        return length;
+    }
+
+    /**
+     * Read a length-prefixed UTF-8 string.
+     *
+     * @param in The stream to read from.
+     * @return The string.
+     * @throws IOException If reading fails.
+     */
+    private static String readString( DataInputStream in ) throws IOException {
+        byte[] bytes = new byte[SnapshotExporter.readVarInt( in )];
+        in.readFully( bytes );
+        return new String( bytes, "UTF-8" );
+    }
+
+    /**
+     * Read an integer written by {@link #writeVarInt}.
+     *
+     * @param in The stream to read from.
+     * @return The integer.
+     * @throws IOException If reading fails.
+     */
+    private static int readVarInt( DataInputStream in ) throws IOException {
+        int value = 0;
+        for ( int shift = 0; shift < 35; shift += 7 ) {
+            int b = in.readUnsignedByte();
+            value |= ( b & 0x7f ) << shift;
+            if ( ( b & 0x80 ) == 0 ) return value;
+        }
+        throw new IOException( "Malformed snapshot" );
+    }
+}
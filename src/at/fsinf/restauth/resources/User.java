@@ -1,9 +1,17 @@
 package at.fsinf.restauth.resources;
 
+import at.fsinf.restauth.common.EntityTags;
+import at.fsinf.restauth.common.ExistenceCache;
+import at.fsinf.restauth.common.Futures;
+import at.fsinf.restauth.common.ListCallback;
+import at.fsinf.restauth.common.MembershipCache;
+import at.fsinf.restauth.common.PasswordCache;
+import at.fsinf.restauth.common.PropertyCache;
 import at.fsinf.restauth.common.RestAuthConnection;
 import at.fsinf.restauth.common.RestAuthResponse;
 import at.fsinf.restauth.errors.InternalServerError;
 import at.fsinf.restauth.errors.PreconditionFailed;
+import at.fsinf.restauth.errors.PreconditionIgnored;
 import at.fsinf.restauth.errors.PropertyExists;
 import at.fsinf.restauth.errors.RequestFailed;
 import at.fsinf.restauth.errors.ResourceNotFound;
@@ -12,9 +20,18 @@ import at.fsinf.restauth.errors.UnknownStatus;
 import at.fsinf.restauth.errors.UserExists;
 import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletionService;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.FutureTask;
+import org.apache.http.Header;
 import org.apache.http.HttpStatus;
+import org.apache.http.message.BasicHeader;
 
 /**
  * An instance of the User class represents a user in the RestAuth service.
@@ -53,8 +70,18 @@ public class User extends Resource {
      */
     public static User get( RestAuthConnection connection, String name )
             throws ResourceNotFound, Unauthorized, InternalServerError, RequestFailed {
-        String path = String.format( "%s%s/", User.prefix, name );
-        RestAuthResponse response = connection.get( path );
+        ExistenceCache cache = connection.getExistenceCache();
+        RestAuthResponse response = null;
+        long generation = 0;
+        if ( cache != null ) {
+            generation = cache.getGeneration( ExistenceCache.USER, name );
+            response = cache.get( ExistenceCache.USER, name );
+        }
+        if ( response == null ) {
+            String path = String.format( "%s%s/", User.prefix, name );
+            response = connection.get( path );
+            if ( cache != null ) cache.put( ExistenceCache.USER, name, response, generation );
+        }
         int respCode = response.getStatusCode();
         
         if ( respCode == HttpStatus.SC_NO_CONTENT ) {
@@ -66,30 +93,104 @@ public class User extends Resource {
         }
     }
 
+    /**
+     * Fetch the properties and groups of a user at the same time. The groups
+     * are fetched by the given executor (i.e. the one of an {@link
+     * at.fsinf.restauth.common.AsyncRestAuthConnection}) while the calling
+     * thread fetches the properties, so this takes about as long as the
+     * slower of the two requests if the executor has an idle thread. A
+     * separate existence check is not needed, both requests fail with a
+     * {@link ResourceNotFound} if the user does not exist.
+     *
+     * The connection is used by two threads at once, so it should use a
+     * thread-safe transport. The executor should not be one whose threads may
+     * be waiting in this method, or the group request may never run.
+     *
+     * @param connection The connection to use when making requests.
+     * @param name The name of the user.
+     * @param executor The executor used for fetching the groups.
+     * @return The profile of the user.
+     * @throws ResourceNotFound If the user in question does not exist.
+     * @throws Unauthorized If the authentication credentials are wrong.
+     * @throws InternalServerError If the RestAuth server suffered from an
+     *      internal error.
+     * @throws RequestFailed If making the request failed (that is, never
+     *      reached the RestAuth server) or the calling thread was
+     *      interrupted.
+     */
+    public static UserProfile fetchProfile( RestAuthConnection connection, String name,
+            Executor executor )
+            throws ResourceNotFound, Unauthorized, InternalServerError, RequestFailed {
+        final User user = new User( connection, name );
+        FutureTask<List<Group>> groups = new FutureTask<List<Group>>(
+                new Callable<List<Group>>() {
+            public List<Group> call() throws Exception {
+                return user.getGroups();
+            }
+        });
+        executor.execute( groups );
+
+        Map<String, String> properties = null;
+        try {
+            properties = user.getProperties();
+        } finally {
+            if ( properties == null ) groups.cancel( true );
+        }
+
+        try {
+            return new UserProfile( user, properties, Futures.get( groups,
+                    ResourceNotFound.class, Unauthorized.class, InternalServerError.class ) );
+        } finally {
+            groups.cancel( true ); // only has an effect if interrupted
+        }
+    }
+
     /**
      * Factory method that gets all users currently known to RestAuth.
      *
+     * The returned list only stores the names of the users, the {@link User}
+     * objects are created when they are accessed.
+     *
      * @param connection The connection to use when making requests.
-     * @return A list of all users known to RestAuth
+     * @return A read-only list of all users known to RestAuth
      * @throws Unauthorized If the authentication credentials are wrong.
      * @throws InternalServerError If the RestAuth server suffered from an
      *      internal error.
      * @throws RequestFailed If making the request failed (that is, never
      *      reached the RestAuth server).
      */
-    public static List<User> getAll( RestAuthConnection connection )
+    public static List<User> getAll( final RestAuthConnection connection )
             throws Unauthorized, InternalServerError, RequestFailed {
-        RestAuthResponse response = connection.get( User.prefix );
-        int respCode = response.getStatusCode();
-        if ( respCode == HttpStatus.SC_OK ) {
-            String raw_body = response.getBody();
-            List<String> names = connection.handler.unmarshal_list(raw_body);
-            List<User> users = new ArrayList<User>();
-            for ( String name : names ) {
-                users.add( new User( connection, name ) );
+        final UserList users = new UserList( connection );
+        User.getAll( connection, new ListCallback() {
+            public void item( String name ) {
+                users.append( name );
             }
+        });
+        users.trimToSize();
+        return users;
+    }
 
-            return users;
+    /**
+     * Get the names of all users currently known to RestAuth. The names are
+     * passed to the callback one at a time while the response is being read,
+     * so the complete list never has to be kept in memory.
+     *
+     * @param connection The connection to use when making requests.
+     * @param callback The callback receiving the names.
+     * @throws Unauthorized If the authentication credentials are wrong.
+     * @throws InternalServerError If the RestAuth server suffered from an
+     *      internal error.
+     * @throws RequestFailed If making the request failed (that is, never
+     *      reached the RestAuth server).
+     */
+    public static void getAll( RestAuthConnection connection, ListCallback callback )
+            throws Unauthorized, InternalServerError, RequestFailed {
+        RestAuthResponse response = connection.getList( User.prefix, callback );
+        int respCode = response.getStatusCode();
+
+        if ( respCode == HttpStatus.SC_OK ) {
+            return;
         } else {
             throw new UnknownStatus( response );
         }
@@ -100,21 +201,26 @@ public class User extends Resource {
             throws Unauthorized, InternalServerError, RequestFailed, UserExists,
                 PreconditionFailed
     {
-        HashMap<String, Object> params = new HashMap<String, Object>();
-        params.put( "user", name );
-        if ( password != null ) {
-            params.put( "password", password );
-        }
-        if ( properties != null ) {
+        RestAuthResponse response;
+        if ( properties == null ) {
+            response = connection.post( User.prefix, "user", name, "password", password );
+        } else {
+            HashMap<String, Object> params = new HashMap<String, Object>();
+            params.put( "user", name );
+            if ( password != null ) {
+                params.put( "password", password );
+            }
             params.put( "properties", properties );
+            response = connection.post( User.prefix, params );
         }
-
-        RestAuthResponse response = connection.post( User.prefix, params );
         int respCode = response.getStatusCode();
 
+        ExistenceCache cache = connection.getExistenceCache();
         if ( respCode == HttpStatus.SC_CREATED ) {
+            if ( cache != null ) cache.putExisting( ExistenceCache.USER, name );
             return new User( connection, name );
         } else if ( respCode == HttpStatus.SC_CONFLICT ) {
+            if ( cache != null ) cache.putExisting( ExistenceCache.USER, name );
             throw new UserExists( response );
         } else if ( respCode == HttpStatus.SC_PRECONDITION_FAILED ) {
             throw new PreconditionFailed( response );
@@ -168,6 +274,93 @@ public class User extends Resource {
     {
         return User.create(connection, name, null, null);
     }
+
+    /**
+     * Factory method that creates many users at once. Up to parallelism users
+     * are created at the same time, each with its properties and followed by
+     * adding it to its groups. The specs are only read as fast as users are
+     * created, so at most twice parallelism specs are held in memory.
+     *
+     * The outcome of every user is passed to the callback, errors like
+     * {@link UserExists} or {@link PreconditionFailed} do not stop the
+     * remaining users from being created.
+     *
+     * The connection is used by several threads at once, so it should use a
+     * thread-safe transport.
+     *
+     * @param connection The connection to use when making requests.
+     * @param specs The descriptions of the users to create.
+     * @param parallelism The maximum number of users created at the same
+     *      time.
+     * @param callback The callback receiving the outcome of every user.
+     * @throws RequestFailed If the calling thread was interrupted. Users that
+     *      have not been created yet are skipped.
+     */
+    public static void createAll( final RestAuthConnection connection,
+            Iterable<UserSpec> specs, int parallelism, CreateCallback callback )
+            throws RequestFailed {
+        if ( parallelism < 1 ) {
+            throw new IllegalArgumentException( "Parallelism must be greater than zero." );
+        }
+        ExecutorService executor = Bulk.newPool( parallelism );
+        CompletionService<CreateResult> completion =
+                new ExecutorCompletionService<CreateResult>( executor );
+        int pending = 0;
+        try {
+            for ( final UserSpec spec : specs ) {
+                if ( pending == parallelism * 2 ) {
+                    callback.done( User.take( completion ) );
+                    pending--;
+                }
+                completion.submit( new Callable<CreateResult>() {
+                    public CreateResult call() {
+                        return spec.provision( connection );
+                    }
+                });
+                pending++;
+            }
+            for ( ; pending > 0; pending-- ) {
+                callback.done( User.take( completion ) );
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    /**
+     * Factory method that creates many users at once and collects the
+     * outcomes.
+     *
+     * @param connection The connection to use when making requests.
+     * @param specs The descriptions of the users to create.
+     * @param parallelism The maximum number of users created at the same
+     *      time.
+     * @return The outcome of every user, in the order the requests finished.
+     * @throws RequestFailed If the calling thread was interrupted.
+     * @see #createAll(RestAuthConnection, Iterable, int, CreateCallback)
+     */
+    public static List<CreateResult> createAll( RestAuthConnection connection,
+            Iterable<UserSpec> specs, int parallelism ) throws RequestFailed {
+        final List<CreateResult> results = new ArrayList<CreateResult>();
+        User.createAll( connection, specs, parallelism, new CreateCallback() {
+            public void done( CreateResult result ) {
+                results.add( result );
+            }
+        });
+        return results;
+    }
+
+    /**
+     * Wait for the next user created by {@link #createAll}.
+     *
+     * @param completion The completion service running the requests.
+     * @return The outcome.
+     * @throws RequestFailed If the thread was interrupted.
+     */
+    private static CreateResult take( CompletionService<CreateResult> completion )
+            throws RequestFailed {
+        return Futures.get( Futures.take( completion ) );
+    }
     
     /**
      * Set the password of this user.
@@ -184,14 +377,13 @@ public class User extends Resource {
             throws Unauthorized, ResourceNotFound, RequestFailed,
                 InternalServerError
     {
-        HashMap<String, Object> params = new HashMap<String, Object>();
-        params.put( "password", newPassword );
-
+        this.invalidatePassword();
         String path = String.format( "%s/", this.name );
-        RestAuthResponse response = this.put( path, params );
+        RestAuthResponse response = this.put( path, "password", newPassword );
         int respCode = response.getStatusCode();
 
         if ( respCode == HttpStatus.SC_NO_CONTENT ) {
+            this.invalidatePassword();
             return;
         } else if ( respCode == HttpStatus.SC_NOT_FOUND ) {
             throw new ResourceNotFound( response );
@@ -213,13 +405,13 @@ public class User extends Resource {
      */
     public void disableUser()
             throws Unauthorized, ResourceNotFound, InternalServerError, RequestFailed {
-        HashMap<String, Object> params = new HashMap<String, Object>();
-
+        this.invalidatePassword();
         String path = String.format( "%s/", this.name );
-        RestAuthResponse response = this.put( path, params );
+        RestAuthResponse response = this.put( path );
         int respCode = response.getStatusCode();
 
         if ( respCode == HttpStatus.SC_NO_CONTENT ) {
+            this.invalidatePassword();
             return;
         } else if ( respCode == HttpStatus.SC_NOT_FOUND ) {
             throw new ResourceNotFound( response );
@@ -234,6 +426,9 @@ public class User extends Resource {
      * Note that this method does not distinguish between a false password and a
      * user that does not exist.
      *
+     * If the connection has a {@link PasswordCache}, a password that was
+     * recently verified successfully is not sent to the server again.
+     *
      * @param password The password to verify.
      * @return true if the password is correct, false otherwise.
      * @throws Unauthorized If the authentication credentials are wrong.
@@ -244,14 +439,20 @@ public class User extends Resource {
      */
     public boolean verifyPassword( String password )
             throws Unauthorized, InternalServerError, RequestFailed {
-        HashMap<String, Object> params = new HashMap<String, Object>();
-        params.put( "password", password );
+        PasswordCache cache = this.conn.getPasswordCache();
+        long generation = 0;
+        if ( cache != null ) {
+            if ( cache.verify( this.name, password ) ) return true;
+            generation = cache.getGeneration( this.name );
+        }
 
         String path = String.format( "%s/", this.name );
-        RestAuthResponse response = this.post( path, params );
+        RestAuthResponse response = this.post( path, "password", password );
         int respCode = response.getStatusCode();
 
         if ( respCode == HttpStatus.SC_NO_CONTENT ) {
+            // not stored if the password was changed while verifying it
+            if ( cache != null ) cache.put( this.name, password, generation );
             return true;
         } else if ( respCode == HttpStatus.SC_NOT_FOUND ) {
             return false;
@@ -273,14 +474,25 @@ public class User extends Resource {
      */
     public Map<String, String> getProperties()
             throws ResourceNotFound, Unauthorized, InternalServerError, RequestFailed {
+        PropertyCache cache = this.conn.getPropertyCache();
+        long version = 0;
+        if ( cache != null ) {
+            Map<String, String> cached = cache.getProperties( this.name );
+            if ( cached != null ) return cached;
+            version = cache.getVersion( this.name );
+        }
+
         String path = String.format( "%s/props/", this.name );
         RestAuthResponse response = this.get( path );
         int respCode = response.getStatusCode();
 
         if ( respCode == HttpStatus.SC_OK ) {
-            String body = response.getBody();
-            return conn.handler.unmarshal_dictionary(body);
+            Map<String, String> properties = this.conn.unmarshal_dictionary( response );
+            // not stored if a property was written while fetching
+            if ( cache != null ) cache.setProperties( this.name, properties, version );
+            return properties;
         } else if ( respCode == HttpStatus.SC_NOT_FOUND ) {
+            this.invalidateProperties();
             throw new ResourceNotFound( response );
         } else {
             throw new UnknownStatus( response );
@@ -303,19 +515,19 @@ public class User extends Resource {
      */
     public void createProperty( String propName, String value )
             throws PropertyExists, Unauthorized, ResourceNotFound, InternalServerError, RequestFailed {
-        HashMap<String, Object> params = new HashMap<String, Object>();
-        params.put( "prop", propName );
-        params.put( "value", value );
-
         String path = String.format( "%s/props/", this.name );
-        RestAuthResponse response = this.post( path, params );
+        RestAuthResponse response = this.post( path, "prop", propName, "value", value );
         int respCode = response.getStatusCode();
 
         if ( respCode == HttpStatus.SC_CREATED ) {
+            PropertyCache cache = this.conn.getPropertyCache();
+            if ( cache != null ) cache.setProperty( this.name, propName, value );
             return;
         } else if ( respCode == HttpStatus.SC_NOT_FOUND ) {
+            this.invalidateProperties();
             throw new ResourceNotFound( response );
         } else if ( respCode == HttpStatus.SC_CONFLICT ) {
+            this.invalidateProperties();
             throw new PropertyExists( response );
         } else {
             throw new UnknownStatus( response );
@@ -338,18 +550,203 @@ public class User extends Resource {
      */
     public String setProperty( String propName, String value )
             throws Unauthorized, ResourceNotFound, InternalServerError, RequestFailed {
-        HashMap<String, Object> params = new HashMap<String, Object>();
-        params.put( "value", value );
-
         String path = String.format( "%s/props/%s/", this.name, propName );
-        RestAuthResponse response = this.put( path, params );
+        RestAuthResponse response = this.put( path, "value", value );
         int respCode = response.getStatusCode();
 
+        PropertyCache cache = this.conn.getPropertyCache();
         if ( respCode == HttpStatus.SC_OK ) {
-             return this.conn.handler.unmarshal_string( response.getBody() );
+            if ( cache != null ) cache.setProperty( this.name, propName, value );
+            return this.conn.getContentHandler( response ).unmarshal_string(
+                    response.getRawBody(), response.getCharset() );
         } else if ( respCode == HttpStatus.SC_CREATED ) {
+            if ( cache != null ) cache.setProperty( this.name, propName, value );
             return null;
         } else if ( respCode == HttpStatus.SC_NOT_FOUND ) {
+            this.invalidateProperties();
+            throw new ResourceNotFound( response );
+        } else {
+            throw new UnknownStatus( response );
+        }
+    }
+
+    /**
+     * Set several properties of this user, using a pool of {@link
+     * #DEFAULT_PARALLELISM} threads that is created for this call. The
+     * current properties are fetched first.
+     *
+     * @param properties The names and new values of the properties.
+     * @return The properties that could not be set, with the error that
+     *      occurred. The map is empty if all requests succeeded.
+     * @throws ResourceNotFound If the user in question does not exist.
+     * @throws Unauthorized If the authentication credentials are wrong.
+     * @throws InternalServerError If the RestAuth server suffered from an
+     *      internal error.
+     * @throws RequestFailed If making the request failed (that is, never
+     *      reached the RestAuth server) or the calling thread was
+     *      interrupted.
+     * @see #setProperties(Map, Map, Executor)
+     */
+    public Map<String, Exception> setProperties( Map<String, String> properties )
+            throws ResourceNotFound, Unauthorized, InternalServerError, RequestFailed {
+        ExecutorService executor = Bulk.newPool( Resource.DEFAULT_PARALLELISM );
+        try {
+            return this.setProperties( properties, null, executor );
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    /**
+     * Set several properties of this user. Properties that already have the
+     * new value in the snapshot are skipped, the remaining properties are set
+     * by the given executor (i.e. the one of an {@link
+     * at.fsinf.restauth.common.AsyncRestAuthConnection}), so the connection
+     * should use a thread-safe transport.
+     *
+     * A property that cannot be set does not stop the other properties from
+     * being set. This includes properties the executor rejects (i.e. because
+     * it was shut down), they are reported with the {@link
+     * java.util.concurrent.RejectedExecutionException}.
+     *
+     * @param properties The names and new values of the properties, the
+     *      values must not be null.
+     * @param snapshot The known current properties of this user (i.e. from
+     *      an earlier call to {@link #getProperties()}), or null to fetch
+     *      them. A stale snapshot may cause properties to be skipped even
+     *      though they were changed in the meantime.
+     * @param executor The executor used for setting the properties.
+     * @return The properties that could not be set, with the error that
+     *      occurred. The map is empty if all requests succeeded.
+     * @throws ResourceNotFound If the snapshot is fetched and the user in
+     *      question does not exist.
+     * @throws Unauthorized If the authentication credentials are wrong.
+     * @throws InternalServerError If the RestAuth server suffered from an
+     *      internal error.
+     * @throws RequestFailed If making the request failed (that is, never
+     *      reached the RestAuth server) or the calling thread was
+     *      interrupted.
+     */
+    public Map<String, Exception> setProperties( Map<String, String> properties,
+            Map<String, String> snapshot, Executor executor )
+            throws ResourceNotFound, Unauthorized, InternalServerError, RequestFailed {
+        if ( properties.containsValue( null ) ) {
+            throw new IllegalArgumentException( "Property values must not be null." );
+        }
+        if ( snapshot == null ) {
+            snapshot = this.getProperties();
+        }
+
+        Map<String, Callable<Object>> tasks = new LinkedHashMap<String, Callable<Object>>();
+        for ( final Map.Entry<String, String> prop : properties.entrySet() ) {
+            if ( prop.getValue().equals( snapshot.get( prop.getKey() ) ) ) continue;
+            tasks.put( prop.getKey(), new Callable<Object>() {
+                public Object call() throws Exception {
+                    return User.this.setProperty( prop.getKey(), prop.getValue() );
+                }
+            });
+        }
+        return Bulk.run( executor, tasks );
+    }
+
+    /**
+     * Set a property of this user, but only if it currently has the expected
+     * value. The check and the update are done by the RestAuth server in a
+     * single request (using an If-Match header with the {@link EntityTags
+     * entity tag} of the expected value), so no other client can change the
+     * property in between.
+     *
+     * The RestAuth server has to confirm that it checked the precondition by
+     * returning the entity tag of the new value in an ETag header. A server
+     * that ignores the If-Match header sets the property unconditionally, so
+     * a missing confirmation is an error.
+     *
+     * @param propName The name of the property.
+     * @param expected The expected current value, or null if the property
+     *      is expected to not exist yet.
+     * @param value The new value of the property.
+     * @return True if the property was set, false if its current value was
+     *      not the expected value.
+     * @throws Unauthorized If the authentication credentials are wrong.
+     * @throws ResourceNotFound If the user in question does not exist.
+     * @throws InternalServerError If the RestAuth server suffered from an
+     *      internal error.
+     * @throws RequestFailed If making the request failed (that is, never
+     *      reached the RestAuth server).
+     * @throws PreconditionIgnored If the property was set but the server did
+     *      not confirm the precondition.
+     */
+    public boolean compareAndSetProperty( String propName, String expected, String value )
+            throws Unauthorized, ResourceNotFound, InternalServerError, RequestFailed {
+        String path = String.format( "%s%s/props/%s/", User.prefix, this.name, propName );
+        Header precondition = expected == null
+                ? new BasicHeader( "If-None-Match", "*" )
+                : new BasicHeader( "If-Match", EntityTags.of( expected ) );
+        RestAuthResponse response = this.conn.put( path, precondition, "value", value );
+        int respCode = response.getStatusCode();
+
+        PropertyCache cache = this.conn.getPropertyCache();
+        if ( respCode == HttpStatus.SC_OK || respCode == HttpStatus.SC_CREATED ) {
+            if ( ! EntityTags.of( value ).equals( response.getHeader( "ETag" ) ) ) {
+                this.invalidateProperties();
+                throw new PreconditionIgnored( response );
+            }
+            if ( cache != null ) cache.setProperty( this.name, propName, value );
+            return true;
+        } else if ( respCode == HttpStatus.SC_PRECONDITION_FAILED ) {
+            this.invalidateProperties();
+            return false;
+        } else if ( respCode == HttpStatus.SC_NOT_FOUND ) {
+            this.invalidateProperties();
+            throw new ResourceNotFound( response );
+        } else {
+            throw new UnknownStatus( response );
+        }
+    }
+
+    /**
+     * Remove a property of this user, but only if it currently has the
+     * expected value. Like {@link #compareAndSetProperty}, this takes a single
+     * request. The RestAuth server has to confirm that it checked the
+     * precondition by returning the entity tag of the removed value in an
+     * ETag header.
+     *
+     * @param propName The name of the property.
+     * @param expected The expected current value.
+     * @return True if the property was removed, false if it did not exist or
+     *      its current value was not the expected value.
+     * @throws Unauthorized If the authentication credentials are wrong.
+     * @throws ResourceNotFound If the user in question does not exist.
+     * @throws InternalServerError If the RestAuth server suffered from an
+     *      internal error.
+     * @throws RequestFailed If making the request failed (that is, never
+     *      reached the RestAuth server).
+     * @throws PreconditionIgnored If the property was removed but the server
+     *      did not confirm the precondition.
+     */
+    public boolean compareAndRemoveProperty( String propName, String expected )
+            throws Unauthorized, ResourceNotFound, InternalServerError, RequestFailed {
+        String path = String.format( "%s%s/props/%s/", User.prefix, this.name, propName );
+        RestAuthResponse response = this.conn.delete( path,
+                new BasicHeader( "If-Match", EntityTags.of( expected ) ) );
+        int respCode = response.getStatusCode();
+
+        PropertyCache cache = this.conn.getPropertyCache();
+        if ( respCode == HttpStatus.SC_NO_CONTENT ) {
+            if ( ! EntityTags.of( expected ).equals( response.getHeader( "ETag" ) ) ) {
+                this.invalidateProperties();
+                throw new PreconditionIgnored( response );
+            }
+            if ( cache != null ) cache.removeProperty( this.name, propName );
+            return true;
+        } else if ( respCode == HttpStatus.SC_PRECONDITION_FAILED ) {
+            this.invalidateProperties();
+            return false;
+        } else if ( respCode == HttpStatus.SC_NOT_FOUND ) {
+            this.invalidateProperties();
+            if ( "property".equals( response.getHeader( "Resource-Type" ) ) ) {
+                return false;
+            }
             throw new ResourceNotFound( response );
         } else {
             throw new UnknownStatus( response );
@@ -359,6 +756,10 @@ public class User extends Resource {
     /**
      * Get a specific property of this user.
      *
+     * If the connection has a {@link PropertyCache} and the properties of this
+     * user were recently fetched with {@link #getProperties()}, the value is
+     * taken from the cache.
+     *
      * @param propName
      * @return The value of the named property.
      * @throws ResourceNotFound If the user or property in question does not
@@ -371,12 +772,19 @@ public class User extends Resource {
      */
     public String getProperty( String propName )
             throws ResourceNotFound, Unauthorized, InternalServerError, RequestFailed {
+        PropertyCache cache = this.conn.getPropertyCache();
+        if ( cache != null ) {
+            String cached = cache.getProperty( this.name, propName );
+            if ( cached != null ) return cached;
+        }
+
         String path = String.format( "%s/props/%s/", this.name, propName );
         RestAuthResponse response = this.get( path );
         int respCode = response.getStatusCode();
 
         if ( respCode == HttpStatus.SC_OK ) {
-             return this.conn.handler.unmarshal_string( response.getBody() );
+             return this.conn.getContentHandler( response ).unmarshal_string(
+                    response.getRawBody(), response.getCharset() );
         } else if ( respCode == HttpStatus.SC_NOT_FOUND ) {
             throw new ResourceNotFound( response );
         } else {
@@ -403,8 +811,11 @@ public class User extends Resource {
         int respCode = response.getStatusCode();
 
         if ( respCode == HttpStatus.SC_NO_CONTENT ) {
+            PropertyCache cache = this.conn.getPropertyCache();
+            if ( cache != null ) cache.removeProperty( this.name, propName );
             return;
         } else if ( respCode == HttpStatus.SC_NOT_FOUND ) {
+            this.invalidateProperties();
             throw new ResourceNotFound( response );
         } else {
             throw new UnknownStatus( response );
@@ -412,7 +823,9 @@ public class User extends Resource {
     }
 
     /**
-     * Get all groups that this user is currently a member of.
+     * Get all groups that this user is currently a member of. This only
+     * includes the groups the user was added to directly, use a {@link
+     * GroupResolver} to include their sub-groups as well.
      *
      * @return The groups that this user is a member of.
      * @throws ResourceNotFound If the user or property in question does not
@@ -431,8 +844,7 @@ public class User extends Resource {
         int respCode = response.getStatusCode();
 
         if ( respCode == HttpStatus.SC_OK ) {
-             List<String> groupnames =
-                     this.conn.handler.unmarshal_list( response.getBody() );
+             List<String> groupnames = this.conn.unmarshal_list( response );
              List<Group> groups = new ArrayList<Group>();
              for( String groupname : groupnames ) {
                  groups.add( new Group( this.conn, groupname ) );
@@ -564,19 +976,47 @@ public class User extends Resource {
      */
     public void remove()
             throws ResourceNotFound, Unauthorized, InternalServerError, RequestFailed {
+        this.invalidatePassword();
         String path = String.format( "%s/", this.name );
         RestAuthResponse response = this.delete( path );
         int respCode = response.getStatusCode();
 
         if ( respCode == HttpStatus.SC_NO_CONTENT ) {
+            this.invalidatePassword();
+            ExistenceCache existence = this.conn.getExistenceCache();
+            if ( existence != null ) existence.putMissing( ExistenceCache.USER, this.name );
+            MembershipCache cache = this.conn.getMembershipCache();
+            if ( cache != null ) cache.invalidateUser( this.name );
+            this.invalidateProperties();
             return;
         } else if ( respCode == HttpStatus.SC_NOT_FOUND ) {
+            ExistenceCache existence = this.conn.getExistenceCache();
+            if ( existence != null ) existence.putMissing( ExistenceCache.USER, this.name );
             throw new ResourceNotFound( response );
         } else {
             throw new UnknownStatus( response );
         }
     }
 
+    /**
+     * Remove the properties of this user from the property cache of the
+     * connection, if any.
+     */
+    private void invalidateProperties() {
+        PropertyCache cache = this.conn.getPropertyCache();
+        if ( cache != null ) cache.invalidate( this.name );
+    }
+
+    /**
+     * Remove this user from the password cache of the connection, if any.
+     * This is done both before and after a password is changed, so that a
+     * verification that completes during the change is not cached.
+     */
+    private void invalidatePassword() {
+        PasswordCache cache = this.conn.getPasswordCache();
+        if ( cache != null ) cache.invalidate( this.name );
+    }
+
     /**
      * @throws Unauthorized If the authentication credentials are wrong.
      * @throws RequestFailed If making the request failed (that is, never
@@ -633,6 +1073,34 @@ public class User extends Resource {
         return this.conn.put( User.prefix + path, params );
     }
 
+    /**
+     * @throws Unauthorized If the authentication credentials are wrong.
+     * @throws RequestFailed If making the request failed (that is, never
+     *      reached the RestAuth server).
+     * @throws InternalServerError If the RestAuth server suffered from an
+     *      internal error.
+     * @inheritDoc
+     */
+    @Override
+    protected RestAuthResponse post( String path, String... fields )
+            throws Unauthorized, InternalServerError, RequestFailed {
+        return this.conn.post( User.prefix + path, fields );
+    }
+
+    /**
+     * @throws Unauthorized If the authentication credentials are wrong.
+     * @throws RequestFailed If making the request failed (that is, never
+     *      reached the RestAuth server).
+     * @throws InternalServerError If the RestAuth server suffered from an
+     *      internal error.
+     * @inheritDoc
+     */
+    @Override
+    protected RestAuthResponse put( String path, String... fields )
+            throws Unauthorized, InternalServerError, RequestFailed {
+        return this.conn.put( User.prefix + path, fields );
+    }
+
 
     /**
      * @throws Unauthorized If the authentication credentials are wrong.
@@ -0,0 +1,100 @@
+package at.fsinf.restauth.resources;
+
+import at.fsinf.restauth.common.RestAuthConnection;
+import java.nio.charset.Charset;
+import java.util.AbstractList;
+import java.util.Arrays;
+import java.util.RandomAccess;
+
+/**
+ * A compact, read-only list of users. The names of all users are stored as
+ * UTF-8 in a single byte array, {@link User} objects are only created when an
+ * element is accessed. This makes it possible to keep the names of millions
+ * of users in memory.
+ *
+ * Note that every call to {@link #get} returns a new object, use {@link
+ * User#equals} to compare users.
+ *
+ * @author Mathias Ertl
+ */
+public class UserList extends AbstractList<User> implements RandomAccess {
+    private static final Charset UTF8 = Charset.forName( "UTF-8" );
+
+    private final RestAuthConnection conn;
+    private byte[] names = new byte[256];
+    private int[] offsets = new int[17];
+    private int size;
+
+    /**
+     * Creates a new, empty list.
+     *
+     * @param connection The connection used by the users in this list.
+     */
+    UserList( RestAuthConnection connection ) {
+        this.conn = connection;
+    }
+
+    /**
+     * Add the name of a user to the end of this list.
+     *
+     * @param name The name of the user.
+     */
+    void append( String name ) {
+        byte[] raw = name.getBytes( UTF8 );
+        int start = this.offsets[this.size];
+        if ( start + raw.length > this.names.length ) {
+            this.names = Arrays.copyOf( this.names,
+                    Math.max( this.names.length * 2, start + raw.length ) );
+        }
+        if ( this.size + 2 > this.offsets.length ) {
+            this.offsets = Arrays.copyOf( this.offsets, this.offsets.length * 2 );
+        }
+        System.arraycopy( raw, 0, this.names, start, raw.length );
+        this.size++;
+        this.offsets[this.size] = start + raw.length;
+        this.modCount++;
+    }
+
+    /**
+     * Release the memory reserved for further names.
+     */
+    void trimToSize() {
+        this.names = Arrays.copyOf( this.names, this.offsets[this.size] );
+        this.offsets = Arrays.copyOf( this.offsets, this.size + 1 );
+    }
+
+    /**
+     * Get the name of a user without creating a {@link User} object.
+     *
+     * @param index The index of the user.
+     * @return The name of the user.
+     */
+    public String getName( int index ) {
+        if ( index < 0 || index >= this.size ) {
+            throw new IndexOutOfBoundsException( "Index: " + index + ", Size: " + this.size );
+        }
+        int start = this.offsets[index];
+        return new String( this.names, start, this.offsets[index + 1] - start, UTF8 );
+    }
+
+    /**
+     * Get a user.
+     *
+     * @param index The index of the user.
+     * @return A new object for the user.
+     */
+    @Override
+    public User get( int index ) {
+        return new User( this.conn, this.getName( index ) );
+    }
+
+    /**
+     * Get the number of users in this list.
+     *
+     * @return The number of users.
+     */
+    @Override
+    public int size() {
+        return this.size;
+    }
+}
@@ -0,0 +1,96 @@
+package at.fsinf.restauth.resources;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * The properties and groups of a user, fetched at the same time by {@link
+ * User#fetchProfile}. A profile is a snapshot: it is not updated if the user
+ * changes later on.
+ *
+ * @author Mathias Ertl
+ */
+public final class UserProfile {
+    private final User user;
+    private final Map<String, String> properties;
+    private final List<Group> groups;
+
+    /**
+     * Standard constructor. The properties and groups are copied.
+     *
+     * @param user The user.
+     * @param properties The properties of the user.
+     * @param groups The groups the user is a member of.
+     */
+    UserProfile( User user, Map<String, String> properties, List<Group> groups ) {
+        this.user = user;
+        this.properties = Collections.unmodifiableMap(
+                new HashMap<String, String>( properties ) );
+        this.groups = Collections.unmodifiableList( new ArrayList<Group>( groups ) );
+    }
+
+    /**
+     * Get the user this profile belongs to.
+     *
+     * @return The user, which existed when the profile was fetched.
+     */
+    public User getUser() {
+        return this.user;
+    }
+
+    /**
+     * Get the name of the user.
+     *
+     * @return The name of the user.
+     */
+    public String getName() {
+        return this.user.getName();
+    }
+
+    /**
+     * Get the properties of the user.
+     *
+     * @return A read-only map of the properties.
+     */
+    public Map<String, String> getProperties() {
+        return this.properties;
+    }
+
+    /**
+     * Get a single property of the user.
+     *
+     * @param propName The name of the property.
+     * @return The value of the property, or null if the user does not have
+     *      this property.
+     */
+    public String getProperty( String propName ) {
+        return this.properties.get( propName );
+    }
+
+    /**
+     * Get the groups the user is a member of.
+     *
+     * @return A read-only list of the groups.
+     */
+    public List<Group> getGroups() {
+        return this.groups;
+    }
+
+    /**
+     * Check if the user is a member of the given group. Group names are
+     * compared case-insensitively.
+     *
+     * @param groupname The name of the group.
+     * @return True if the user was a member when the profile was fetched.
+     */
+    public boolean inGroup( String groupname ) {
+        groupname = groupname.toLowerCase(); // like the names of groups
+        for ( Group group : this.groups ) {
+            if ( group.getName().equals( groupname ) ) return true;
+        }
+        return false;
+    }
+}
@@ -0,0 +1,127 @@
+package at.fsinf.restauth.resources;
+
+import at.fsinf.restauth.common.RestAuthConnection;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Describes a user that should be created by {@link User#createAll}: its
+ * name, password, initial properties and the groups it should be added to.
+ * A {@link Reconciler} uses the same description for the desired state of a
+ * user.
+ *
+ * @author Mathias Ertl
+ */
+public class UserSpec {
+    private final String name;
+    private final String password;
+    private final HashMap<String, String> properties = new LinkedHashMap<String, String>();
+    private final List<String> groups = new ArrayList<String>();
+
+    /**
+     * Describes a user without a password.
+     *
+     * @param name The name of the user.
+     */
+    public UserSpec( String name ) {
+        this( name, null );
+    }
+
+    /**
+     * Describes a user.
+     *
+     * @param name The name of the user.
+     * @param password The password of the user, may be null.
+     */
+    public UserSpec( String name, String password ) {
+        this.name = name;
+        this.password = password;
+    }
+
+    /**
+     * Add a property that is set when the user is created.
+     *
+     * @param propName The name of the property.
+     * @param value The value of the property, must not be null.
+     * @return This object.
+     */
+    public UserSpec addProperty( String propName, String value ) {
+        if ( value == null ) {
+            throw new IllegalArgumentException( "Property values must not be null." );
+        }
+        this.properties.put( propName, value );
+        return this;
+    }
+
+    /**
+     * Add a group the user is added to after it was created. The group must
+     * already exist.
+     *
+     * @param group The name of the group.
+     * @return This object.
+     */
+    public UserSpec addGroup( String group ) {
+        this.groups.add( group );
+        return this;
+    }
+
+    /**
+     * Get the name of the user.
+     *
+     * @return The name of the user.
+     */
+    public String getName() {
+        return this.name;
+    }
+
+    /**
+     * Get the password of the user.
+     *
+     * @return The password or null if the user has no password.
+     */
+    public String getPassword() {
+        return this.password;
+    }
+
+    /**
+     * Get the properties that are set when the user is created.
+     *
+     * @return The properties of the user.
+     */
+    public Map<String, String> getProperties() {
+        return Collections.unmodifiableMap( this.properties );
+    }
+
+    /**
+     * Get the groups the user is added to.
+     *
+     * @return The names of the groups.
+     */
+    public List<String> getGroups() {
+        return Collections.unmodifiableList( this.groups );
+    }
+
+    /**
+     * Create the user described by this object and add it to its groups.
+     *
+     * @param connection The connection to use when making requests.
+     * @return The outcome.
+     */
+    CreateResult provision( RestAuthConnection connection ) {
+        User user = null;
+        try {
+            user = User.create( connection, this.name, this.password,
+                    this.properties.isEmpty() ? null : this.properties );
+            for ( String group : this.groups ) {
+                new Group( connection, group ).addUser( user );
+            }
+            return new CreateResult( this, user, null );
+        } catch ( Exception ex ) {
+            return new CreateResult( this, user, ex );
+        }
+    }
+}
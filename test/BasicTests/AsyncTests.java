@@ -0,0 +1,139 @@
+package BasicTests;
+
+import at.fsinf.restauth.common.AsyncRestAuthConnection;
+import at.fsinf.restauth.common.JsonHandler;
+import at.fsinf.restauth.common.RestAuthConnection;
+import at.fsinf.restauth.errors.ResourceNotFound;
+import at.fsinf.restauth.errors.UserExists;
+import at.fsinf.restauth.memory.MemoryDirectory;
+import at.fsinf.restauth.memory.MemoryTransport;
+import at.fsinf.restauth.resources.AsyncGroup;
+import at.fsinf.restauth.resources.AsyncUser;
+import at.fsinf.restauth.resources.Group;
+import at.fsinf.restauth.resources.User;
+import java.net.URI;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+/**
+ * Tests the asynchronous API against the in-memory transport.
+ *
+ * @author mati
+ */
+public class AsyncTests {
+    RestAuthConnection conn;
+    MemoryDirectory directory;
+    AsyncRestAuthConnection async;
+    String username = "user \u611b";
+    String password = "password \u611b";
+    String prop_1_key = "key \u609b";
+    String prop_1_val = "val \u610b";
+    String group_1 = "group \u601a";
+
+    @Before
+    public void setUp() throws Exception {
+        this.directory = new MemoryDirectory();
+        this.conn = new RestAuthConnection( new URI( "http://[::1]:8000" ),
+                "vowi", "vowi", new JsonHandler(),
+                new MemoryTransport( this.directory ) );
+        this.async = new AsyncRestAuthConnection( this.conn, 4 );
+    }
+
+    @After
+    public void tearDown() {
+        this.async.shutdown();
+    }
+
+    @Test
+    public void results() throws Exception {
+        User user = AsyncUser.create( this.async, this.username, this.password ).get();
+        assertEquals( user, AsyncUser.get( this.async, this.username ).get() );
+        assertEquals( 1, AsyncUser.getAll( this.async ).get().size() );
+
+        AsyncUser asyncUser = new AsyncUser( this.async, this.username );
+        assertTrue( asyncUser.verifyPassword( this.password ).get() );
+        assertFalse( asyncUser.verifyPassword( "whatever" ).get() );
+        asyncUser.createProperty( prop_1_key, prop_1_val ).get();
+        assertEquals( prop_1_val, asyncUser.getProperty( prop_1_key ).get() );
+        assertEquals( prop_1_val, asyncUser.setProperty( prop_1_key, "new" ).get() );
+        assertEquals( "new", asyncUser.getProperties().get().get( prop_1_key ) );
+
+        Group group = AsyncGroup.create( this.async, group_1 ).get();
+        AsyncGroup asyncGroup = new AsyncGroup( this.async, group_1 );
+        asyncGroup.addUser( this.username ).get();
+        assertTrue( asyncGroup.isMember( this.username ).get() );
+        assertTrue( asyncUser.inGroup( group_1 ).get() );
+        assertEquals( group, asyncUser.getGroups().get().get( 0 ) );
+        assertEquals( 1, asyncGroup.getUsers().get().size() );
+
+        asyncUser.remove().get();
+        assertEquals( 0, this.directory.getUserCount() );
+    }
+
+    @Test
+    public void exceptions() throws Exception {
+        try {
+            AsyncUser.get( this.async, this.username ).get();
+            fail();
+        } catch ( ExecutionException ex ) {
+            assertTrue( ex.getCause() instanceof ResourceNotFound );
+            assertEquals( "user", ( (ResourceNotFound) ex.getCause() ).getType() );
+        }
+
+        AsyncUser.create( this.async, this.username, this.password ).get();
+        try {
+            AsyncUser.create( this.async, this.username, this.password ).get();
+            fail();
+        } catch ( ExecutionException ex ) {
+            assertTrue( ex.getCause() instanceof UserExists );
+        }
+
+        try {
+            new AsyncGroup( this.async, group_1 ).isMember( this.username ).get();
+            fail();
+        } catch ( ExecutionException ex ) {
+            assertEquals( "group", ( (ResourceNotFound) ex.getCause() ).getType() );
+        }
+    }
+
+    @Test
+    public void cancel() throws Exception {
+        ExecutorService executor = Executors.newSingleThreadExecutor();
+        AsyncRestAuthConnection single = new AsyncRestAuthConnection( this.conn, executor );
+        final CountDownLatch release = new CountDownLatch( 1 );
+        single.submit( new Callable<Object>() {
+            public Object call() throws Exception {
+                release.await();
+                return null;
+            }
+        });
+
+        // the request is still queued, so it is never sent:
+        Future<User> created = AsyncUser.create( single, this.username, this.password );
+        assertTrue( created.cancel( false ) );
+        assertTrue( created.isCancelled() );
+        release.countDown();
+        single.shutdown();
+        assertTrue( executor.awaitTermination( 10, TimeUnit.SECONDS ) );
+        assertEquals( 0, this.directory.getUserCount() );
+    }
+
+    @Test
+    public void daemonThreads() throws Exception {
+        Future<Boolean> daemon = this.async.submit( new Callable<Boolean>() {
+            public Boolean call() {
+                return Thread.currentThread().isDaemon();
+            }
+        });
+        assertTrue( daemon.get() );
+    }
+}
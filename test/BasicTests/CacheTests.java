@@ -0,0 +1,475 @@
+package BasicTests;
+
+import at.fsinf.restauth.common.ExistenceCache;
+import at.fsinf.restauth.common.JsonHandler;
+import at.fsinf.restauth.common.MembershipCache;
+import at.fsinf.restauth.common.MessagePackHandler;
+import at.fsinf.restauth.common.PasswordCache;
+import at.fsinf.restauth.common.PropertyCache;
+import at.fsinf.restauth.common.ResponseCache;
+import at.fsinf.restauth.common.RestAuthConnection;
+import at.fsinf.restauth.common.RestAuthRequest;
+import at.fsinf.restauth.common.RestAuthResponse;
+import at.fsinf.restauth.errors.InvalidCredentials;
+import at.fsinf.restauth.errors.ResourceNotFound;
+import at.fsinf.restauth.errors.RestAuthException;
+import at.fsinf.restauth.memory.MemoryDirectory;
+import at.fsinf.restauth.memory.MemoryTransport;
+import at.fsinf.restauth.resources.Group;
+import at.fsinf.restauth.resources.User;
+import java.net.URI;
+import java.net.URISyntaxException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.FutureTask;
+import org.apache.http.Header;
+import org.junit.Before;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+/**
+ * Tests for the client-side caches. The caches are verified by modifying the
+ * in-memory directory behind the back of the connection.
+ *
+ * @author mati
+ */
+public class CacheTests {
+    RestAuthConnection conn;
+    MemoryDirectory directory;
+    String username = "user \u611b";
+    String password = "password \u611b";
+    String group_1 = "group \u601a";
+    String group_2 = "group \u602a";
+
+    @Before
+    public void setUp() throws InvalidCredentials, URISyntaxException {
+        this.directory = new MemoryDirectory();
+        this.conn = new RestAuthConnection( new URI( "http://[::1]:8000" ),
+                "vowi", "vowi", new JsonHandler(),
+                new MemoryTransport( this.directory ) );
+    }
+
+    @Test
+    public void passwordCache() throws RestAuthException {
+        PasswordCache cache = new PasswordCache( 10, 60000 );
+        this.conn.setPasswordCache( cache );
+        User user = User.create( this.conn, this.username, this.password );
+
+        assertFalse( user.verifyPassword( "whatever" ) );
+        assertTrue( user.verifyPassword( this.password ) );
+
+        // the second verification must not reach the server:
+        this.directory.clear();
+        assertTrue( user.verifyPassword( this.password ) );
+        assertFalse( user.verifyPassword( "whatever" ) );
+        assertFalse( user.verifyPassword( "" ) );
+        assertEquals( 1, cache.getHits() );
+    }
+
+    @Test
+    public void passwordCacheInvalidation() throws RestAuthException {
+        this.conn.setPasswordCache( new PasswordCache( 10, 60000 ) );
+        User user = User.create( this.conn, this.username, this.password );
+        assertTrue( user.verifyPassword( this.password ) );
+
+        user.setPassword( "new" );
+        assertFalse( user.verifyPassword( this.password ) );
+        assertTrue( user.verifyPassword( "new" ) );
+
+        user.disableUser();
+        assertFalse( user.verifyPassword( "new" ) );
+
+        user.setPassword( "new" );
+        assertTrue( user.verifyPassword( "new" ) );
+        user.remove();
+        assertFalse( user.verifyPassword( "new" ) );
+    }
+
+    @Test
+    public void passwordCacheGeneration() {
+        PasswordCache cache = new PasswordCache( 10, 60000 );
+        long generation = cache.getGeneration( this.username );
+        // the password changes while the verification is in flight:
+        cache.invalidate( this.username );
+        assertFalse( cache.put( this.username, this.password, generation ) );
+        assertFalse( cache.verify( this.username, this.password ) );
+
+        generation = cache.getGeneration( this.username );
+        assertTrue( cache.put( this.username, this.password, generation ) );
+        assertTrue( cache.verify( this.username, this.password ) );
+    }
+
+    @Test
+    public void passwordCacheExpiry() throws Exception {
+        this.conn.setPasswordCache( new PasswordCache( 10, 1 ) );
+        User user = User.create( this.conn, this.username, this.password );
+        assertTrue( user.verifyPassword( this.password ) );
+
+        Thread.sleep( 5 );
+        this.directory.clear();
+        assertFalse( user.verifyPassword( this.password ) );
+    }
+
+    @Test
+    public void membershipCache() throws RestAuthException {
+        MembershipCache cache = new MembershipCache( 10, 60000 );
+        this.conn.setMembershipCache( cache );
+        Group group = Group.create( this.conn, group_1 );
+        User user = User.create( this.conn, this.username, this.password );
+
+        assertFalse( group.isMember( user ) );
+        this.directory.addUserToGroup( group_1, this.username );
+        assertFalse( group.isMember( user ) ); // negative answer is cached
+        assertEquals( 1, cache.getHits() );
+
+        // write-through:
+        group.removeUser( user );
+        group.addUser( user );
+        this.directory.clear();
+        assertTrue( group.isMember( user ) );
+        assertTrue( user.inGroup( group ) );
+        assertEquals( 3, cache.getHits() );
+    }
+
+    @Test
+    public void membershipCacheGeneration() throws Exception {
+        MembershipCache cache = new MembershipCache( 10, 60000 );
+        long generation = cache.getGeneration( this.username );
+        // the user is added while the lookup is in flight:
+        cache.invalidateUser( this.username );
+        assertFalse( cache.put( group_1, this.username, false, generation ) );
+        assertNull( cache.get( group_1, this.username ) );
+
+        // the lookup is answered by the server, then the user is added:
+        Group.create( this.conn, group_1 );
+        final User user = User.create( this.conn, this.username, this.password );
+        final CountDownLatch answered = new CountDownLatch( 1 );
+        final CountDownLatch release = new CountDownLatch( 1 );
+        RestAuthConnection slow = new RestAuthConnection( new URI( "http://[::1]:8000" ),
+                "vowi", "vowi", new JsonHandler(), new MemoryTransport( this.directory ) {
+            @Override
+            public RestAuthResponse execute( RestAuthRequest request ) {
+                RestAuthResponse response = super.execute( request );
+                if ( request.getMethod().equals( "GET" ) ) {
+                    answered.countDown();
+                    try {
+                        release.await();
+                    } catch ( InterruptedException ex ) {
+                        Thread.currentThread().interrupt();
+                    }
+                }
+                return response;
+            }
+        });
+        slow.setMembershipCache( cache );
+        final Group group = new Group( slow, group_1 );
+        FutureTask<Boolean> lookup = new FutureTask<Boolean>( new Callable<Boolean>() {
+            public Boolean call() throws Exception {
+                return group.isMember( user );
+            }
+        });
+        new Thread( lookup ).start();
+        answered.await();
+        group.addUser( user );
+        release.countDown();
+        assertFalse( lookup.get() );
+        assertEquals( Boolean.TRUE, cache.get( group_1, this.username ) );
+    }
+
+    @Test
+    public void membershipCacheCase() {
+        MembershipCache cache = new MembershipCache( 10, 60000 );
+        cache.put( "Group", "Alice", true );
+        assertEquals( Boolean.TRUE, cache.get( "group", "alice" ) );
+        cache.invalidateUser( "alice" );
+        assertNull( cache.get( "Group", "Alice" ) );
+    }
+
+    @Test
+    public void membershipCacheMetaGroups() throws RestAuthException {
+        this.conn.setMembershipCache( new MembershipCache( 10, 60000 ) );
+        Group group1 = Group.create( this.conn, group_1 );
+        Group group2 = Group.create( this.conn, group_2 );
+        User user = User.create( this.conn, this.username, this.password );
+        group1.addGroup( group2 );
+
+        assertFalse( group2.isMember( user ) );
+        group1.addUser( user );
+        assertTrue( group2.isMember( user ) );
+
+        group1.removeUser( user );
+        assertFalse( group2.isMember( user ) );
+
+        group1.addUser( user );
+        assertTrue( group2.isMember( user ) );
+        group1.removeGroup( group2 );
+        assertFalse( group2.isMember( user ) );
+    }
+
+    @Test
+    public void propertyCache() throws RestAuthException {
+        PropertyCache cache = new PropertyCache( 10, 60000 );
+        this.conn.setPropertyCache( cache );
+        User user = User.create( this.conn, this.username, this.password );
+        user.createProperty( "key \u612b", "value \u612b" );
+        user.createProperty( "foo", "bar" );
+
+        Map<String, String> props = user.getProperties();
+        assertEquals( 2, props.size() );
+
+        // write-through:
+        user.setProperty( "foo", "baz" );
+        user.createProperty( "new", "value" );
+        user.removeProperty( "key \u612b" );
+        this.directory.clear();
+
+        props = user.getProperties();
+        assertEquals( 2, props.size() );
+        assertEquals( "baz", props.get( "foo" ) );
+        assertEquals( "value", user.getProperty( "new" ) );
+        assertEquals( 2, cache.getHits() );
+
+        // returned maps are copies:
+        props.clear();
+        assertEquals( "baz", user.getProperty( "foo" ) );
+    }
+
+    @Test
+    public void propertyCacheVersion() {
+        PropertyCache cache = new PropertyCache( 10, 60000 );
+        Map<String, String> snapshot = new HashMap<String, String>();
+        snapshot.put( "foo", "bar" );
+        long version = cache.getVersion( this.username );
+        // the property is written while the snapshot is fetched:
+        cache.setProperty( this.username, "foo", "baz" );
+        assertFalse( cache.setProperties( this.username, snapshot, version ) );
+        assertNull( cache.getProperties( this.username ) );
+
+        version = cache.getVersion( this.username );
+        assertTrue( cache.setProperties( this.username, snapshot, version ) );
+        assertEquals( "bar", cache.getProperty( this.username, "foo" ) );
+    }
+
+    @Test
+    public void propertyCacheInvalidation() throws RestAuthException {
+        this.conn.setPropertyCache( new PropertyCache( 10, 60000 ) );
+        User user = User.create( this.conn, this.username, this.password );
+        user.createProperty( "foo", "bar" );
+        assertEquals( 1, user.getProperties().size() );
+
+        user.remove();
+        User.create( this.conn, this.username, this.password );
+        assertEquals( 0, user.getProperties().size() );
+    }
+
+    @Test
+    public void existenceCache() throws RestAuthException {
+        ExistenceCache cache = new ExistenceCache( 10, 60000 );
+        this.conn.setExistenceCache( cache );
+        User.create( this.conn, this.username, this.password );
+        Group.create( this.conn, this.group_1 );
+
+        this.directory.clear();
+        assertEquals( this.username, User.get( this.conn, this.username ).getName() );
+        assertEquals( this.group_1, Group.get( this.conn, this.group_1 ).getName() );
+        assertEquals( 2, cache.getHits() );
+    }
+
+    @Test
+    public void existenceCacheGeneration() throws Exception {
+        ExistenceCache cache = new ExistenceCache( 10, 60000 );
+        RestAuthResponse missing = new RestAuthResponse( 404, new ArrayList<Header>() );
+        long generation = cache.getGeneration( ExistenceCache.USER, this.username );
+        // the user is created while the check is in flight:
+        cache.putExisting( ExistenceCache.USER, this.username );
+        assertFalse( cache.put( ExistenceCache.USER, this.username, missing, generation ) );
+        assertEquals( 204, cache.get( ExistenceCache.USER, this.username ).getStatusCode() );
+
+        // the check is answered by the server, then the user is created:
+        final CountDownLatch answered = new CountDownLatch( 1 );
+        final CountDownLatch release = new CountDownLatch( 1 );
+        final RestAuthConnection slow = new RestAuthConnection( new URI( "http://[::1]:8000" ),
+                "vowi", "vowi", new JsonHandler(), new MemoryTransport( this.directory ) {
+            @Override
+            public RestAuthResponse execute( RestAuthRequest request ) {
+                RestAuthResponse response = super.execute( request );
+                if ( request.getMethod().equals( "GET" ) ) {
+                    answered.countDown();
+                    try {
+                        release.await();
+                    } catch ( InterruptedException ex ) {
+                        Thread.currentThread().interrupt();
+                    }
+                }
+                return response;
+            }
+        });
+        cache = new ExistenceCache( 10, 60000 );
+        slow.setExistenceCache( cache );
+        FutureTask<Group> lookup = new FutureTask<Group>( new Callable<Group>() {
+            public Group call() throws Exception {
+                return Group.get( slow, group_1 );
+            }
+        });
+        new Thread( lookup ).start();
+        answered.await();
+        Group.create( slow, group_1 );
+        release.countDown();
+        try {
+            lookup.get();
+            fail();
+        } catch ( ExecutionException e ) {
+            assertTrue( e.getCause() instanceof ResourceNotFound );
+        }
+        assertEquals( group_1, Group.get( slow, group_1 ).getName() );
+    }
+
+    @Test
+    public void existenceCacheMissing() throws RestAuthException {
+        ExistenceCache cache = new ExistenceCache( 10, 60000 );
+        this.conn.setExistenceCache( cache );
+        try {
+            User.get( this.conn, this.username );
+            fail();
+        } catch ( ResourceNotFound e ) {
+            assertEquals( "user", e.getType() );
+        }
+
+        // the negative answer is cached:
+        this.directory.createUser( this.username, this.password );
+        try {
+            User.get( this.conn, this.username );
+            fail();
+        } catch ( ResourceNotFound e ) {
+            assertEquals( "user", e.getType() );
+        }
+        assertEquals( 1, cache.getHits() );
+
+        // write-through:
+        this.directory.clear();
+        User user = User.create( this.conn, this.username, this.password );
+        User.get( this.conn, this.username );
+        user.remove();
+        try {
+            User.get( this.conn, this.username );
+            fail();
+        } catch ( ResourceNotFound e ) {
+            assertEquals( "user", e.getType() );
+        }
+        assertEquals( 3, cache.getHits() );
+    }
+
+    @Test
+    public void responseCache() throws Exception {
+        ResponseCache cache = new ResponseCache( 1024 * 1024 );
+        this.conn.setResponseCache( cache );
+        RestAuthConnection other = new RestAuthConnection(
+                new URI( "http://[::1]:8000" ), "vowi", "vowi", new JsonHandler(),
+                new MemoryTransport( this.directory ) );
+        User user = User.create( this.conn, this.username, this.password );
+        user.createProperty( "foo", "bar" );
+
+        assertEquals( "bar", user.getProperties().get( "foo" ) );
+        assertEquals( 1, cache.getMisses() );
+        assertTrue( cache.getSize() > 0 );
+
+        // unchanged responses are revalidated:
+        Map<String, String> props = user.getProperties();
+        assertEquals( "bar", props.get( "foo" ) );
+        assertEquals( 1, cache.getRevalidations() );
+        props.put( "foo", "modified" );
+        assertEquals( "bar", user.getProperties().get( "foo" ) );
+        assertEquals( 1, User.getAll( this.conn ).size() );
+        assertEquals( 1, User.getAll( this.conn ).size() );
+        assertEquals( 3, cache.getRevalidations() );
+
+        // changes made by somebody else are detected:
+        new User( other, this.username ).setProperty( "foo", "baz" );
+        assertEquals( "baz", user.getProperties().get( "foo" ) );
+        User.create( other, "other", this.password );
+        assertEquals( 2, User.getAll( this.conn ).size() );
+
+        // password verifications do not invalidate anything:
+        long size = cache.getSize();
+        assertTrue( user.verifyPassword( this.password ) );
+        assertEquals( size, cache.getSize() );
+
+        // changes made through the connection invalidate the changed user:
+        user.setProperty( "foo", "bar" );
+        assertTrue( cache.getSize() > 0 && cache.getSize() < size );
+        assertEquals( "bar", user.getProperties().get( "foo" ) );
+        assertEquals( 2, User.getAll( this.conn ).size() );
+        assertEquals( 4, cache.getRevalidations() );
+        assertEquals( 0, cache.getHits() );
+
+        User.create( this.conn, "third", this.password );
+        assertEquals( 3, User.getAll( this.conn ).size() );
+        assertEquals( 4, cache.getRevalidations() );
+    }
+
+    @Test
+    public void responseCacheGeneration() throws Exception {
+        ResponseCache cache = new ResponseCache( 1024 * 1024 );
+        this.conn.setResponseCache( cache );
+        User user = User.create( this.conn, this.username, this.password );
+        user.createProperty( "foo", "bar" );
+
+        // a GET that was sent before a write is not cached:
+        long generation = cache.getGeneration();
+        RestAuthRequest request = this.conn.createRequest( "GET", "/users/", null );
+        RestAuthResponse response = this.conn.send( request );
+        user.setProperty( "foo", "baz" );
+        assertSame( response, cache.update( request, response, generation ) );
+        assertEquals( 0, cache.getSize() );
+
+        request = this.conn.createRequest( "GET", "/users/", null );
+        cache.update( request, this.conn.send( request ), cache.getGeneration() );
+        assertTrue( cache.getSize() > 0 );
+    }
+
+    @Test
+    public void responseCacheContentHandler() throws Exception {
+        ResponseCache cache = new ResponseCache( 1024 * 1024 );
+        this.conn.setResponseCache( cache );
+        User.create( this.conn, this.username, this.password );
+        assertEquals( 1, User.getAll( this.conn ).size() );
+        assertTrue( cache.getSize() > 0 );
+
+        // cached bodies may not be readable by the new handlers:
+        this.conn.setContentHandlers( new MessagePackHandler() );
+        assertEquals( 0, cache.getSize() );
+
+        // the same goes for falling back to JSON:
+        long generation = cache.getGeneration();
+        assertEquals( 1, User.getAll( this.conn ).size() );
+        assertTrue( this.conn.getContentHandler() instanceof JsonHandler );
+        assertTrue( cache.getGeneration() > generation );
+        assertEquals( 0, cache.getSize() );
+
+        assertEquals( 1, User.getAll( this.conn ).size() );
+        assertTrue( cache.getSize() > 0 );
+    }
+
+    @Test
+    public void responseCacheEviction() throws RestAuthException {
+        ResponseCache cache = new ResponseCache( 400 );
+        User user = User.create( this.conn, this.username, this.password );
+        user.createProperty( "foo", "bar" );
+        this.conn.setResponseCache( cache );
+
+        user.getProperties();
+        long size = cache.getSize();
+        assertTrue( size > 0 && size <= 400 );
+        User.getAll( this.conn );
+        assertTrue( cache.getSize() <= 400 );
+
+        // the properties were evicted:
+        user.getProperties();
+        assertEquals( 0, cache.getRevalidations() );
+        assertEquals( 3, cache.getMisses() );
+    }
+}
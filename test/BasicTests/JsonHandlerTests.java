@@ -1,9 +1,16 @@
 package BasicTests;
 
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
 import java.util.List;
 import java.util.Map;
 import java.util.HashMap;
 import at.fsinf.restauth.common.JsonHandler;
+import at.fsinf.restauth.common.ListCallback;
+import at.fsinf.restauth.errors.UnmarshalException;
 import org.junit.After;
 import org.junit.AfterClass;
 import org.junit.Before;
@@ -55,6 +62,27 @@ public class JsonHandlerTests {
         assertEquals( "bar hugo", unmarshalled.get(1));
     }
 
+    @Test
+    public void unmarshal_list_stream() throws IOException {
+        final List<String> unmarshalled = new ArrayList<String>();
+        ListCallback callback = new ListCallback() {
+            public void item( String value ) {
+                unmarshalled.add( value );
+            }
+        };
+        byte[] raw = "[\"foo\", \"bar \u611b\"]".getBytes( "UTF-8" );
+        this.handler.unmarshal_list( new ByteArrayInputStream( raw ), "UTF-8", callback );
+        assertEquals( 2, unmarshalled.size() );
+        assertEquals( "foo", unmarshalled.get(0));
+        assertEquals( "bar \u611b", unmarshalled.get(1));
+
+        try {
+            raw = "{\"foo\": \"bar\"}".getBytes( "UTF-8" );
+            this.handler.unmarshal_list( new ByteArrayInputStream( raw ), "UTF-8", callback );
+            fail();
+        } catch ( UnmarshalException ex ) {}
+    }
+
     @Test
     public void unmarshal_map() {
         String raw_map = "{\"foo\":\"bar\",\"key space\":\"whatever\"}";
@@ -77,4 +105,39 @@ public class JsonHandlerTests {
         assertEquals( "{\"foo\":\"bar\",\"key space\":\"whatever\"}",
                 unmarshalled );
     }
-}
\ No newline at end of file
+
+    @Test
+    public void raw_bodies() throws IOException {
+        ByteBuffer raw = ByteBuffer.wrap( "[\"foo\", \"bar \u611b\"]".getBytes( "UTF-8" ) );
+        List<String> list = this.handler.unmarshal_list( raw, "UTF-8" );
+        assertEquals( 2, list.size() );
+        assertEquals( "bar \u611b", list.get(1) );
+        assertEquals( "foo", this.handler.unmarshal_string( raw, "UTF-8" ) );
+
+        raw = ByteBuffer.wrap( "{\"foo\":\"bar \u611b\"}".getBytes( "UTF-16" ) );
+        Map<String, String> map = this.handler.unmarshal_dictionary( raw, "UTF-16" );
+        assertEquals( "bar \u611b", map.get( "foo" ) );
+
+        Map<String, Object> params = new HashMap<String, Object>();
+        params.put( "foo", "bar \u611b" );
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        this.handler.marshal_dictionary( params, out );
+        assertEquals( "{\"foo\":\"bar \u611b\"}", out.toString( "UTF-8" ) );
+    }
+
+    @Test
+    public void marshal_fields() throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        this.handler.marshal_fields( out, "prop", "a\"b\\c\n\u0001",
+                "value", "\u00e4\u611b\ud83d\ude00", "skipped", null );
+        String json = out.toString( "UTF-8" );
+        assertEquals( "{\"prop\":\"a\\\"b\\\\c\\u000a\\u0001\","
+                + "\"value\":\"\u00e4\u611b\ud83d\ude00\"}", json );
+
+        ByteBuffer raw = ByteBuffer.wrap( out.toByteArray() );
+        Map<String, String> map = this.handler.unmarshal_dictionary( raw, "UTF-8" );
+        assertEquals( 2, map.size() );
+        assertEquals( "a\"b\\c\n\u0001", map.get( "prop" ) );
+        assertEquals( "\u00e4\u611b\ud83d\ude00", map.get( "value" ) );
+    }
+}
@@ -0,0 +1,169 @@
+package BasicTests;
+
+import at.fsinf.restauth.common.ApacheTransport;
+import at.fsinf.restauth.common.Compression;
+import at.fsinf.restauth.common.HttpURLConnectionTransport;
+import at.fsinf.restauth.common.JsonHandler;
+import at.fsinf.restauth.common.ListCallback;
+import at.fsinf.restauth.common.RestAuthConnection;
+import at.fsinf.restauth.common.RestAuthResponse;
+import at.fsinf.restauth.common.Transport;
+import at.fsinf.restauth.errors.ResourceNotFound;
+import at.fsinf.restauth.errors.RestAuthException;
+import at.fsinf.restauth.memory.MemoryDirectory;
+import at.fsinf.restauth.memory.MemoryServer;
+import at.fsinf.restauth.resources.Group;
+import at.fsinf.restauth.resources.User;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+/**
+ * Runs requests over real sockets against the embedded server, using each of
+ * the available transports.
+ *
+ * @author mati
+ */
+public class MemoryServerTests {
+    MemoryServer server;
+    MemoryDirectory directory;
+    String username = "user \u611b";
+    String password = "password \u611b";
+    String prop_1_key = "key \u609b";
+    String prop_1_val = "val \u610b";
+    String group_1 = "group \u601a";
+
+    @Before
+    public void setUp() throws Exception {
+        this.directory = new MemoryDirectory();
+        this.directory.setCredentials( "vowi", "vowi" );
+        this.server = new MemoryServer( this.directory, 0 );
+        this.server.start();
+    }
+
+    @After
+    public void tearDown() {
+        this.server.stop();
+    }
+
+    private RestAuthConnection connect( Transport transport ) throws Exception {
+        return new RestAuthConnection( this.server.getURI(), "vowi", "vowi",
+                new JsonHandler(), transport );
+    }
+
+    private void roundTrip( RestAuthConnection conn ) throws RestAuthException {
+        User user = User.create( conn, this.username, this.password );
+        assertEquals( user, User.get( conn, this.username ) );
+        assertTrue( user.verifyPassword( this.password ) );
+        assertFalse( user.verifyPassword( "whatever" ) );
+
+        assertNull( user.setProperty( prop_1_key, prop_1_val ) );
+        assertEquals( prop_1_val, user.getProperty( prop_1_key ) );
+        assertEquals( prop_1_val, user.getProperties().get( prop_1_key ) );
+
+        Group group = Group.create( conn, group_1 );
+        group.addUser( user );
+        assertTrue( group.isMember( user ) );
+        assertEquals( group, user.getGroups().get(0) );
+
+        user.remove();
+        try {
+            User.get( conn, this.username );
+            fail();
+        } catch (ResourceNotFound ex) {
+            assertEquals( "user", ex.getType() );
+        }
+    }
+
+    @Test
+    public void apacheTransport() throws Exception {
+        this.roundTrip( this.connect( new ApacheTransport() ) );
+    }
+
+    @Test
+    public void urlConnectionTransport() throws Exception {
+        this.roundTrip( this.connect( new HttpURLConnectionTransport() ) );
+    }
+
+    private void streamAll( RestAuthConnection conn ) throws RestAuthException {
+        this.directory.createUsers( "user", 1000, "password" );
+        final List<String> names = new ArrayList<String>();
+        User.getAll( conn, new ListCallback() {
+            public void item( String name ) {
+                names.add( name );
+            }
+        });
+        assertEquals( 1000, names.size() );
+        assertTrue( names.contains( "user999" ) );
+        assertEquals( 1000, User.getAll( conn ).size() );
+    }
+
+    @Test
+    public void apacheTransportStreaming() throws Exception {
+        this.streamAll( this.connect( new ApacheTransport() ) );
+    }
+
+    @Test
+    public void urlConnectionTransportStreaming() throws Exception {
+        this.streamAll( this.connect( new HttpURLConnectionTransport() ) );
+    }
+
+    private void compressed( RestAuthConnection conn ) throws RestAuthException {
+        Compression compression = new Compression();
+        conn.setCompression( compression );
+        this.streamAll( conn );
+        long compressed = compression.getCompressedBytes();
+        long uncompressed = compression.getUncompressedBytes();
+        assertTrue( compressed > 0 );
+        assertTrue( compressed < uncompressed );
+
+        // buffered responses are decompressed as well:
+        RestAuthResponse response = conn.get( "/users/" );
+        assertEquals( 1000, conn.getContentHandler( response ).unmarshal_list(
+                response.getRawBody(), response.getCharset() ).size() );
+        assertTrue( compression.getCompressedBytes() > compressed );
+
+        // small responses are not compressed:
+        compressed = compression.getCompressedBytes();
+        assertTrue( new User( conn, "user1" ).verifyPassword( "password" ) );
+        assertEquals( compressed, compression.getCompressedBytes() );
+    }
+
+    @Test
+    public void apacheTransportCompression() throws Exception {
+        this.compressed( this.connect( new ApacheTransport() ) );
+    }
+
+    @Test
+    public void urlConnectionTransportCompression() throws Exception {
+        this.compressed( this.connect( new HttpURLConnectionTransport() ) );
+    }
+
+    @Test
+    public void pooledConnection() throws Exception {
+        this.directory.createUsers( "user", 100, "password" );
+        final RestAuthConnection conn = this.connect( new ApacheTransport( 8, 8 ) );
+        ExecutorService executor = Executors.newFixedThreadPool( 8 );
+        List<Future<Boolean>> results = new ArrayList<Future<Boolean>>();
+        for ( int i = 0; i < 100; i++ ) {
+            final User user = new User( conn, "user" + i );
+            results.add( executor.submit( new Callable<Boolean>() {
+                public Boolean call() throws Exception {
+                    return user.verifyPassword( "password" );
+                }
+            } ) );
+        }
+        for ( Future<Boolean> result : results ) {
+            assertTrue( result.get() );
+        }
+        executor.shutdown();
+        conn.shutdown();
+    }
+}
@@ -0,0 +1,630 @@
+package BasicTests;
+
+import at.fsinf.restauth.common.JsonHandler;
+import at.fsinf.restauth.common.MessagePackHandler;
+import at.fsinf.restauth.common.RestAuthConnection;
+import at.fsinf.restauth.common.RestAuthRequest;
+import at.fsinf.restauth.common.RestAuthResponse;
+import at.fsinf.restauth.errors.InvalidCredentials;
+import at.fsinf.restauth.errors.NotAcceptable;
+import at.fsinf.restauth.errors.PreconditionFailed;
+import at.fsinf.restauth.errors.PreconditionIgnored;
+import at.fsinf.restauth.errors.PropertyExists;
+import at.fsinf.restauth.errors.ResourceNotFound;
+import at.fsinf.restauth.errors.RestAuthException;
+import at.fsinf.restauth.errors.Unauthorized;
+import at.fsinf.restauth.errors.UserExists;
+import at.fsinf.restauth.memory.MemoryDirectory;
+import at.fsinf.restauth.memory.MemoryTransport;
+import at.fsinf.restauth.resources.Change;
+import at.fsinf.restauth.resources.CreateResult;
+import at.fsinf.restauth.resources.Group;
+import at.fsinf.restauth.resources.GroupResolver;
+import at.fsinf.restauth.resources.Reconciler;
+import at.fsinf.restauth.resources.User;
+import at.fsinf.restauth.resources.UserProfile;
+import at.fsinf.restauth.resources.UserSpec;
+import java.net.URI;
+import java.net.URISyntaxException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import org.apache.http.Header;
+import org.junit.Before;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+/**
+ * Runs the basic user and group operations against the in-memory transport,
+ * so no RestAuth server is required.
+ *
+ * @author mati
+ */
+public class MemoryTransportTests {
+    RestAuthConnection conn;
+    MemoryDirectory directory;
+    String username = "user \u611b";
+    String password = "password \u611b";
+    String prop_1_key = "key \u609b";
+    String prop_1_val = "val \u610b";
+    String group_1 = "group \u601a";
+    String group_2 = "group \u602a";
+
+    @Before
+    public void setUp() throws InvalidCredentials, URISyntaxException {
+        this.directory = new MemoryDirectory();
+        this.directory.setCredentials( "vowi", "vowi" );
+        this.conn = new RestAuthConnection( new URI( "http://[::1]:8000" ),
+                "vowi", "vowi", new JsonHandler(),
+                new MemoryTransport( this.directory ) );
+    }
+
+    @Test
+    public void createUser() throws RestAuthException {
+        User user = User.create( this.conn, this.username, this.password );
+        assertEquals( user, User.get( this.conn, this.username ) );
+        List<User> users = User.getAll( this.conn );
+        assertEquals( 1, users.size() );
+        assertEquals( user, users.get(0) );
+
+        try {
+            User.create( this.conn, this.username, this.password );
+            fail();
+        } catch (UserExists ex) {
+            assertEquals( 1, this.directory.getUserCount() );
+        }
+    }
+
+    @Test
+    public void createUserWithSlash() throws RestAuthException {
+        try {
+            User.create( this.conn, "create/user", "pwd" );
+            fail();
+        } catch (PreconditionFailed e) {
+            assertEquals( 0, User.getAll( this.conn ).size() );
+        }
+    }
+
+    @Test
+    public void verifyPassword() throws RestAuthException {
+        User user = User.create( this.conn, this.username, this.password );
+        assertTrue( user.verifyPassword( this.password ) );
+        assertFalse( user.verifyPassword( "whatever" ) );
+
+        user.setPassword( "new" );
+        assertTrue( user.verifyPassword( "new" ) );
+        assertFalse( user.verifyPassword( this.password ) );
+
+        user.disableUser();
+        assertFalse( user.verifyPassword( "new" ) );
+        assertFalse( new User( this.conn, "invalid" ).verifyPassword( "" ) );
+    }
+
+    @Test
+    public void properties() throws RestAuthException {
+        User user = User.create( this.conn, this.username, this.password );
+        user.createProperty( prop_1_key, prop_1_val );
+        try {
+            user.createProperty( prop_1_key, "other" );
+            fail();
+        } catch (PropertyExists ex) {
+            assertEquals( prop_1_val, user.getProperty( prop_1_key ) );
+        }
+
+        assertEquals( prop_1_val, user.setProperty( prop_1_key, "new" ) );
+        assertNull( user.setProperty( "other", "value" ) );
+        Map<String, String> props = user.getProperties();
+        assertEquals( 2, props.size() );
+        assertEquals( "new", props.get( prop_1_key ) );
+
+        user.removeProperty( prop_1_key );
+        try {
+            user.getProperty( prop_1_key );
+            fail();
+        } catch (ResourceNotFound ex) {
+            assertEquals( "property", ex.getType() );
+        }
+    }
+
+    @Test
+    public void setProperties() throws RestAuthException {
+        User user = User.create( this.conn, this.username, this.password );
+        user.createProperty( prop_1_key, prop_1_val );
+        Map<String, String> props = new HashMap<String, String>();
+        for ( int i = 0; i < 20; i++ ) {
+            props.put( "key" + i, "value" + i );
+        }
+        props.put( prop_1_key, prop_1_val );
+        props.put( "invalid/key", "value" );
+
+        Map<String, Exception> failed = user.setProperties( props );
+        assertEquals( 1, failed.size() );
+        assertTrue( failed.containsKey( "invalid/key" ) );
+        props.remove( "invalid/key" );
+        assertEquals( props, user.getProperties() );
+
+        // unchanged values in the snapshot are skipped:
+        Map<String, String> snapshot = user.getProperties();
+        props.put( "key3", "new" );
+        new User( this.conn, this.username ).setProperty( "key4", "changed" );
+        ExecutorService executor = Executors.newFixedThreadPool( 4 );
+        try {
+            assertTrue( user.setProperties( props, snapshot, executor ).isEmpty() );
+        } finally {
+            executor.shutdown();
+        }
+        assertEquals( "new", user.getProperty( "key3" ) );
+        assertEquals( "changed", user.getProperty( "key4" ) );
+
+        // the executor is shut down, so it rejects the request:
+        snapshot = new HashMap<String, String>( props );
+        props.put( "key6", "rejected" );
+        failed = user.setProperties( props, snapshot, executor );
+        assertEquals( 1, failed.size() );
+        assertTrue( failed.get( "key6" ) instanceof RejectedExecutionException );
+        props.remove( "key6" );
+
+        props.put( "key5", null );
+        try {
+            user.setProperties( props );
+            fail();
+        } catch ( IllegalArgumentException ex ) {
+        }
+        props.remove( "key5" );
+
+        try {
+            new User( this.conn, "missing" ).setProperties( props );
+            fail();
+        } catch (ResourceNotFound ex) {
+            assertEquals( "user", ex.getType() );
+        }
+    }
+
+    @Test
+    public void fetchProfile() throws RestAuthException {
+        User user = User.create( this.conn, this.username, this.password );
+        user.createProperty( prop_1_key, prop_1_val );
+        Group.create( this.conn, group_1 ).addUser( user );
+
+        ExecutorService executor = Executors.newSingleThreadExecutor();
+        UserProfile profile = User.fetchProfile( this.conn, this.username, executor );
+        assertEquals( user, profile.getUser() );
+        assertEquals( prop_1_val, profile.getProperty( prop_1_key ) );
+        assertEquals( 1, profile.getGroups().size() );
+        assertTrue( profile.inGroup( group_1 ) );
+        assertTrue( profile.inGroup( group_1.toUpperCase() ) );
+        assertFalse( profile.inGroup( group_2 ) );
+
+        try {
+            User.fetchProfile( this.conn, "missing", executor );
+            fail();
+        } catch (ResourceNotFound ex) {
+            assertEquals( "user", ex.getType() );
+        } finally {
+            executor.shutdown();
+        }
+    }
+
+    @Test
+    public void compareAndSetProperty() throws RestAuthException {
+        User user = User.create( this.conn, this.username, this.password );
+        assertTrue( user.compareAndSetProperty( prop_1_key, null, "1" ) );
+        assertFalse( user.compareAndSetProperty( prop_1_key, null, "2" ) );
+        assertFalse( user.compareAndSetProperty( prop_1_key, "0", "2" ) );
+        assertEquals( "1", user.getProperty( prop_1_key ) );
+        assertTrue( user.compareAndSetProperty( prop_1_key, "1", prop_1_val ) );
+        assertEquals( prop_1_val, user.getProperty( prop_1_key ) );
+
+        assertFalse( user.compareAndRemoveProperty( prop_1_key, "1" ) );
+        assertTrue( user.compareAndRemoveProperty( prop_1_key, prop_1_val ) );
+        assertFalse( user.compareAndRemoveProperty( prop_1_key, prop_1_val ) );
+        assertTrue( user.getProperties().isEmpty() );
+
+        try {
+            new User( this.conn, "missing" ).compareAndSetProperty( prop_1_key, null, "1" );
+            fail();
+        } catch (ResourceNotFound ex) {
+            assertEquals( "user", ex.getType() );
+        }
+    }
+
+    @Test
+    public void compareAndSetPropertyIgnored() throws Exception {
+        // a server that does not support entity tags for properties:
+        RestAuthConnection plain = new RestAuthConnection( new URI( "http://[::1]:8000" ),
+                "vowi", "vowi", new JsonHandler(), new MemoryTransport( this.directory ) {
+            @Override
+            public RestAuthResponse execute( RestAuthRequest request ) {
+                removeHeaders( request.getHeaders() );
+                RestAuthResponse response = super.execute( request );
+                removeHeaders( response.getHeaders() );
+                return response;
+            }
+        });
+        User user = User.create( plain, this.username, this.password );
+        user.createProperty( prop_1_key, prop_1_val );
+        try {
+            user.compareAndSetProperty( prop_1_key, "other", "new" );
+            fail();
+        } catch (PreconditionIgnored ex) {
+            assertEquals( "new", user.getProperty( prop_1_key ) );
+        }
+        try {
+            user.compareAndRemoveProperty( prop_1_key, "other" );
+            fail();
+        } catch (PreconditionIgnored ex) {}
+    }
+
+    /**
+     * Remove the headers used for conditional requests.
+     *
+     * @param headers The headers of a request or response.
+     */
+    static void removeHeaders( List<Header> headers ) {
+        Iterator<Header> iter = headers.iterator();
+        while ( iter.hasNext() ) {
+            String name = iter.next().getName();
+            if ( name.equalsIgnoreCase( "If-Match" ) || name.equalsIgnoreCase( "If-None-Match" )
+                    || name.equalsIgnoreCase( "ETag" ) ) {
+                iter.remove();
+            }
+        }
+    }
+
+    @Test
+    public void createAll() throws RestAuthException {
+        Group.create( this.conn, group_1 );
+        User.create( this.conn, "existing" );
+        List<UserSpec> specs = new ArrayList<UserSpec>();
+        for ( int i = 0; i < 50; i++ ) {
+            specs.add( new UserSpec( "user" + i, this.password )
+                    .addProperty( prop_1_key, prop_1_val + i ).addGroup( group_1 ) );
+        }
+        specs.add( new UserSpec( "existing" ) );
+        specs.add( new UserSpec( "invalid/name" ) );
+        specs.add( new UserSpec( this.username ).addGroup( group_2 ) );
+
+        Map<String, CreateResult> results = new HashMap<String, CreateResult>();
+        for ( CreateResult result : User.createAll( this.conn, specs, 4 ) ) {
+            results.put( result.getSpec().getName(), result );
+        }
+        assertEquals( specs.size(), results.size() );
+        for ( int i = 0; i < 50; i++ ) {
+            assertTrue( results.get( "user" + i ).isSuccess() );
+        }
+        User user = new User( this.conn, "user7" );
+        assertTrue( user.verifyPassword( this.password ) );
+        assertEquals( prop_1_val + "7", user.getProperty( prop_1_key ) );
+        assertEquals( 50, new Group( this.conn, group_1 ).getUsers().size() );
+
+        assertTrue( results.get( "existing" ).getError() instanceof UserExists );
+        assertNull( results.get( "existing" ).getUser() );
+        assertTrue( results.get( "invalid/name" ).getError() instanceof PreconditionFailed );
+        // the user is created even if it cannot be added to its group:
+        CreateResult missingGroup = results.get( this.username );
+        assertTrue( missingGroup.getError() instanceof ResourceNotFound );
+        assertEquals( new User( this.conn, this.username ), missingGroup.getUser() );
+    }
+
+    @Test
+    public void setMembers() throws RestAuthException {
+        Group group = Group.create( this.conn, group_1 );
+        List<String> members = new ArrayList<String>();
+        for ( int i = 0; i < 20; i++ ) {
+            User.create( this.conn, "user" + i );
+            if ( i < 10 ) group.addUser( "user" + i );
+            if ( i >= 5 ) members.add( "user" + i );
+        }
+        members.add( "missing" );
+
+        ExecutorService executor = Executors.newFixedThreadPool( 4 );
+        Map<String, Exception> failed;
+        try {
+            failed = group.setMembers( members, executor );
+        } finally {
+            executor.shutdown();
+        }
+        assertEquals( 1, failed.size() );
+        assertTrue( failed.get( "missing" ) instanceof ResourceNotFound );
+        assertEquals( 15, group.getUsers().size() );
+        assertFalse( group.isMember( "user4" ) );
+        assertTrue( group.isMember( "user19" ) );
+
+        members.remove( "missing" );
+        members.set( 0, "USER5" ); // names are case-insensitive
+        assertTrue( group.setMembers( members ).isEmpty() );
+        assertEquals( 15, group.getUsers().size() );
+        assertTrue( group.isMember( "user5" ) );
+        assertTrue( group.setMembers( new ArrayList<String>() ).isEmpty() );
+        assertTrue( group.getUsers().isEmpty() );
+
+        try {
+            new Group( this.conn, group_2 ).setMembers( members );
+            fail();
+        } catch (ResourceNotFound ex) {
+            assertEquals( "group", ex.getType() );
+        }
+    }
+
+    @Test
+    public void setMembersInherited() throws RestAuthException {
+        Group group = Group.create( this.conn, group_1 );
+        Group meta = Group.create( this.conn, group_2 );
+        meta.addGroup( group );
+        User.create( this.conn, "direct" );
+        User.create( this.conn, "inherited" );
+        meta.addUser( "inherited" );
+
+        // an inherited member is a member already, so it is not added directly:
+        List<String> members = new ArrayList<String>();
+        members.add( "direct" );
+        members.add( "inherited" );
+        assertTrue( group.setMembers( members ).isEmpty() );
+        assertEquals( 2, group.getUsers().size() );
+        meta.removeGroup( group );
+        assertFalse( group.isMember( "inherited" ) );
+        meta.addGroup( group );
+
+        // ... and it cannot be removed from this group:
+        members.remove( "inherited" );
+        Map<String, Exception> failed = group.setMembers( members );
+        assertEquals( 1, failed.size() );
+        assertTrue( failed.get( "inherited" ) instanceof ResourceNotFound );
+        assertTrue( group.isMember( "inherited" ) );
+        assertTrue( group.isMember( "direct" ) );
+    }
+
+    @Test
+    public void effectiveGroups() throws RestAuthException {
+        User user = User.create( this.conn, this.username );
+        Group meta = Group.create( this.conn, group_1 );
+        meta.addUser( user );
+        Group.create( this.conn, group_2 );
+        for ( int i = 0; i < 5; i++ ) {
+            Group.create( this.conn, "sub" + i );
+            meta.addGroup( "sub" + i );
+            Group.create( this.conn, "subsub" + i );
+            new Group( this.conn, "sub" + i ).addGroup( "subsub" + i );
+        }
+        // a cycle back to the meta-group:
+        new Group( this.conn, "subsub0" ).addGroup( group_1 );
+
+        GroupResolver resolver = new GroupResolver( this.conn, 4 );
+        Set<String> groups = resolver.getEffectiveGroups( user );
+        assertEquals( 11, groups.size() );
+        assertEquals( group_1, groups.iterator().next() );
+        assertTrue( groups.contains( "subsub4" ) );
+        assertFalse( groups.contains( group_2 ) );
+
+        // sub-groups are remembered until the resolver is cleared:
+        new Group( this.conn, "subsub4" ).addGroup( group_2 );
+        assertEquals( 11, resolver.getEffectiveGroups( user ).size() );
+        resolver.clear();
+        assertEquals( 12, resolver.getEffectiveGroups( user ).size() );
+
+        List<String> start = new ArrayList<String>();
+        start.add( "sub1" );
+        start.add( "missing" );
+        assertEquals( 3, resolver.resolve( start ).size() );
+        resolver.shutdown();
+    }
+
+    @Test
+    public void effectiveGroupsExpire() throws Exception {
+        Group meta = Group.create( this.conn, group_1 );
+        Group.create( this.conn, group_2 );
+        Group.create( this.conn, "sub" );
+        meta.addGroup( "sub" );
+        List<String> start = new ArrayList<String>();
+        start.add( group_1 );
+
+        ExecutorService executor = Executors.newFixedThreadPool( 2 );
+        try {
+            GroupResolver resolver = new GroupResolver( this.conn, executor, 10, 200 );
+            assertEquals( 2, resolver.resolve( start ).size() );
+
+            // remembered sub-groups expire without calling clear():
+            new Group( this.conn, "sub" ).addGroup( group_2 );
+            assertEquals( 2, resolver.resolve( start ).size() );
+            Thread.sleep( 300 );
+            assertEquals( 3, resolver.resolve( start ).size() );
+        } finally {
+            executor.shutdown();
+        }
+    }
+
+    @Test
+    public void reconcile() throws RestAuthException {
+        User kept = User.create( this.conn, "kept" );
+        kept.createProperty( prop_1_key, prop_1_val );
+        kept.createProperty( "extra", "value" );
+        User.create( this.conn, "removed" );
+        Group.create( this.conn, group_1 ).addUser( "removed" );
+        Group.create( this.conn, group_2 );
+
+        List<UserSpec> specs = new ArrayList<UserSpec>();
+        specs.add( new UserSpec( "kept" ).addProperty( prop_1_key, prop_1_val )
+                .addGroup( group_1 ) );
+        specs.add( new UserSpec( this.username, this.password )
+                .addProperty( prop_1_key, "new" ).addGroup( group_1 ).addGroup( "new group" ) );
+        List<String> groups = new ArrayList<String>();
+        groups.add( group_2 );
+
+        Reconciler reconciler = new Reconciler( this.conn, 4 );
+        List<Change> plan = reconciler.plan( specs, groups );
+        // create a group and a user, add them to the groups and remove "removed":
+        assertEquals( 6, plan.size() );
+        assertTrue( reconciler.apply( plan ).isEmpty() );
+
+        User user = new User( this.conn, this.username );
+        assertTrue( user.verifyPassword( this.password ) );
+        assertEquals( "new", user.getProperty( prop_1_key ) );
+        assertEquals( 2, user.getGroups().size() );
+        assertEquals( 2, new Group( this.conn, group_1 ).getUsers().size() );
+        assertFalse( new Group( this.conn, group_1 ).isMember( "removed" ) );
+        assertEquals( "value", kept.getProperty( "extra" ) );
+        assertTrue( reconciler.plan( specs, groups ).isEmpty() );
+
+        // remove everything that is not part of the desired state:
+        reconciler.setDeleteExtra( true );
+        specs.remove( 0 );
+        plan = reconciler.plan( specs, groups );
+        assertEquals( 2, plan.size() );
+        assertTrue( reconciler.apply( plan ).isEmpty() );
+        assertEquals( 1, User.getAll( this.conn ).size() );
+        assertEquals( 3, Group.getAll( this.conn ).size() );
+        assertTrue( reconciler.plan( specs, groups ).isEmpty() );
+    }
+
+    @Test
+    public void reconcileCase() throws RestAuthException {
+        User.create( this.conn, "mixed" ).createProperty( prop_1_key, prop_1_val );
+        Group.create( this.conn, group_1 ).addUser( "mixed" );
+
+        List<UserSpec> specs = new ArrayList<UserSpec>();
+        specs.add( new UserSpec( "Mixed" ).addProperty( prop_1_key, prop_1_val )
+                .addGroup( group_1.toUpperCase() ) );
+        List<String> groups = new ArrayList<String>();
+        groups.add( group_1.toUpperCase() );
+
+        // the user and the group already exist, so nothing is created or removed:
+        Reconciler reconciler = new Reconciler( this.conn, 4 );
+        reconciler.setDeleteExtra( true );
+        assertTrue( reconciler.plan( specs, groups ).isEmpty() );
+
+        try {
+            new UserSpec( "mixed" ).addProperty( prop_1_key, null );
+            fail();
+        } catch ( IllegalArgumentException ex ) {
+        }
+    }
+
+    @Test
+    public void removeUser() throws RestAuthException {
+        User user = User.create( this.conn, this.username, this.password );
+        user.remove();
+        assertEquals( 0, User.getAll( this.conn ).size() );
+        try {
+            user.remove();
+            fail();
+        } catch (ResourceNotFound ex) {
+            assertEquals( "user", ex.getType() );
+        }
+    }
+
+    @Test
+    public void groupMembership() throws RestAuthException {
+        Group group1 = Group.create( this.conn, group_1 );
+        Group group2 = Group.create( this.conn, group_2 );
+        User user = User.create( this.conn, this.username, this.password );
+
+        assertFalse( group1.isMember( user ) );
+        group1.addUser( user );
+        assertTrue( group1.isMember( user ) );
+        assertTrue( user.inGroup( group1 ) );
+        assertFalse( group2.isMember( user ) );
+        assertEquals( 1, user.getGroups().size() );
+
+        // group2 inherits the members of its meta-group group1:
+        group1.addGroup( group2 );
+        assertEquals( 1, group1.getGroups().size() );
+        assertTrue( group2.isMember( user ) );
+        assertEquals( 1, group2.getUsers().size() );
+
+        group1.removeUser( user );
+        assertFalse( group1.isMember( user ) );
+        assertFalse( group2.isMember( user ) );
+    }
+
+    @Test
+    public void invalidGroup() throws RestAuthException {
+        Group group = new Group( this.conn, group_1 );
+        try {
+            group.isMember( this.username );
+            fail();
+        } catch (ResourceNotFound ex) {
+            assertEquals( "group", ex.getType() );
+        }
+        try {
+            group.getUsers();
+            fail();
+        } catch (ResourceNotFound ex) {
+            assertEquals( "group", ex.getType() );
+        }
+    }
+
+    @Test
+    public void userList() throws RestAuthException {
+        Group group = Group.create( this.conn, group_1 );
+        String[] names = new String[] { "a", this.username, "user \ud83d\ude00", "z" };
+        for ( String name : names ) {
+            group.addUser( User.create( this.conn, name, this.password ) );
+        }
+
+        List<User> users = User.getAll( this.conn );
+        assertEquals( names.length, users.size() );
+        List<User> members = group.getUsers();
+        assertEquals( names.length, members.size() );
+        for ( String name : names ) {
+            User user = new User( this.conn, name );
+            assertTrue( users.contains( user ) );
+            assertTrue( members.contains( user ) );
+        }
+        try {
+            users.add( new User( this.conn, "new" ) );
+            fail();
+        } catch (UnsupportedOperationException ex) {}
+        try {
+            users.get( names.length );
+            fail();
+        } catch (IndexOutOfBoundsException ex) {}
+    }
+
+    @Test
+    public void wrongCredentials() throws Exception {
+        RestAuthConnection wrong = new RestAuthConnection(
+                new URI( "http://[::1]:8000" ), "vowi", "wrong",
+                new JsonHandler(), new MemoryTransport( this.directory ) );
+        try {
+            User.getAll( wrong );
+            fail();
+        } catch (Unauthorized ex) {
+            assertEquals( 401, ex.getResponseCode() );
+        }
+    }
+
+    @Test
+    public void contentNegotiation() throws RestAuthException {
+        this.conn.setContentHandlers( new MessagePackHandler(), new JsonHandler() );
+        User.create( this.conn, this.username, this.password ).createProperty(
+                prop_1_key, prop_1_val );
+        assertTrue( this.conn.getContentHandler() instanceof JsonHandler );
+
+        // the server accepts JSON responses as long as JSON is in the list:
+        this.conn.setContentHandlers( new MessagePackHandler(), new JsonHandler() );
+        User user = User.getAll( this.conn ).get( 0 );
+        assertEquals( prop_1_val, user.getProperties().get( prop_1_key ) );
+        assertTrue( this.conn.getContentHandler() instanceof MessagePackHandler );
+    }
+
+    @Test
+    public void contentNegotiationFallback() throws RestAuthException {
+        User.create( this.conn, this.username, this.password );
+        this.conn.setContentHandlers( new MessagePackHandler() );
+        assertEquals( 1, User.getAll( this.conn ).size() );
+        assertTrue( this.conn.getContentHandler() instanceof JsonHandler );
+
+        // without negotiation, there is no fallback:
+        this.conn.setContentHandler( new MessagePackHandler() );
+        try {
+            User.get( this.conn, this.username );
+            fail();
+        } catch (NotAcceptable ex) {}
+    }
+}
@@ -0,0 +1,100 @@
+package BasicTests;
+
+import at.fsinf.restauth.common.ListCallback;
+import at.fsinf.restauth.common.MessagePackHandler;
+import at.fsinf.restauth.errors.UnmarshalException;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+/**
+ *
+ * @author mati
+ */
+public class MessagePackHandlerTests {
+    private final MessagePackHandler handler = new MessagePackHandler();
+
+    /**
+     * Build a byte array from integers.
+     */
+    private static byte[] bytes( int... values ) {
+        byte[] raw = new byte[values.length];
+        for ( int i = 0; i < values.length; i++ ) {
+            raw[i] = (byte) values[i];
+        }
+        return raw;
+    }
+
+    @Test
+    public void marshal_fields() throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        this.handler.marshal_fields( out, "a", "b", "c", null );
+        assertArrayEquals( bytes( 0x81, 0xa1, 'a', 0xa1, 'b' ), out.toByteArray() );
+
+        Map<String, String> map = this.handler.unmarshal_dictionary(
+                ByteBuffer.wrap( out.toByteArray() ), null );
+        assertEquals( 1, map.size() );
+        assertEquals( "b", map.get( "a" ) );
+    }
+
+    @Test
+    public void marshal_map() throws IOException {
+        Map<String, Object> properties = new HashMap<String, Object>();
+        properties.put( "key \u611b", "val \u611b" );
+        Map<String, Object> map = new HashMap<String, Object>();
+        StringBuilder longValue = new StringBuilder();
+        for ( int i = 0; i < 300; i++ ) longValue.append( 'x' );
+        map.put( "user", longValue.toString() );
+        map.put( "properties", properties );
+
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        this.handler.marshal_dictionary( map, out );
+        byte[] raw = out.toByteArray();
+        assertEquals( 0x82, raw[0] & 0xff );
+        assertEquals( 1 + 5 + 3 + 300 + 11 + 1 + 8 + 8, raw.length );
+    }
+
+    @Test
+    public void unmarshal_list() throws IOException {
+        byte[] raw = bytes( 0x92, 0xa3, 'f', 'o', 'o', 0xd9, 3, 'b', 'a', 'r' );
+        List<String> list = this.handler.unmarshal_list( ByteBuffer.wrap( raw ), null );
+        assertEquals( 2, list.size() );
+        assertEquals( "foo", list.get( 0 ) );
+        assertEquals( "bar", list.get( 1 ) );
+
+        final List<String> streamed = new ArrayList<String>();
+        this.handler.unmarshal_list( new ByteArrayInputStream( raw ), null, new ListCallback() {
+            public void item( String value ) {
+                streamed.add( value );
+            }
+        });
+        assertEquals( list, streamed );
+    }
+
+    @Test
+    public void unmarshal_string() {
+        byte[] raw = bytes( 0x91, 0xa3, 'f', 'o', 'o' );
+        assertEquals( "foo", this.handler.unmarshal_string( ByteBuffer.wrap( raw ), null ) );
+        raw = bytes( 0xa3, 'f', 'o', 'o' );
+        assertEquals( "foo", this.handler.unmarshal_string( ByteBuffer.wrap( raw ), null ) );
+    }
+
+    @Test
+    public void unmarshal_invalid() {
+        try {
+            this.handler.unmarshal_list( ByteBuffer.wrap( bytes( 0x81, 0xa1, 'a' ) ), null );
+            fail();
+        } catch ( UnmarshalException ex ) {}
+        try {
+            this.handler.unmarshal_list( ByteBuffer.wrap( bytes( 0x92, 0xa1, 'a' ) ), null );
+            fail();
+        } catch ( UnmarshalException ex ) {}
+    }
+}
@@ -0,0 +1,171 @@
+package BasicTests;
+
+import at.fsinf.restauth.common.JsonHandler;
+import at.fsinf.restauth.common.RequestCoalescer;
+import at.fsinf.restauth.common.RestAuthConnection;
+import at.fsinf.restauth.common.RestAuthRequest;
+import at.fsinf.restauth.common.RestAuthResponse;
+import at.fsinf.restauth.errors.Unauthorized;
+import at.fsinf.restauth.memory.MemoryDirectory;
+import at.fsinf.restauth.memory.MemoryTransport;
+import at.fsinf.restauth.resources.User;
+import java.net.URI;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+/**
+ * Tests merging of concurrent identical GET requests. The transport used
+ * blocks the first request until all other threads are waiting for it.
+ *
+ * @author mati
+ */
+public class RequestCoalescerTests {
+    RestAuthConnection conn;
+    MemoryDirectory directory;
+    BlockingTransport transport;
+    ExecutorService executor;
+    String username = "user \u611b";
+    String password = "password \u611b";
+
+    /**
+     * A transport that counts requests and blocks until it is released.
+     */
+    static class BlockingTransport extends MemoryTransport {
+        final AtomicInteger requests = new AtomicInteger();
+        final CountDownLatch entered = new CountDownLatch( 1 );
+        final CountDownLatch release = new CountDownLatch( 1 );
+
+        BlockingTransport( MemoryDirectory directory ) {
+            super( directory );
+        }
+
+        @Override
+        public RestAuthResponse execute( RestAuthRequest request ) {
+            this.requests.incrementAndGet();
+            this.entered.countDown();
+            try {
+                this.release.await();
+            } catch ( InterruptedException ex ) {
+                Thread.currentThread().interrupt();
+            }
+            return super.execute( request );
+        }
+    }
+
+    @Before
+    public void setUp() throws Exception {
+        this.directory = new MemoryDirectory();
+        RestAuthConnection setup = new RestAuthConnection(
+                new URI( "http://[::1]:8000" ), "vowi", "vowi",
+                new JsonHandler(), new MemoryTransport( this.directory ) );
+        User.create( setup, this.username, this.password ).createProperty( "foo", "bar" );
+
+        this.transport = new BlockingTransport( this.directory );
+        this.conn = new RestAuthConnection( new URI( "http://[::1]:8000" ),
+                "vowi", "vowi", new JsonHandler(), this.transport );
+        this.executor = Executors.newCachedThreadPool();
+    }
+
+    @After
+    public void tearDown() {
+        this.executor.shutdownNow();
+    }
+
+    @Test
+    public void concurrentGets() throws Exception {
+        RequestCoalescer coalescer = new RequestCoalescer();
+        this.conn.setRequestCoalescer( coalescer );
+
+        final User user = new User( this.conn, this.username );
+        Callable<Map<String, String>> task = new Callable<Map<String, String>>() {
+            public Map<String, String> call() throws Exception {
+                return user.getProperties();
+            }
+        };
+
+        List<Future<Map<String, String>>> results = new ArrayList<Future<Map<String, String>>>();
+        results.add( this.executor.submit( task ) );
+        this.transport.entered.await();
+        for ( int i = 0; i < 7; i++ ) {
+            results.add( this.executor.submit( task ) );
+        }
+        while ( coalescer.getShared() < 7 ) {
+            Thread.sleep( 1 );
+        }
+        this.transport.release.countDown();
+
+        for ( Future<Map<String, String>> result : results ) {
+            assertEquals( "bar", result.get().get( "foo" ) );
+        }
+        assertEquals( 1, this.transport.requests.get() );
+        assertEquals( 1, coalescer.getRequests() );
+
+        // later requests are sent again:
+        user.getProperties();
+        assertEquals( 2, this.transport.requests.get() );
+    }
+
+    @Test
+    public void credentialsAreNotMerged() throws Exception {
+        this.directory.setCredentials( "vowi", "vowi" );
+        RequestCoalescer coalescer = new RequestCoalescer();
+        this.conn.setRequestCoalescer( coalescer );
+        RestAuthConnection wrong = new RestAuthConnection( new URI( "http://[::1]:8000" ),
+                "vowi", "wrong", new JsonHandler(), this.transport );
+        wrong.setRequestCoalescer( coalescer );
+
+        final User user = new User( this.conn, this.username );
+        final User other = new User( wrong, this.username );
+        Future<Map<String, String>> allowed = this.executor.submit(
+                new Callable<Map<String, String>>() {
+            public Map<String, String> call() throws Exception {
+                return user.getProperties();
+            }
+        });
+        this.transport.entered.await();
+        Future<Map<String, String>> denied = this.executor.submit(
+                new Callable<Map<String, String>>() {
+            public Map<String, String> call() throws Exception {
+                return other.getProperties();
+            }
+        });
+        while ( this.transport.requests.get() + coalescer.getShared() < 2 ) {
+            Thread.sleep( 1 );
+        }
+        this.transport.release.countDown();
+
+        assertEquals( "bar", allowed.get().get( "foo" ) );
+        try {
+            denied.get();
+            fail();
+        } catch ( ExecutionException e ) {
+            assertTrue( e.getCause() instanceof Unauthorized );
+        }
+        assertEquals( 2, coalescer.getRequests() );
+        assertEquals( 0, coalescer.getShared() );
+    }
+
+    @Test
+    public void writesAreNotMerged() throws Exception {
+        this.transport.release.countDown();
+        this.conn.setRequestCoalescer( new RequestCoalescer() );
+        User user = new User( this.conn, this.username );
+        user.setProperty( "foo", "baz" );
+        user.setProperty( "foo", "bar" );
+        assertEquals( 0, this.conn.getRequestCoalescer().getRequests() );
+        assertEquals( "bar", user.getProperty( "foo" ) );
+        assertEquals( 1, this.conn.getRequestCoalescer().getRequests() );
+    }
+}
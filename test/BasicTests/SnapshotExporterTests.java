@@ -0,0 +1,132 @@
+package BasicTests;
+
+import at.fsinf.restauth.common.JsonHandler;
+import at.fsinf.restauth.common.RestAuthConnection;
+import at.fsinf.restauth.common.RestAuthRequest;
+import at.fsinf.restauth.common.RestAuthResponse;
+import at.fsinf.restauth.memory.MemoryDirectory;
+import at.fsinf.restauth.memory.MemoryTransport;
+import at.fsinf.restauth.resources.Group;
+import at.fsinf.restauth.resources.SnapshotCallback;
+import at.fsinf.restauth.resources.SnapshotExporter;
+import at.fsinf.restauth.resources.User;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.URI;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+/**
+ * Tests writing, reading and resuming snapshots of an in-memory directory.
+ *
+ * @author mati
+ */
+public class SnapshotExporterTests {
+    RestAuthConnection conn;
+    MemoryDirectory directory;
+    File file;
+    String prop_1_key = "key \u609b";
+    String prop_1_val = "val \u610b";
+    String group_1 = "group \u601a";
+
+    /**
+     * A transport that fails once a given number of requests was made.
+     */
+    static class FailingTransport extends MemoryTransport {
+        final AtomicInteger remaining;
+
+        FailingTransport( MemoryDirectory directory, int requests ) {
+            super( directory );
+            this.remaining = new AtomicInteger( requests );
+        }
+
+        @Override
+        public RestAuthResponse execute( RestAuthRequest request ) {
+            if ( this.remaining.decrementAndGet() < 0 ) {
+                throw new IllegalStateException( "connection lost" );
+            }
+            return super.execute( request );
+        }
+    }
+
+    @Before
+    public void setUp() throws Exception {
+        this.directory = new MemoryDirectory();
+        this.directory.createUsers( "user", 100, "password" );
+        this.conn = new RestAuthConnection( new URI( "http://[::1]:8000" ),
+                "vowi", "vowi", new JsonHandler(), new MemoryTransport( this.directory ) );
+        Group group = Group.create( this.conn, group_1 );
+        for ( int i = 0; i < 100; i += 10 ) {
+            User user = new User( this.conn, "user" + i );
+            user.createProperty( prop_1_key, prop_1_val + i );
+            group.addUser( user );
+        }
+        this.file = File.createTempFile( "snapshot", ".bin" );
+    }
+
+    @After
+    public void tearDown() {
+        this.file.delete();
+        SnapshotExporter.getCheckpointFile( this.file ).delete();
+    }
+
+    private Map<String, Map<String, String>> read() throws IOException {
+        final Map<String, Map<String, String>> users = new HashMap<String, Map<String, String>>();
+        InputStream in = new FileInputStream( this.file );
+        try {
+            SnapshotExporter.read( in, new SnapshotCallback() {
+                public void user( String name, Map<String, String> properties,
+                        List<String> groups ) {
+                    assertNull( users.put( name, properties ) );
+                    assertEquals( name.endsWith( "0" ) ? 1 : 0, groups.size() );
+                }
+            });
+        } finally {
+            in.close();
+        }
+        return users;
+    }
+
+    @Test
+    public void export() throws Exception {
+        SnapshotExporter exporter = new SnapshotExporter( this.conn, 4 );
+        exporter.export( this.file );
+        assertEquals( 100, exporter.getExported() );
+        assertEquals( this.file.length(), exporter.getBytesWritten() );
+        assertFalse( SnapshotExporter.getCheckpointFile( this.file ).exists() );
+        assertTrue( exporter.getReport().startsWith( "100 users (0 skipped" ) );
+
+        Map<String, Map<String, String>> users = this.read();
+        assertEquals( 100, users.size() );
+        assertEquals( prop_1_val + "30", users.get( "user30" ).get( prop_1_key ) );
+        assertTrue( users.get( "user31" ).isEmpty() );
+    }
+
+    @Test
+    public void resume() throws Exception {
+        RestAuthConnection failing = new RestAuthConnection( new URI( "http://[::1]:8000" ),
+                "vowi", "vowi", new JsonHandler(), new FailingTransport( this.directory, 101 ) );
+        SnapshotExporter exporter = new SnapshotExporter( failing, 4 );
+        exporter.setCheckpointInterval( 10 );
+        try {
+            exporter.export( this.file );
+            fail();
+        } catch (IllegalStateException ex) {}
+        assertTrue( SnapshotExporter.getCheckpointFile( this.file ).exists() );
+        assertTrue( exporter.getExported() < 100 );
+
+        exporter = new SnapshotExporter( this.conn, 4 );
+        exporter.export( this.file );
+        assertEquals( 100, exporter.getExported() );
+        assertFalse( SnapshotExporter.getCheckpointFile( this.file ).exists() );
+        assertEquals( 100, this.read().size() );
+    }
+}